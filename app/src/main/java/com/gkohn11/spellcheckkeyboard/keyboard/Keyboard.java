@@ -165,4 +165,46 @@ public class Keyboard {
         final int adjustedY = Math.max(0, Math.min(y, mOccupiedHeight - 1));
         return mProximityInfo.getNearestKeys(adjustedX, adjustedY);
     }
+
+    /**
+     * Collects the codes of the letter keys within about one key of the given point, i.e. the
+     * keys a finger aiming at one of them could plausibly have hit instead.
+     * @param x the x-coordinate of the point
+     * @param y the y-coordinate of the point
+     * @param outCodes the array to receive the codes, nearest cells first
+     * @return the number of codes stored in outCodes
+     */
+    public int getProximateCodes(final int x, final int y, final int[] outCodes) {
+        final int maxDistance = Math.max(mMostCommonKeyWidth, mMostCommonKeyHeight);
+        final int maxSquaredDistance = maxDistance * maxDistance;
+        int count = 0;
+        for (int dy = -1; dy <= 1; dy++) {
+            for (int dx = -1; dx <= 1; dx++) {
+                final List<Key> keys = getNearestKeys(x + dx * mMostCommonKeyWidth,
+                        y + dy * mMostCommonKeyHeight);
+                for (final Key key : keys) {
+                    final int code = key.getCode();
+                    if (!Character.isLetter(code)
+                            || key.squaredDistanceToHitboxEdge(x, y) > maxSquaredDistance
+                            || contains(outCodes, count, code)) {
+                        continue;
+                    }
+                    if (count >= outCodes.length) {
+                        return count;
+                    }
+                    outCodes[count++] = code;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static boolean contains(final int[] codes, final int count, final int code) {
+        for (int i = 0; i < count; i++) {
+            if (codes[i] == code) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
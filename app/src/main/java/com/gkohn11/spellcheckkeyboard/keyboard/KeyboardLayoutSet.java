@@ -42,6 +42,7 @@ import com.gkohn11.spellcheckkeyboard.keyboard.internal.KeyboardBuilder;
 import com.gkohn11.spellcheckkeyboard.keyboard.internal.KeyboardParams;
 import com.gkohn11.spellcheckkeyboard.keyboard.internal.UniqueKeysCache;
 import com.gkohn11.spellcheckkeyboard.latin.Subtype;
+import com.gkohn11.spellcheckkeyboard.latin.settings.Settings;
 import com.gkohn11.spellcheckkeyboard.latin.utils.InputTypeUtils;
 import com.gkohn11.spellcheckkeyboard.latin.utils.XmlParseUtils;
 
@@ -114,6 +115,7 @@ public final class KeyboardLayoutSet {
 
     public static void onKeyboardThemeChanged() {
         clearKeyboardCache();
+        Settings.onThemeChanged();
     }
 
     private static void clearKeyboardCache() {
@@ -241,8 +241,10 @@ public final class PointerTracker implements PointerTrackerQueue.Element {
         if (code == Constants.CODE_OUTPUT_TEXT) {
             sListener.onTextInput(key.getOutputText());
         } else if (code != Constants.CODE_UNSPECIFIED) {
+            // Pass the corrected touch point on so that the word being typed can be matched
+            // against the keys around each tap.
             sListener.onCodeInput(code,
-                Constants.NOT_A_COORDINATE, Constants.NOT_A_COORDINATE, isKeyRepeat);
+                mKeyDetector.getTouchX(x), mKeyDetector.getTouchY(y), isKeyRepeat);
         }
     }
 
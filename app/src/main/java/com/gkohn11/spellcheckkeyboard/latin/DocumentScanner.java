@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2025 Raimondas Rimkus
+ *
+ * This file is part of Simple Spellcheck, a derivative work based on
+ * Simple Keyboard (Copyright (C) 2025 Raimondas Rimkus and contributors)
+ * which is based on AOSP LatinIME (Copyright (C) 2008 The Android Open Source Project).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gkohn11.spellcheckkeyboard.latin;
+
+import android.os.Process;
+import android.util.Log;
+import android.view.inputmethod.InputConnection;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.gkohn11.spellcheckkeyboard.latin.replacement.MisspellingScanner;
+import com.gkohn11.spellcheckkeyboard.latin.settings.TextReplacementManager;
+
+/**
+ * Finds the words and phrases of the whole document that have a replacement entry, for scan
+ * mode.
+ *
+ * The editor only gives out text relative to the cursor, and scan mode moves the cursor as soon
+ * as the first misspelling is shown. So the text before and after the cursor is fetched up front
+ * on a dedicated low-priority thread, in two requests of at most {@link #MAX_SCAN_LENGTH} chars
+ * each, and is then scanned a page at a time. Misspellings are handed to the UI thread through
+ * {@link LatinIME.UIHandler} in document order: the first page with a hit is delivered right
+ * away, later ones in batches of {@link #BATCH_SIZE}. Every scan has a {@link CancellationToken};
+ * cancelling it stops the worker at the next page and drops results still in flight.
+ */
+final class DocumentScanner {
+    private static final String TAG = DocumentScanner.class.getSimpleName();
+
+    // Upper bound for the text requested on each side of the cursor, to stay well below the
+    // binder transaction limit.
+    private static final int MAX_SCAN_LENGTH = 100000;
+    private static final int PAGE_SIZE = 1024;
+    private static final int BATCH_SIZE = 16;
+
+    /**
+     * Cancellation flag shared between the UI thread and the worker of one scan.
+     */
+    static final class CancellationToken {
+        private volatile boolean mCancelled;
+
+        void cancel() {
+            mCancelled = true;
+        }
+
+        boolean isCancelled() {
+            return mCancelled;
+        }
+    }
+
+    /**
+     * A batch of misspellings, in document order, or the end of the scan when mIsLast is set.
+     */
+    static final class Result {
+        final CancellationToken mToken;
+        final List<LatinIME.MisspellingInfo> mMisspellings;
+        final boolean mIsLast;
+
+        Result(final CancellationToken token, final List<LatinIME.MisspellingInfo> misspellings,
+                final boolean isLast) {
+            mToken = token;
+            mMisspellings = misspellings;
+            mIsLast = isLast;
+        }
+    }
+
+    private final LatinIME mLatinIME;
+    private final ExecutorService mScanThread;
+    // Only accessed on the UI thread.
+    private CancellationToken mCurrentToken;
+
+    DocumentScanner(final LatinIME latinIME) {
+        mLatinIME = latinIME;
+        mScanThread = Executors.newSingleThreadExecutor();
+    }
+
+    /**
+     * Start scanning the document, cancelling any scan in progress.
+     * @param selectionStart absolute position of the cursor (or selection start)
+     * @param selectionEnd absolute position of the selection end
+     */
+    void start(final int selectionStart, final int selectionEnd) {
+        cancel();
+        final CancellationToken token = new CancellationToken();
+        mCurrentToken = token;
+        mScanThread.execute(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            scan(token, selectionStart, selectionEnd);
+        });
+    }
+
+    /**
+     * Cancel the scan in progress, if any.
+     */
+    void cancel() {
+        if (mCurrentToken != null) {
+            mCurrentToken.cancel();
+            mCurrentToken = null;
+        }
+    }
+
+    /**
+     * @return whether a result belongs to the current scan (and should be applied)
+     */
+    boolean isCurrent(final Result result) {
+        return result.mToken == mCurrentToken && !result.mToken.isCancelled();
+    }
+
+    private void scan(final CancellationToken token, final int selectionStart,
+            final int selectionEnd) {
+        final InputConnection ic = mLatinIME.getCurrentInputConnection();
+        if (ic == null || token.isCancelled()) {
+            deliver(token, new ArrayList<LatinIME.MisspellingInfo>(), true);
+            return;
+        }
+        final CharSequence before = ic.getTextBeforeCursor(
+                Math.min(selectionStart, MAX_SCAN_LENGTH), 0);
+        final CharSequence selected = selectionEnd > selectionStart ? ic.getSelectedText(0) : null;
+        final CharSequence after = ic.getTextAfterCursor(MAX_SCAN_LENGTH, 0);
+        final StringBuilder text = new StringBuilder();
+        if (before != null) {
+            text.append(before);
+        }
+        if (selected != null) {
+            text.append(selected);
+        }
+        if (after != null) {
+            text.append(after);
+        }
+        final int basePosition = selectionStart - (before != null ? before.length() : 0);
+        Log.i(TAG, "Scanning " + text.length() + " chars from position " + basePosition);
+
+        final MisspellingScanner scanner =
+                TextReplacementManager.getInstance(mLatinIME).newMisspellingScanner(text);
+        final BatchCollector collector = new BatchCollector(scanner, text, basePosition);
+        final int length = text.length();
+        boolean delivered = false;
+        int pageStart = 0;
+        while (pageStart < length) {
+            if (token.isCancelled()) {
+                return;
+            }
+            final int pageEnd = MisspellingScanner.findPageEnd(text, pageStart, PAGE_SIZE);
+            scanner.scan(pageStart, pageEnd, collector);
+            // Hand over the first hit right away, then batch the rest.
+            final List<LatinIME.MisspellingInfo> batch = collector.mBatch;
+            if (!batch.isEmpty() && (!delivered || batch.size() >= BATCH_SIZE)) {
+                deliver(token, batch, false);
+                collector.mBatch = new ArrayList<>();
+                delivered = true;
+            }
+            pageStart = pageEnd;
+        }
+        deliver(token, collector.mBatch, true);
+    }
+
+    /**
+     * Turns the scanner's hits into misspellings with absolute document positions. Only
+     * misspelled words are copied out of the text.
+     */
+    private final class BatchCollector implements MisspellingScanner.Listener {
+        private final MisspellingScanner mScanner;
+        private final CharSequence mText;
+        private final int mBasePosition;
+        List<LatinIME.MisspellingInfo> mBatch = new ArrayList<>();
+
+        BatchCollector(final MisspellingScanner scanner, final CharSequence text,
+                final int basePosition) {
+            mScanner = scanner;
+            mText = text;
+            mBasePosition = basePosition;
+        }
+
+        @Override
+        public void onMisspelling(final int start, final int end, final int entry) {
+            final String word = mText.subSequence(start, end).toString();
+            final String rawReplacement = mScanner.getEntries().getValue(entry);
+            mBatch.add(new LatinIME.MisspellingInfo(word,
+                    mLatinIME.resolveReplacement(word, rawReplacement),
+                    mBasePosition + start, mBasePosition + end));
+        }
+    }
+
+    private void deliver(final CancellationToken token,
+            final List<LatinIME.MisspellingInfo> misspellings, final boolean isLast) {
+        if (!token.isCancelled()) {
+            mLatinIME.mHandler.postScanResult(new Result(token, misspellings, isLast));
+        }
+    }
+}
@@ -44,6 +44,7 @@ import android.view.KeyEvent;
 import android.view.View;
 import android.view.ViewGroup.LayoutParams;
 import android.widget.FrameLayout;
+import android.widget.TextView;
 import android.view.Window;
 import android.view.WindowInsetsController;
 import android.view.inputmethod.EditorInfo;
@@ -67,15 +68,18 @@ import com.gkohn11.spellcheckkeyboard.keyboard.MainKeyboardView;
 import com.gkohn11.spellcheckkeyboard.keyboard.internal.KeyDrawParams;
 import com.gkohn11.spellcheckkeyboard.latin.common.Constants;
 import com.gkohn11.spellcheckkeyboard.latin.define.DebugFlags;
+import com.gkohn11.spellcheckkeyboard.latin.inputlogic.CurrentWordTracker;
 import com.gkohn11.spellcheckkeyboard.latin.inputlogic.InputLogic;
+import com.gkohn11.spellcheckkeyboard.latin.replacement.CompletionTrie;
+import com.gkohn11.spellcheckkeyboard.latin.replacement.TouchHistory;
 import com.gkohn11.spellcheckkeyboard.R;
 import com.gkohn11.spellcheckkeyboard.latin.settings.Settings;
 import com.gkohn11.spellcheckkeyboard.latin.settings.SettingsActivity;
 import com.gkohn11.spellcheckkeyboard.latin.settings.SettingsValues;
-import com.gkohn11.spellcheckkeyboard.latin.settings.TextReplacementCsvManager;
 import com.gkohn11.spellcheckkeyboard.latin.settings.TextReplacementEntry;
 import com.gkohn11.spellcheckkeyboard.latin.settings.TextReplacementManager;
 import com.gkohn11.spellcheckkeyboard.latin.utils.ApplicationUtils;
+import com.gkohn11.spellcheckkeyboard.latin.utils.InputLatencyStats;
 import com.gkohn11.spellcheckkeyboard.latin.utils.LeakGuardHandlerWrapper;
 import com.gkohn11.spellcheckkeyboard.latin.utils.ResourceUtils;
 import com.gkohn11.spellcheckkeyboard.latin.utils.ViewLayoutUtils;
@@ -100,30 +104,42 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
     // TODO: Move these {@link View}s to {@link KeyboardSwitcher}.
     private View mInputView;
     private TextReplacementSuggestionBar mSuggestionBar;
+    // The bar and theme generation the suggestion bar colors were last applied for.
+    private TextReplacementSuggestionBar mThemedSuggestionBar;
+    private int mSuggestionBarThemeGeneration;
 
     private RichInputMethodManager mRichImm;
     final KeyboardSwitcher mKeyboardSwitcher;
 
     private AlertDialog mOptionsDialog;
+
+    // Touch points and nearby keys of the taps that typed the current word, used to rank
+    // spelling suggestions by keyboard proximity.
+    private final TouchHistory mTouchHistory = new TouchHistory();
+    private final int[] mProximateCodes = new int[TouchHistory.MAX_NEIGHBORS];
+    private boolean mTouchHistoryWordEnded = true;
     
-    // Scan mode state: sequential pass through all misspellings in the current text snapshot.
-    // We pre-compute all misspellings in order from the beginning of the visible text, then
-    // walk them one by one. User choices (left/right) move to the next item automatically.
+    // Scan mode state: sequential pass through all misspellings in the document.
+    // The document is scanned in the background from its beginning, and misspellings are appended
+    // in order as they are found, so the first one is shown while the rest is still scanned.
+    // User choices (left/right) move to the next item automatically.
+    private final DocumentScanner mDocumentScanner = new DocumentScanner(this);
     private List<MisspellingInfo> mMisspellings = new ArrayList<>();
     private int mCurrentMisspellingIndex = -1;
     private boolean mIsScanMode = false;
-    // Base absolute position of index 0 of the scanned text snapshot, and cumulative delta in
-    // character count caused by replacements we've already applied during this scan session.
-    private int mScanBasePosition = 0;
+    private boolean mIsScanComplete = false;
+    // Cumulative delta in character count caused by replacements we've already applied during
+    // this scan session, overall and for the part of the document before the original cursor.
     private int mScanCumulativeDelta = 0;
+    private int mScanCursorDelta = 0;
     // Cursor position saved when scan mode starts, so we can restore it when scan ends.
     private int mScanOriginalCursorPos = -1;
     
-    private static class MisspellingInfo {
+    static class MisspellingInfo {
         final String word;      // Original word as it appears in text
         final String correction; // Case-matched correction to apply
-        final int startPos;     // Start index within the scanned snapshot
-        final int endPos;       // End index within the scanned snapshot (exclusive)
+        final int startPos;     // Start position in the document when the scan started
+        final int endPos;       // End position in the document when the scan started (exclusive)
         
         MisspellingInfo(String word, String correction, int startPos, int endPos) {
             this.word = word;
@@ -133,12 +149,41 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
         }
     }
 
+    // A phrase replacement (multi-word or punctuation key) found right before the cursor
+    private static class PhraseMatch {
+        final String phrase;      // Phrase as it appears in text
+        final String punctuation; // Punctuation typed right after the phrase, or ""
+        final int startPos;       // Start of the phrase in the text before the cursor
+
+        PhraseMatch(String phrase, String punctuation, int startPos) {
+            this.phrase = phrase;
+            this.punctuation = punctuation;
+            this.startPos = startPos;
+        }
+    }
+
+    // Reused for every replacement lookup on the UI thread
+    private final TextReplacementManager.LookupResult mReplacementLookup =
+            new TextReplacementManager.LookupResult();
+    // Reused for every completion lookup on the UI thread
+    private final String[] mCompletions = new String[CompletionTrie.MAX_COMPLETIONS];
+    // Reused for every spelling lookup on the UI thread
+    private final TextReplacementManager.SpellingResult mSpellingResult =
+            new TextReplacementManager.SpellingResult();
+    // Returned by getSpellingCandidates(), refilled on every call
+    private final List<String> mSpellingCandidates =
+            new ArrayList<>(TextReplacementSuggestionBar.MAX_ALTERNATIVES + 1);
+
+    // Per-stage timing of key input, shown by dump()
+    public final InputLatencyStats mLatencyStats = new InputLatencyStats();
+
     public final UIHandler mHandler = new UIHandler(this);
 
     public static final class UIHandler extends LeakGuardHandlerWrapper<LatinIME> {
         private static final int MSG_UPDATE_SHIFT_STATE = 0;
         private static final int MSG_PENDING_IMS_CALLBACK = 1;
         private static final int MSG_DEALLOCATE_MEMORY = 9;
+        private static final int MSG_SCAN_RESULT = 10;
 
         public UIHandler(final LatinIME ownerInstance) {
             super(ownerInstance);
@@ -159,6 +204,9 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
             case MSG_DEALLOCATE_MEMORY:
                 latinIme.deallocateMemory();
                 break;
+            case MSG_SCAN_RESULT:
+                latinIme.onScanResult((DocumentScanner.Result) msg.obj);
+                break;
             }
         }
 
@@ -180,6 +228,17 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
             return hasMessages(MSG_DEALLOCATE_MEMORY);
         }
 
+        /**
+         * Hand a batch of scan results to the UI thread. Called from the scan thread.
+         */
+        void postScanResult(final DocumentScanner.Result result) {
+            sendMessage(obtainMessage(MSG_SCAN_RESULT, result));
+        }
+
+        public void cancelScanResults() {
+            removeMessages(MSG_SCAN_RESULT);
+        }
+
         // Working variables for the following methods.
         private boolean mIsOrientationChanging;
         private boolean mPendingSuccessiveImsCallback;
@@ -305,8 +364,10 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
         filter.addAction(AudioManager.RINGER_MODE_CHANGED_ACTION);
         registerReceiver(mRingerModeChangeReceiver, filter);
 
-        // Initialize text replacement manager
-        TextReplacementManager.getInstance(this).initialize();
+        // Load text replacements in the background so the keyboard can show right away
+        final TextReplacementManager replacementManager = TextReplacementManager.getInstance(this);
+        replacementManager.setLocale(mLocale);
+        replacementManager.initialize();
     }
 
     private void loadSettings() {
@@ -389,6 +450,12 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
                         // User clicked the correct word - replace the incorrect word
                         handleSuggestionClick(suggestion);
                     }
+                    
+                    @Override
+                    public void onAlternativeClicked(String alternative) {
+                        // User clicked one of the other candidates - replace with it instead
+                        handleSuggestionClick(alternative, true);
+                    }
                 });
                 
                 // Handle CSV input from the suggestion bar
@@ -468,16 +535,24 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
     }
     
     /**
-     * Update suggestion bar color to match keyboard theme
+     * Update suggestion bar color to match keyboard theme. Called on every keystroke, so it only
+     * reads preferences and touches the views when the bar or the theme changed since last time.
      */
     private void updateSuggestionBarColor() {
         if (mSuggestionBar != null && mSuggestionBar.mOriginalWordText != null && mSuggestionBar.mCorrectionText != null) {
+            final int themeGeneration = Settings.getThemeGeneration();
+            if (mThemedSuggestionBar == mSuggestionBar
+                    && mSuggestionBarThemeGeneration == themeGeneration) {
+                return;
+            }
             final SharedPreferences prefs = PreferenceManagerCompat.getDeviceSharedPreferences(this);
             final int keyboardColor = Settings.readKeyboardColor(prefs, this);
             mSuggestionBar.setBackgroundColor(keyboardColor);
             
             // Get text color from keyboard theme to match key text color
             int textColor = getKeyboardTextColor();
+            // Until the key draw params are known, use the fallback and try again next time.
+            final boolean isThemeResolved = textColor != 0;
             if (textColor == 0) {
                 // Fallback: use white text on dark backgrounds, black on light
                 boolean isDark = android.graphics.Color.red(keyboardColor) + 
@@ -487,6 +562,9 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
             }
             mSuggestionBar.mOriginalWordText.setTextColor(textColor);
             mSuggestionBar.mCorrectionText.setTextColor(textColor);
+            for (TextView alternativeText : mSuggestionBar.mAlternativeTexts) {
+                alternativeText.setTextColor(textColor);
+            }
             
             // Force the text to be visible
             mSuggestionBar.mOriginalWordText.setVisibility(android.view.View.VISIBLE);
@@ -496,6 +574,10 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
             if (mSettings != null && mSettings.getCurrent() != null) {
                 mSuggestionBar.setScanButtonEnabled(mSettings.getCurrent().mScanButtonEnabled);
             }
+            if (isThemeResolved) {
+                mThemedSuggestionBar = mSuggestionBar;
+                mSuggestionBarThemeGeneration = themeGeneration;
+            }
         }
     }
     
@@ -534,6 +616,7 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
 
     @Override
     public void onFinishInputView(final boolean finishingInput) {
+        TextReplacementManager.getInstance(this).checkpointUserVocabulary();
         mInputLogic.clearCaches();
         mRichImm.resetSubtypeCycleOrder();
         mHandler.onFinishInputView(finishingInput);
@@ -547,6 +630,9 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
     @Override
     public void onCurrentSubtypeChanged() {
         mInputLogic.onSubtypeChanged();
+        // Replacements for another language are swapped in if they are still loaded
+        TextReplacementManager.getInstance(this).setLocale(
+                mRichImm.getCurrentSubtype().getLocaleObject());
         loadKeyboard();
     }
 
@@ -967,8 +1053,41 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
             resetScan();
         }
         
+        final long startNanos = InputLatencyStats.now();
+        recordTouch(codePoint, x, y);
         final Event event = createSoftwareKeypressEvent(getCodePointForKeyboard(codePoint), isKeyRepeat);
         onEvent(event);
+        mLatencyStats.record(InputLatencyStats.STAGE_KEY_INPUT, startNanos);
+    }
+
+    /**
+     * Record the touch geometry of a letter tap for the word being typed. A non-letter ends the
+     * word; the history is only reset when the next word starts so that the word just finished
+     * can still be checked against it.
+     */
+    private void recordTouch(final int codePoint, final int x, final int y) {
+        if (codePoint == Constants.CODE_DELETE) {
+            mTouchHistory.removeLast();
+            return;
+        }
+        if (!Character.isLetter(codePoint)) {
+            mTouchHistoryWordEnded = true;
+            return;
+        }
+        if (mTouchHistoryWordEnded) {
+            mTouchHistory.reset();
+            mTouchHistoryWordEnded = false;
+        }
+        final Keyboard keyboard = mKeyboardSwitcher.getKeyboard();
+        if (keyboard == null || x == Constants.NOT_A_COORDINATE
+                || y == Constants.NOT_A_COORDINATE) {
+            // Without geometry only the code itself is a plausible key.
+            mProximateCodes[0] = codePoint;
+            mTouchHistory.add(codePoint, x, y, mProximateCodes, 1);
+            return;
+        }
+        final int count = keyboard.getProximateCodes(x, y, mProximateCodes);
+        mTouchHistory.add(codePoint, x, y, mProximateCodes, count);
     }
 
     // This method is public for testability of LatinIME, but also in the future it should
@@ -991,7 +1110,7 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
             
             if (mInputLogic != null && mInputLogic.mConnection != null) {
                 final int originalLength = info.endPos - info.startPos;
-                final int absoluteWordEnd = mScanBasePosition + mScanCumulativeDelta + info.endPos;
+                final int absoluteWordEnd = mScanCumulativeDelta + info.endPos;
 
                         mInputLogic.mConnection.beginBatchEdit();
                 // Clear any selection by placing the cursor at the end of the word.
@@ -1016,7 +1135,15 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
         if (mInputLogic != null && mInputLogic.mConnection != null) {
             // Reload cache to inspect text around the cursor
             mInputLogic.mConnection.reloadTextCache();
-            String textBeforeCursor = mInputLogic.mConnection.getTextBeforeCursor();
+            CharSequence textBeforeCursor = mInputLogic.mConnection.getTextBeforeCursor();
+
+            // Remember the choice, so an always-on replacement stops applying after this word
+            final CurrentWordTracker wordTracker = mInputLogic.mWordTracker;
+            if (textBeforeCursor != null && wordTracker.sync()) {
+                TextReplacementManager.getInstance(this).keepWord(textBeforeCursor,
+                        wordTracker.getPreviousWordStart(), wordTracker.getPreviousWordEnd(),
+                        wordTracker.getWord());
+            }
 
             // Only add a space if there isn't already one directly before the cursor,
             // so we reliably end up with a single trailing space.
@@ -1039,6 +1166,14 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
      * Handle suggestion bar click - replace the misspelled word with the correct spelling
      */
     private void handleSuggestionClick(String suggestion) {
+        handleSuggestionClick(suggestion, false);
+    }
+
+    /**
+     * @param isAlternative whether suggestion is one of the alternative candidates, which is
+     *        committed as shown instead of the word's own replacement
+     */
+    private void handleSuggestionClick(String suggestion, boolean isAlternative) {
         if (suggestion == null || suggestion.isEmpty()) {
             return;
         }
@@ -1049,8 +1184,8 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
             
             if (mInputLogic != null && mInputLogic.mConnection != null) {
                 final int originalLength = info.endPos - info.startPos;
-                final int absoluteWordStart = mScanBasePosition + mScanCumulativeDelta + info.startPos;
-                final int absoluteWordEnd = mScanBasePosition + mScanCumulativeDelta + info.endPos;
+                final int absoluteWordStart = mScanCumulativeDelta + info.startPos;
+                final int absoluteWordEnd = mScanCumulativeDelta + info.endPos;
 
             mInputLogic.mConnection.beginBatchEdit();
             mInputLogic.mConnection.setSelection(absoluteWordStart, absoluteWordEnd);
@@ -1061,6 +1196,9 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
                 // Track how much the text length changed so later indices stay correct.
                 final int delta = suggestion.length() - originalLength;
                 mScanCumulativeDelta += delta;
+                if (info.startPos < mScanOriginalCursorPos) {
+                    mScanCursorDelta += delta;
+                }
             }
 
             // Increment counter for this correction in scan mode
@@ -1078,34 +1216,59 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
         mInputLogic.mConnection.reloadTextCache();
         
         TextReplacementManager manager = TextReplacementManager.getInstance(this);
-        String textBeforeCursor = mInputLogic.mConnection.getTextBeforeCursor();
+        CharSequence textBeforeCursor = mInputLogic.mConnection.getTextBeforeCursor();
         // Determine if the last typed separator was a space (vs punctuation)
         boolean endsWithSpace = textBeforeCursor != null
                 && textBeforeCursor.length() > 0
                 && textBeforeCursor.charAt(textBeforeCursor.length() - 1) == ' ';
         
-        // Extract word with punctuation (period, comma, exclamation)
-        String[] wordWithPunctuation = TextReplacementManager.extractLastWordWithPunctuation(textBeforeCursor);
-        if (wordWithPunctuation == null) {
+        // Last word with its trailing punctuation (period, comma, exclamation)
+        final CurrentWordTracker wordTracker = mInputLogic.mWordTracker;
+        if (!wordTracker.sync()) {
             return;
         }
         
-        String lastWord = wordWithPunctuation[0];
-        String punctuation = wordWithPunctuation[1];
+        String lastWord = wordTracker.getWord();
+        String punctuation = wordTracker.getPunctuation();
         
-        String rawReplacement = lastWord != null ? manager.getReplacement(lastWord) : null;
-        if (rawReplacement != null) {
-            // The suggestion may already include punctuation (from showSuggestion)
-            // Extract just the word part if punctuation is present
-            String suggestionWord = suggestion;
-            if (suggestion.length() > 0 && !punctuation.isEmpty()) {
-                // Check if suggestion ends with the same punctuation
-                if (suggestion.endsWith(punctuation)) {
-                    // Remove punctuation from suggestion to get just the word
-                    suggestionWord = suggestion.substring(0, suggestion.length() - punctuation.length());
-                }
+        // A phrase ending at the cursor (e.g. "could of") takes precedence over its last word
+        PhraseMatch phraseMatch = findPhraseBeforeCursor(manager, textBeforeCursor, punctuation);
+        if (phraseMatch != null
+                && manager.lookup(phraseMatch.phrase, 0, phraseMatch.phrase.length(),
+                        mReplacementLookup)
+                && !mReplacementLookup.getReplacement().isEmpty()) {
+            applyPhraseReplacement(manager, textBeforeCursor, phraseMatch,
+                    mReplacementLookup.getReplacement(), true);
+            if (mSuggestionBar != null) {
+                mSuggestionBar.hideSuggestion();
             }
-            
+            return;
+        }
+        
+        // The suggestion may already include punctuation (from showSuggestion)
+        // Extract just the word part if punctuation is present
+        String suggestionWord = suggestion;
+        if (suggestion.length() > 0 && !punctuation.isEmpty()) {
+            // Check if suggestion ends with the same punctuation
+            if (suggestion.endsWith(punctuation)) {
+                // Remove punctuation from suggestion to get just the word
+                suggestionWord = suggestion.substring(0, suggestion.length() - punctuation.length());
+            }
+        }
+        
+        String rawReplacement;
+        if (isAlternative) {
+            // Alternatives are shown already case-matched, so resolving them again keeps them as is
+            rawReplacement = suggestionWord;
+        } else {
+            rawReplacement = manager.lookup(lastWord, 0, lastWord.length(), mReplacementLookup)
+                    ? mReplacementLookup.getReplacement() : null;
+            if (rawReplacement == null) {
+                // The bar is showing a spelling suggestion or completion rather than a CSV entry
+                rawReplacement = suggestionWord;
+            }
+        }
+        if (rawReplacement != null) {
             // If the stored correct value starts with ^, use the resolved form exactly (no case matching)
             String caseMatchedSuggestion = resolveReplacement(lastWord, rawReplacement);
             
@@ -1116,7 +1279,7 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
             // Find the word in the text to get its exact position
             // Search backwards from the end for the word
             int wordStartPos = -1;
-            String lowerText = textBeforeCursor.toLowerCase();
+            String lowerText = textBeforeCursor.toString().toLowerCase();
             String lowerWord = lastWord.toLowerCase();
             
             // Find the last occurrence of the word
@@ -1275,30 +1438,8 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
                 return;
             }
             
-            // Load existing entries
-            java.util.List<TextReplacementEntry> entries = TextReplacementCsvManager.loadCsvFromStorage(this);
-            
-            // Check if entry already exists (by misspell)
-            boolean found = false;
-            for (int i = 0; i < entries.size(); i++) {
-                if (entries.get(i).getMisspell().equalsIgnoreCase(entry.getMisspell())) {
-                    // Update existing entry
-                    entries.set(i, entry);
-                    found = true;
-                    break;
-                }
-            }
-            
-            // Add new entry if not found - add at the top
-            if (!found) {
-                entries.add(0, entry);
-            }
-            
-            // Save to CSV
-            TextReplacementCsvManager.saveCsvToStorage(this, entries);
-            
-            // Reload the text replacement manager so changes take effect immediately
-            TextReplacementManager.getInstance(this).reload();
+            // Takes effect immediately; persisted in the background
+            TextReplacementManager.getInstance(this).upsert(entry);
             
             // Clear the suggestion bar input
             if (mSuggestionBar != null) {
@@ -1354,18 +1495,15 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
      * Resolve raw replacement (may start with ^ for force-capitalize) and optionally apply case matching.
      * When stored value starts with ^, returns resolved form as-is (exact case).
      */
-    private String resolveReplacement(String originalWord, String rawReplacement) {
+    String resolveReplacement(String originalWord, String rawReplacement) {
         if (rawReplacement == null) {
             return null;
         }
         String resolved = com.gkohn11.spellcheckkeyboard.latin.settings.TextReplacementManager.resolveCapitalizePrefix(rawReplacement);
         if (rawReplacement.startsWith("^")) {
-            Log.d(TAG, "resolveReplacement: raw='" + rawReplacement + "' starts with ^, returning exact: '" + resolved + "'");
             return resolved;
         }
-        String caseMatched = applyCaseMatching(originalWord, resolved);
-        Log.d(TAG, "resolveReplacement: raw='" + rawReplacement + "', caseMatched='" + caseMatched + "'");
-        return caseMatched;
+        return applyCaseMatching(originalWord, resolved);
     }
 
     /**
@@ -1373,6 +1511,12 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
      * @param isSeparatorEvent true if this is called after a separator (space, etc.), false if after a character
      */
     public void checkTextReplacement(boolean isSeparatorEvent) {
+        final long startNanos = InputLatencyStats.now();
+        checkTextReplacementInternal(isSeparatorEvent);
+        mLatencyStats.record(InputLatencyStats.STAGE_TEXT_REPLACEMENT, startNanos);
+    }
+
+    private void checkTextReplacementInternal(boolean isSeparatorEvent) {
         if (mSuggestionBar == null) {
             return;
         }
@@ -1393,35 +1537,65 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
         }
         
         TextReplacementManager manager = TextReplacementManager.getInstance(this);
-        String textBeforeCursor = mInputLogic.mConnection.getTextBeforeCursor();
+        CharSequence textBeforeCursor = mInputLogic.mConnection.getTextBeforeCursor();
         // Determine if the last character before the cursor is a space
         final boolean endsWithSpace = textBeforeCursor != null
                 && textBeforeCursor.length() > 0
                 && textBeforeCursor.charAt(textBeforeCursor.length() - 1) == ' ';
         
-        // Extract word with punctuation (period, comma, exclamation)
-        String[] wordWithPunctuation = TextReplacementManager.extractLastWordWithPunctuation(textBeforeCursor);
-        if (wordWithPunctuation == null) {
+        // Last word with its trailing punctuation (period, comma, exclamation), tracked
+        // incrementally as keys are typed instead of re-extracted from the whole text
+        final CurrentWordTracker wordTracker = mInputLogic.mWordTracker;
+        if (!wordTracker.sync()) {
             mSuggestionBar.hideSuggestion();
             return;
         }
         
-        String lastWord = wordWithPunctuation[0];
-        String punctuation = wordWithPunctuation[1];
+        String lastWord = wordTracker.getWord();
+        String punctuation = wordTracker.getPunctuation();
+        // Still typing the word: the bar also offers completions of it
+        final boolean isMidWord = !isSeparatorEvent && punctuation.isEmpty() && !endsWithSpace;
+        // The word before it, for context-sensitive ranking and replacement; read in place
+        final int previousStart = wordTracker.getPreviousWordStart();
+        final int previousEnd = wordTracker.getPreviousWordEnd();
+        
+        // A phrase ending at the cursor (e.g. "could of") takes precedence over its last word
+        PhraseMatch phraseMatch = findPhraseBeforeCursor(manager, textBeforeCursor, punctuation);
+        final TextReplacementManager.LookupResult lookup = mReplacementLookup;
+        if (phraseMatch != null
+                && manager.lookup(phraseMatch.phrase, 0, phraseMatch.phrase.length(), lookup)
+                && !lookup.getReplacement().isEmpty()) {
+            String caseMatchedPhrase = resolveReplacement(phraseMatch.phrase,
+                    lookup.getReplacement());
+            boolean isPhraseAlwaysOn = lookup.isAlwaysOn();
+            if (isPhraseAlwaysOn && isSeparatorEvent && endsWithSpace) {
+                applyPhraseReplacement(manager, textBeforeCursor, phraseMatch,
+                        lookup.getReplacement(), true);
+                mSuggestionBar.hideSuggestion();
+            } else {
+                updateSuggestionBarColor();
+                mSuggestionBar.showSuggestion(phraseMatch.phrase + phraseMatch.punctuation,
+                        caseMatchedPhrase + phraseMatch.punctuation, isPhraseAlwaysOn);
+            }
+            return;
+        }
         
         // Always show the current word in the left column
-        String rawReplacement = manager.getReplacement(lastWord);
-        if (rawReplacement != null && !rawReplacement.isEmpty()) {
+        if (manager.lookup(lastWord, 0, lastWord.length(), lookup)
+                && !lookup.getReplacement().isEmpty()) {
             // Resolve ^ prefix (force capitalize) and apply case matching when not forced
-            String caseMatchedReplacement = resolveReplacement(lastWord, rawReplacement);
-            boolean isAlwaysOn = manager.isAlwaysOn(lastWord);
+            String caseMatchedReplacement = resolveReplacement(lastWord, lookup.getReplacement());
+            boolean isAlwaysOn = lookup.isAlwaysOn();
             
-            // Only auto-replace when the separator is a space (not punctuation)
-            if (isAlwaysOn && isSeparatorEvent && endsWithSpace) {
+            // Only auto-replace when the separator is a space (not punctuation), and not after
+            // a word the user has kept this word after instead
+            if (isAlwaysOn && isSeparatorEvent && endsWithSpace
+                    && !manager.isKeptInContext(textBeforeCursor, previousStart, previousEnd,
+                            lastWord, caseMatchedReplacement)) {
                 // Auto-replace - find word position and delete correctly (including punctuation)
                 int wordLength = lastWord.length();
                 int punctuationLength = punctuation.length();
-                String lowerText = textBeforeCursor.toLowerCase();
+                String lowerText = textBeforeCursor.toString().toLowerCase();
                 String lowerWord = lastWord.toLowerCase();
                 
                 // Find the last occurrence of the word
@@ -1480,16 +1654,110 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
                 // Show original word with punctuation on left, correction (with punctuation) on right
                 String originalWithPunctuation = lastWord + punctuation;
                 String correctedWithPunctuation = caseMatchedReplacement + punctuation;
-                mSuggestionBar.showSuggestion(originalWithPunctuation, correctedWithPunctuation, isAlwaysOn);
+                List<String> alternatives = getSpellingCandidates(manager, lastWord,
+                        textBeforeCursor, previousStart, previousEnd, punctuation, isMidWord);
+                alternatives.remove(correctedWithPunctuation);
+                mSuggestionBar.showSuggestion(originalWithPunctuation, correctedWithPunctuation, isAlwaysOn,
+                        alternatives);
             }
         } else {
-            // No replacement found, but still show the current word in the left column
+            // No replacement entry: offer the nearest known spelling, if any, never auto-applied.
+            // The current word is always shown in the left column.
+            // The best candidate goes in the correction box, the next ones in the strip after it.
             String originalWithPunctuation = lastWord + punctuation;
+            List<String> candidates = getSpellingCandidates(manager, lastWord, textBeforeCursor,
+                    previousStart, previousEnd, punctuation, isMidWord);
+            String correctedWithPunctuation = candidates.isEmpty() ? null : candidates.remove(0);
             updateSuggestionBarColor();
-            mSuggestionBar.showSuggestion(originalWithPunctuation, null, false);
+            mSuggestionBar.showSuggestion(originalWithPunctuation, correctedWithPunctuation, false,
+                    candidates);
+        }
+    }
+    
+    /**
+     * Ranked candidates for a word, case-matched and followed by its punctuation, as shown in
+     * the suggestion bar: enough for the correction box and every alternative slot.
+     * @param text text holding the word before it from previousStart to previousEnd; there is
+     *        no such word if the two are equal
+     * @param includeCompletions whether the word is still being typed, so completions of it
+     *        come first, followed by spelling suggestions
+     * @return a list reused by the next call
+     */
+    private List<String> getSpellingCandidates(TextReplacementManager manager, String word,
+            CharSequence text, int previousStart, int previousEnd, String punctuation,
+            boolean includeCompletions) {
+        final int maxCandidates = TextReplacementSuggestionBar.MAX_ALTERNATIVES + 1;
+        List<String> candidates = mSpellingCandidates;
+        candidates.clear();
+        if (includeCompletions) {
+            int count = manager.getCompletions(word, 0, word.length(), mCompletions);
+            for (int i = 0; i < count && candidates.size() < maxCandidates; i++) {
+                candidates.add(resolveReplacement(word, mCompletions[i]) + punctuation);
+            }
+        }
+        if (candidates.size() < maxCandidates) {
+            TextReplacementManager.SpellingResult suggestions = mSpellingResult;
+            int count = manager.getSpellingSuggestions(word, text, previousStart, previousEnd,
+                    mTouchHistory, maxCandidates, suggestions);
+            for (int i = 0; i < count; i++) {
+                String candidate = resolveReplacement(word, suggestions.getWord(i)) + punctuation;
+                if (candidates.size() < maxCandidates && !candidates.contains(candidate)) {
+                    candidates.add(candidate);
+                }
+            }
         }
+        return candidates;
     }
     
+    /**
+     * Find a phrase replacement that ends right before the cursor, ignoring trailing whitespace
+     * and the punctuation typed after the last word.
+     * @param punctuation the punctuation char after the last word, or ""
+     * @return the phrase, or null if none ends at the cursor
+     */
+    private PhraseMatch findPhraseBeforeCursor(TextReplacementManager manager,
+            CharSequence textBeforeCursor, String punctuation) {
+        if (textBeforeCursor == null) {
+            return null;
+        }
+        int end = textBeforeCursor.length();
+        while (end > 0 && textBeforeCursor.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        // The trailing char may be part of the key itself, e.g. "etc."
+        int start = manager.findPhraseEndingAt(textBeforeCursor, end);
+        if (start >= 0) {
+            return new PhraseMatch(textBeforeCursor.subSequence(start, end).toString(), "", start);
+        }
+        if (!punctuation.isEmpty()) {
+            start = manager.findPhraseEndingAt(textBeforeCursor, end - 1);
+            if (start >= 0) {
+                return new PhraseMatch(textBeforeCursor.subSequence(start, end - 1).toString(),
+                        punctuation, start);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Replace a phrase found by findPhraseBeforeCursor, keeping its punctuation.
+     * @param rawReplacement the phrase's non-empty correct spelling, from the lookup that found
+     *        it; looking it up again could miss if the list changed in between
+     */
+    private void applyPhraseReplacement(TextReplacementManager manager,
+            CharSequence textBeforeCursor, PhraseMatch phraseMatch, String rawReplacement,
+            boolean addSpace) {
+        String replacement = resolveReplacement(phraseMatch.phrase, rawReplacement);
+        // Everything from the phrase start to the cursor is rewritten
+        int charsToDelete = textBeforeCursor.length() - phraseMatch.startPos;
+        mInputLogic.mConnection.beginBatchEdit();
+        mInputLogic.mConnection.deleteTextBeforeCursor(charsToDelete);
+        mInputLogic.mConnection.commitText(
+                replacement + phraseMatch.punctuation + (addSpace ? " " : ""), 1);
+        mInputLogic.mConnection.endBatchEdit();
+        manager.incrementCounter(phraseMatch.phrase);
+    }
+
     /**
      * Check for text replacement suggestions after text input (default: not a separator event)
      */
@@ -1505,103 +1773,66 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
             return;
         }
         
-        // Reload text cache to get latest text
-        mInputLogic.mConnection.reloadTextCache();
-        
-        // Get all text before cursor (this is what we can scan)
-        String textBeforeCursor = mInputLogic.mConnection.getTextBeforeCursor();
-        if (textBeforeCursor == null || textBeforeCursor.trim().isEmpty()) {
-            // No text to scan
+        final RichInputConnection connection = mInputLogic.mConnection;
+        if (!connection.hasCursorPosition()) {
+            // Without the cursor position, found words can't be located in the editor
             mSuggestionBar.setScanMode(false);
             mIsScanMode = false;
             return;
         }
         
-        // Build a fresh, ordered list of all misspellings from the beginning of the visible text.
-        scanTextForMisspellings(textBeforeCursor);
-        if (mMisspellings.isEmpty()) {
-            // No misspellings found
-            resetScan();
-            return;
-        }
-        
-        // Initialize scan coordinates relative to the current editor contents.
-        final int cursorPos = mInputLogic.mConnection.getExpectedSelectionStart();
-        mScanBasePosition = cursorPos - textBeforeCursor.length();
+        // Start from a clean state, then scan the whole document on the scan thread.
+        // Misspellings arrive in document order, in batches, through onScanResult.
+        cancelScan();
+        mMisspellings.clear();
+        mIsScanComplete = false;
         mScanCumulativeDelta = 0;
+        mScanCursorDelta = 0;
         // Remember where the cursor was so we can restore it when scan ends.
-        mScanOriginalCursorPos = cursorPos;
+        mScanOriginalCursorPos = connection.getExpectedSelectionStart();
 
-        // Start scan mode at the first misspelling.
+        // Enter scan mode right away; the first misspelling is shown as soon as it is found.
         mIsScanMode = true;
         mCurrentMisspellingIndex = 0;
         mSuggestionBar.setScanMode(true);
-        showCurrentMisspelling();
+        mSuggestionBar.hideSuggestion();
+        mDocumentScanner.start(connection.getExpectedSelectionStart(),
+                connection.getExpectedSelectionEnd());
     }
-    
+
     /**
-     * Scan text for all misspellings and store them
+     * Apply a batch of misspellings from the scan thread. Batches of a cancelled scan are dropped.
      */
-    private void scanTextForMisspellings(String text) {
-        mMisspellings.clear();
-        TextReplacementManager manager = TextReplacementManager.getInstance(this);
-        
-        if (text == null || text.isEmpty()) {
+    void onScanResult(final DocumentScanner.Result result) {
+        if (!mIsScanMode || !mDocumentScanner.isCurrent(result)) {
             return;
         }
-        
-        // Walk the text from the beginning, extracting words and checking against the CSV.
-        StringBuilder currentWord = new StringBuilder();
-        int wordStart = -1;
-        
-        for (int i = 0; i < text.length(); i++) {
-            char c = text.charAt(i);
-            
-            if (Character.isLetterOrDigit(c)) {
-                if (wordStart == -1) {
-                    wordStart = i;
-                }
-                currentWord.append(c);
-            } else {
-                // End of word
-                if (currentWord.length() > 0) {
-                    String word = currentWord.toString();
-                    String rawReplacement = manager.getReplacement(word);
-                    if (rawReplacement != null && !rawReplacement.isEmpty()) {
-                        String caseMatched = resolveReplacement(word, rawReplacement);
-                        mMisspellings.add(new MisspellingInfo(
-                                word,
-                                caseMatched,
-                                wordStart,
-                                wordStart + word.length()
-                        ));
-                    }
-                    currentWord.setLength(0);
-                    wordStart = -1;
-                }
-            }
+        final boolean waitingForNext = mCurrentMisspellingIndex == mMisspellings.size();
+        mMisspellings.addAll(result.mMisspellings);
+        if (result.mIsLast) {
+            mIsScanComplete = true;
         }
-        
-        // Check last word if text doesn't end with punctuation
-        if (currentWord.length() > 0 && wordStart >= 0) {
-            String word = currentWord.toString();
-            String rawReplacement = manager.getReplacement(word);
-            if (rawReplacement != null && !rawReplacement.isEmpty()) {
-                String caseMatched = resolveReplacement(word, rawReplacement);
-                mMisspellings.add(new MisspellingInfo(
-                        word,
-                        caseMatched,
-                        wordStart,
-                        wordStart + word.length()
-                ));
-            }
+        if (waitingForNext) {
+            // Shows the next misspelling, or ends the scan if the last batch had none.
+            showCurrentMisspelling();
         }
     }
+
+    private void cancelScan() {
+        mDocumentScanner.cancel();
+        mHandler.cancelScanResults();
+    }
     
     /**
      * Show the current misspelling in scan mode
      */
     private void showCurrentMisspelling() {
+        if (mIsScanMode && !mIsScanComplete
+                && mCurrentMisspellingIndex >= mMisspellings.size()) {
+            // The next misspelling hasn't been found yet; it is shown when it arrives.
+            mSuggestionBar.hideSuggestion();
+            return;
+        }
         if (!mIsScanMode || mMisspellings.isEmpty()
                 || mCurrentMisspellingIndex < 0
                 || mCurrentMisspellingIndex >= mMisspellings.size()) {
@@ -1613,8 +1844,8 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
         MisspellingInfo info = mMisspellings.get(mCurrentMisspellingIndex);
         
         if (mInputLogic != null && mInputLogic.mConnection != null) {
-            final int absoluteWordStart = mScanBasePosition + mScanCumulativeDelta + info.startPos;
-            final int absoluteWordEnd = mScanBasePosition + mScanCumulativeDelta + info.endPos;
+            final int absoluteWordStart = mScanCumulativeDelta + info.startPos;
+            final int absoluteWordEnd = mScanCumulativeDelta + info.endPos;
         
             // Move cursor to select the misspelled word.
         mInputLogic.mConnection.beginBatchEdit();
@@ -1648,14 +1879,16 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
         // Restore the cursor to where it was when the user pressed the scan button,
         // adjusted for any text-length changes caused by replacements.
         if (mScanOriginalCursorPos >= 0 && mInputLogic != null && mInputLogic.mConnection != null) {
-            final int restoredPos = mScanOriginalCursorPos + mScanCumulativeDelta;
+            final int restoredPos = mScanOriginalCursorPos + mScanCursorDelta;
             mInputLogic.mConnection.setSelection(restoredPos, restoredPos);
         }
 
+        cancelScan();
         mIsScanMode = false;
+        mIsScanComplete = false;
         mCurrentMisspellingIndex = -1;
-        mScanBasePosition = 0;
         mScanCumulativeDelta = 0;
+        mScanCursorDelta = 0;
         mScanOriginalCursorPos = -1;
         mMisspellings.clear();
         if (mSuggestionBar != null) {
@@ -1864,6 +2097,7 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
         final Keyboard keyboard = mKeyboardSwitcher.getKeyboard();
         final int keyboardMode = keyboard != null ? keyboard.mId.mMode : -1;
         p.println("  Keyboard mode = " + keyboardMode);
+        mLatencyStats.dump(p);
     }
 
     public boolean shouldSwitchToOtherInputMethods(final IBinder token) {
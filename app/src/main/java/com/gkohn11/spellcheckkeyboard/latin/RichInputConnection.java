@@ -37,9 +37,11 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 import com.gkohn11.spellcheckkeyboard.latin.common.Constants;
+import com.gkohn11.spellcheckkeyboard.latin.common.GapBuffer;
 import com.gkohn11.spellcheckkeyboard.latin.common.StringUtils;
 import com.gkohn11.spellcheckkeyboard.latin.settings.SpacingAndPunctuations;
 import com.gkohn11.spellcheckkeyboard.latin.utils.CapsModeUtils;
+import com.gkohn11.spellcheckkeyboard.latin.utils.InputLatencyStats;
 
 /**
  * Enrichment class for InputConnection to simplify interaction and add functionality.
@@ -68,12 +70,19 @@ public final class RichInputConnection {
      */
     private int mExpectedSelEnd = INVALID_CURSOR_POSITION; // in chars, not code points
     /**
-     * This contains the committed text immediately preceding the cursor and the composing
-     * text, if any. It is refreshed when the cursor moves by calling upon the TextView.
+     * This contains the text around the cursor: the committed text immediately preceding the
+     * cursor, the selection and the text after it. The gap of the buffer is kept at the cursor
+     * (the selection start), so typing and deleting there don't copy the cached text. It is
+     * refreshed when the cursor moves by calling upon the TextView, and only accessed on the
+     * main thread.
      */
-    private String mTextBeforeCursor = "";
-    private String mTextAfterCursor = "";
-    private String mTextSelection = "";
+    private final GapBuffer mText = new GapBuffer();
+    private int mTextSelectionLength;
+    /**
+     * Incremented on every change to the text before the cursor, so that state derived from it
+     * can tell whether it missed an update.
+     */
+    private int mTextBeforeCursorVersion;
 
     private final LatinIME mLatinIME;
     private InputConnection mIC;
@@ -118,15 +127,53 @@ public final class RichInputConnection {
     private void setTextAroundCursor(final SurroundingText textAroundCursor) {
         if (null == textAroundCursor) {
             Log.e(TAG, "Unable get text around cursor.");
-            mTextBeforeCursor = "";
-            mTextAfterCursor = "";
-            mTextSelection = "";
+            setCachedText("", "", "");
             return;
         }
         final CharSequence text = textAroundCursor.getText();
-        mTextBeforeCursor = text.subSequence(0, textAroundCursor.getSelectionStart()).toString();
-        mTextSelection = text.subSequence(textAroundCursor.getSelectionStart(), textAroundCursor.getSelectionEnd()).toString();
-        mTextAfterCursor = text.subSequence(textAroundCursor.getSelectionEnd(), text.length()).toString();
+        final int selectionStart = textAroundCursor.getSelectionStart();
+        final int selectionEnd = textAroundCursor.getSelectionEnd();
+        setCachedText(text.subSequence(0, selectionStart),
+                text.subSequence(selectionStart, selectionEnd),
+                text.subSequence(selectionEnd, text.length()));
+    }
+
+    private void setCachedText(final CharSequence before, final CharSequence selection,
+            final CharSequence after) {
+        mText.clear();
+        mText.insert(before);
+        mText.insert(selection);
+        mText.insert(after);
+        mText.moveGapTo(before.length());
+        mTextSelectionLength = selection.length();
+        mTextBeforeCursorVersion++;
+    }
+
+    private void setCachedTextBeforeCursor(final CharSequence before) {
+        mText.replace(0, mText.getGapPosition(), before);
+        mTextBeforeCursorVersion++;
+    }
+
+    private void setCachedSelection(final CharSequence selection) {
+        final int cursor = mText.getGapPosition();
+        mText.replace(cursor, getCachedSelectionEnd(), selection);
+        mText.moveGapTo(cursor);
+        mTextSelectionLength = selection.length();
+    }
+
+    private void setCachedTextAfterCursor(final CharSequence after) {
+        final int cursor = mText.getGapPosition();
+        mText.replace(getCachedSelectionEnd(), mText.length(), after);
+        mText.moveGapTo(cursor);
+    }
+
+    private int getCachedSelectionEnd() {
+        return Math.min(mText.getGapPosition() + mTextSelectionLength, mText.length());
+    }
+
+    private void insertCachedTextBeforeCursor(final CharSequence text) {
+        mText.insert(text);
+        mTextBeforeCursorVersion++;
     }
 
     /**
@@ -165,6 +212,8 @@ public final class RichInputConnection {
         final int expectedSelStart = mExpectedSelStart;
         final int expectedSelEnd = mExpectedSelEnd;
 
+        // Only the IPC happens in the background; the cache is updated on the main thread, which
+        // is the only thread that touches it.
         mBackgroundThread.execute(() -> {
             if (!isConnected()) {
                 return;
@@ -172,82 +221,93 @@ public final class RichInputConnection {
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
                 final SurroundingText textAroundCursor =
                         mIC.getSurroundingText(Constants.EDITOR_CONTENTS_CACHE_SIZE, Constants.EDITOR_CONTENTS_CACHE_SIZE, 0);
-                if (expectedSelStart != mExpectedSelStart || expectedSelEnd != mExpectedSelEnd) {
-                    Log.w(TAG, "Selection range modified before thread completion.");
-                    return;
-                }
-                setTextAroundCursor(textAroundCursor);
-
-                // All callbacks that need text before cursor are here
-                mLatinIME.mHandler.postUpdateShiftState();
-            } else {
-                final CharSequence textBeforeCursor = mIC.getTextBeforeCursor(Constants.EDITOR_CONTENTS_CACHE_SIZE, 0);
-                if (expectedSelStart != mExpectedSelStart) {
-                    Log.w(TAG, "Selection start modified before thread completion.");
-                    return;
-                }
-                if (null == textBeforeCursor) {
-                    Log.e(TAG, "Unable get text before cursor.");
-                    mTextBeforeCursor = "";
-                    return;
-                } else {
-                    mTextBeforeCursor = textBeforeCursor.toString();
-                }
-
-                // All callbacks that need text before cursor are here
-                mLatinIME.mHandler.postUpdateShiftState();
-
-                final CharSequence textAfterCursor = mIC.getTextAfterCursor(Constants.EDITOR_CONTENTS_CACHE_SIZE, 0);
-                if (expectedSelEnd != mExpectedSelEnd) {
-                    Log.w(TAG, "Selection end modified before thread completion.");
-                    return;
-                }
-                if (null == textAfterCursor) {
-                    Log.e(TAG, "Unable get text after cursor.");
-                    mTextAfterCursor = "";
-                } else {
-                    mTextAfterCursor = textAfterCursor.toString();
-                }
-                if (hasSelection()) {
-                    final CharSequence textSelection = mIC.getSelectedText(0);
+                mLatinIME.mHandler.post(() -> {
                     if (expectedSelStart != mExpectedSelStart || expectedSelEnd != mExpectedSelEnd) {
                         Log.w(TAG, "Selection range modified before thread completion.");
                         return;
                     }
-                    if (null == textSelection) {
-                        Log.e(TAG, "Unable get text selection.");
-                        mTextSelection = "";
-                    } else {
-                        mTextSelection = textSelection.toString();
-                    }
-                } else {
-                    mTextSelection = "";
-                }
+                    setTextAroundCursor(textAroundCursor);
+
+                    // All callbacks that need text before cursor are here
+                    mLatinIME.mHandler.postUpdateShiftState();
+                });
+            } else {
+                final CharSequence textBeforeCursor = mIC.getTextBeforeCursor(Constants.EDITOR_CONTENTS_CACHE_SIZE, 0);
+                final CharSequence textAfterCursor = mIC.getTextAfterCursor(Constants.EDITOR_CONTENTS_CACHE_SIZE, 0);
+                final CharSequence textSelection = expectedSelStart != expectedSelEnd
+                        ? mIC.getSelectedText(0) : "";
+                mLatinIME.mHandler.post(() -> applyReloadedText(expectedSelStart, expectedSelEnd,
+                        textBeforeCursor, textAfterCursor, textSelection));
             }
         });
     }
 
+    private void applyReloadedText(final int expectedSelStart, final int expectedSelEnd,
+            final CharSequence textBeforeCursor, final CharSequence textAfterCursor,
+            final CharSequence textSelection) {
+        if (expectedSelStart != mExpectedSelStart) {
+            Log.w(TAG, "Selection start modified before thread completion.");
+            return;
+        }
+        if (null == textBeforeCursor) {
+            Log.e(TAG, "Unable get text before cursor.");
+            setCachedTextBeforeCursor("");
+            return;
+        } else {
+            setCachedTextBeforeCursor(textBeforeCursor);
+        }
+
+        // All callbacks that need text before cursor are here
+        mLatinIME.mHandler.postUpdateShiftState();
+
+        if (expectedSelEnd != mExpectedSelEnd) {
+            Log.w(TAG, "Selection end modified before thread completion.");
+            return;
+        }
+        if (null == textAfterCursor) {
+            Log.e(TAG, "Unable get text after cursor.");
+            setCachedTextAfterCursor("");
+        } else {
+            setCachedTextAfterCursor(textAfterCursor);
+        }
+        if (null == textSelection) {
+            Log.e(TAG, "Unable get text selection.");
+            setCachedSelection("");
+        } else {
+            setCachedSelection(textSelection);
+        }
+    }
+
     public void clearCaches() {
         Log.i(TAG, "Clearing text caches.");
         mExpectedSelStart = INVALID_CURSOR_POSITION;
         mExpectedSelEnd = INVALID_CURSOR_POSITION;
-        mTextBeforeCursor = "";
-        mTextSelection = "";
-        mTextAfterCursor = "";
+        setCachedText("", "", "");
     }
 
     /**
-     * Get the text before cursor (for text replacement checking)
+     * Get the text before cursor (for text replacement checking).
+     *
+     * This is a live view of the cache, not a copy: it is only valid until the next edit, as it
+     * changes when text is typed, deleted or reloaded. Call toString() on it to keep the current
+     * text, e.g. before committing text or handing it to another thread.
      */
-    public String getTextBeforeCursor() {
-        return mTextBeforeCursor;
+    public CharSequence getTextBeforeCursor() {
+        return mText.beforeGap();
     }
     
+    /**
+     * @return a number that changes whenever the text before the cursor changes
+     */
+    public int getTextBeforeCursorVersion() {
+        return mTextBeforeCursorVersion;
+    }
+
     /**
      * Get the full text (before cursor + selection + after cursor)
      */
     public String getFullText() {
-        return mTextBeforeCursor + mTextSelection + mTextAfterCursor;
+        return mText.toString();
     }
 
     /**
@@ -257,8 +317,9 @@ public final class RichInputConnection {
      * @param newCursorPosition The new cursor position around the text.
      */
     public void commitText(final CharSequence text, final int newCursorPosition) {
+        final long startNanos = InputLatencyStats.now();
         RichInputMethodManager.getInstance().resetSubtypeCycleOrder();
-        mTextBeforeCursor += text;
+        insertCachedTextBeforeCursor(text);
         // TODO: the following is exceedingly error-prone. Right now when the cursor is in the
         // middle of the composing word mComposingText only holds the part of the composing text
         // that is before the cursor, so this actually works, but it's terribly confusing. Fix this.
@@ -269,10 +330,28 @@ public final class RichInputConnection {
         if (isConnected()) {
             mIC.commitText(text, newCursorPosition);
         }
+        mLatinIME.mLatencyStats.record(InputLatencyStats.STAGE_COMMIT_TEXT, startNanos);
     }
 
+    /**
+     * @return a live view of the cache, only valid until the next edit
+     */
+    private CharSequence getTextAfterCursor() {
+        return mText.subSequence(getCachedSelectionEnd(), mText.length());
+    }
+
+    /**
+     * @return a live view of the cache, only valid until the next edit
+     */
+    private CharSequence getSelectedTextView() {
+        return mText.subSequence(mText.getGapPosition(), getCachedSelectionEnd());
+    }
+
+    /**
+     * @return a copy of the selected text, which stays the same as the cache is edited
+     */
     public CharSequence getSelectedText() {
-        return mTextSelection;
+        return getSelectedTextView().toString();
     }
 
     public boolean canDeleteCharacters() {
@@ -302,14 +381,14 @@ public final class RichInputConnection {
         // never blocks or initiates IPC.
         // TODO: don't call #toString() here. Instead, all accesses to
         // mCommittedTextBeforeComposingText should be done on the main thread.
-        return CapsModeUtils.getCapsMode(mTextBeforeCursor, inputType,
+        return CapsModeUtils.getCapsMode(mText.beforeGap(), inputType,
                 spacingAndPunctuations);
     }
 
     public int getCodePointBeforeCursor() {
-        final int length = mTextBeforeCursor.length();
+        final int length = mText.getGapPosition();
         if (length < 1) return Constants.NOT_A_CODE;
-        return Character.codePointBefore(mTextBeforeCursor, length);
+        return Character.codePointBefore(mText, length);
     }
 
     public void replaceText(final int startPosition, final int endPosition, CharSequence text) {
@@ -323,12 +402,14 @@ public final class RichInputConnection {
         }
 
         final int numCharsSelected = endPosition - startPosition;
-        final String textAfterCursor = mTextAfterCursor;
-        if (textAfterCursor.length() < numCharsSelected) {
+        // There is no selection, so the text after the cursor starts at the gap.
+        final int cursor = mText.getGapPosition();
+        if (mText.length() - cursor < numCharsSelected) {
             Log.e(TAG, "replaceText called with range longer than current text");
             return;
         }
-        mTextAfterCursor = text + textAfterCursor.substring(numCharsSelected);
+        mText.replace(cursor, cursor + numCharsSelected, text);
+        mText.moveGapTo(cursor);
 
         RichInputMethodManager.getInstance().resetSubtypeCycleOrder();
 
@@ -341,9 +422,10 @@ public final class RichInputConnection {
     }
 
     public void deleteTextBeforeCursor(final int numChars) {
-        String textBeforeCursor = mTextBeforeCursor;
-        if (!textBeforeCursor.isEmpty() && textBeforeCursor.length() >= numChars) {
-            mTextBeforeCursor = textBeforeCursor.substring(0, textBeforeCursor.length() - numChars);
+        final int textBeforeCursorLength = mText.getGapPosition();
+        if (textBeforeCursorLength > 0 && textBeforeCursorLength >= numChars) {
+            mText.deleteBeforeGap(numChars);
+            mTextBeforeCursorVersion++;
         }
         if (mExpectedSelStart >= numChars) {
             mExpectedSelStart -= numChars;
@@ -360,7 +442,7 @@ public final class RichInputConnection {
 
         beginBatchEdit();
         final int selectionLength = mExpectedSelEnd - mExpectedSelStart;
-        mTextSelection = "";
+        setCachedSelection("");
         setSelection(mExpectedSelStart, mExpectedSelStart);
         mIC.deleteSurroundingText(0, selectionLength);
         endBatchEdit();
@@ -403,7 +485,7 @@ public final class RichInputConnection {
             // mistakenly catch them to do some stuff.
             switch (keyEvent.getKeyCode()) {
             case KeyEvent.KEYCODE_ENTER:
-                mTextBeforeCursor += "\n";
+                insertCachedTextBeforeCursor("\n");
                 if (hasCursorPosition()) {
                     mExpectedSelStart += 1;
                     mExpectedSelEnd = mExpectedSelStart;
@@ -411,7 +493,7 @@ public final class RichInputConnection {
                 break;
             case KeyEvent.KEYCODE_UNKNOWN:
                 if (null != keyEvent.getCharacters()) {
-                    mTextBeforeCursor += keyEvent.getCharacters();
+                    insertCachedTextBeforeCursor(keyEvent.getCharacters());
                     if (hasCursorPosition()) {
                         mExpectedSelStart += keyEvent.getCharacters().length();
                         mExpectedSelEnd = mExpectedSelStart;
@@ -422,7 +504,7 @@ public final class RichInputConnection {
                 break;
             default:
                 final String text = StringUtils.newSingleCodePointString(keyEvent.getUnicodeChar());
-                mTextBeforeCursor += text;
+                insertCachedTextBeforeCursor(text);
                 if (hasCursorPosition()) {
                     mExpectedSelStart += text.length();
                     mExpectedSelEnd = mExpectedSelStart;
@@ -453,13 +535,12 @@ public final class RichInputConnection {
             return;
         }
 
-        final int textStart = mExpectedSelStart - mTextBeforeCursor.length();
-        final String textRange = mTextBeforeCursor + mTextSelection + mTextAfterCursor;
-        if (textRange.length() >= end - textStart && start - textStart >= 0 && textStart >= 0) {
-            // Parameters might be partially updated by background thread, skip in such case
-            mTextBeforeCursor = textRange.substring(0, start - textStart);
-            mTextSelection = textRange.substring(start - textStart, end - textStart);
-            mTextAfterCursor = textRange.substring(end - textStart);
+        final int textStart = mExpectedSelStart - mText.getGapPosition();
+        if (mText.length() >= end - textStart && start - textStart >= 0 && textStart >= 0) {
+            // Parameters might be out of sync with the cache after a reload, skip in such case
+            mText.moveGapTo(start - textStart);
+            mTextSelectionLength = end - start;
+            mTextBeforeCursorVersion++;
         }
 
         RichInputMethodManager.getInstance().resetSubtypeCycleOrder();
@@ -498,9 +579,9 @@ public final class RichInputConnection {
         int steps = 0;
         if (chars < 0) {
             CharSequence charsBeforeCursor = rightSidePointer && hasSelection() ?
-                    getSelectedText() :
-                    mTextBeforeCursor;
-            if (charsBeforeCursor == null || charsBeforeCursor == "") {
+                    getSelectedTextView() :
+                    mText.beforeGap();
+            if (charsBeforeCursor == null || charsBeforeCursor.length() == 0) {
                 return chars;
             }
             for (int i = charsBeforeCursor.length() - 1; i >= 0 && chars < 0; i--, steps--) {
@@ -518,9 +599,9 @@ public final class RichInputConnection {
             }
         } else if (chars > 0) {
             CharSequence charsAfterCursor = !rightSidePointer && hasSelection() ?
-                    getSelectedText() :
-                    mTextAfterCursor;
-            if (charsAfterCursor == null || charsAfterCursor == "") {
+                    getSelectedTextView() :
+                    getTextAfterCursor();
+            if (charsAfterCursor == null || charsAfterCursor.length() == 0) {
                 return chars;
             }
             for (int i = 0; i < charsAfterCursor.length() && chars > 0; i++, steps++) {
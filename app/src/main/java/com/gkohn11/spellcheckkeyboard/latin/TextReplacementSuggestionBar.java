@@ -22,6 +22,7 @@ package com.gkohn11.spellcheckkeyboard.latin;
 
 import android.content.Context;
 import android.text.Editable;
+import android.text.TextUtils;
 import android.text.TextWatcher;
 import android.util.AttributeSet;
 import android.view.KeyEvent;
@@ -35,16 +36,24 @@ import android.widget.EditText;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 
+import java.util.Collections;
+import java.util.List;
+
 import com.gkohn11.spellcheckkeyboard.R;
 
 /**
  * Suggestion bar that appears above the keyboard to show text replacement suggestions.
  */
 public class TextReplacementSuggestionBar extends LinearLayout {
+    /** Number of alternative candidates shown after the correction. */
+    public static final int MAX_ALTERNATIVES = 2;
+
     Button mScanButton; // Scan button on the left
     View mScanDivider; // Divider after scan button
     TextView mOriginalWordText; // Package private for LatinIME to access
     EditText mCorrectionText; // Package private for LatinIME to access - now EditText for CSV input
+    // Fixed slots for the next best candidates; created once, only their text changes
+    final TextView[] mAlternativeTexts = new TextView[MAX_ALTERNATIVES];
     private String mCurrentOriginalWord;
     private String mCurrentSuggestion;
     private boolean mIsAutoReplace; // Track if current suggestion is auto-replace
@@ -58,6 +67,7 @@ public class TextReplacementSuggestionBar extends LinearLayout {
     public interface OnSuggestionClickListener {
         void onOriginalWordClicked(); // Called when user clicks the incorrect word (left side)
         void onCorrectionClicked(String suggestion); // Called when user clicks the correct word (right side)
+        void onAlternativeClicked(String alternative); // Called when user clicks one of the alternative candidates
     }
     
     public interface OnCsvInputListener {
@@ -237,6 +247,45 @@ public class TextReplacementSuggestionBar extends LinearLayout {
         correctionParams.gravity = android.view.Gravity.CENTER_VERTICAL;
         mCorrectionText.setMinimumHeight(40); // Thinner banner
         addView(mCorrectionText, correctionParams);
+        
+        // Add alternative candidate slots (right of the correction, weight 1 each). Their size
+        // never depends on the text, so changing candidates doesn't lay out the bar again.
+        for (int i = 0; i < MAX_ALTERNATIVES; i++) {
+            View alternativeDivider = new View(getContext());
+            alternativeDivider.setBackgroundColor(0x40000000);
+            LinearLayout.LayoutParams alternativeDividerParams = new LinearLayout.LayoutParams(
+                    2, LayoutParams.MATCH_PARENT);
+            alternativeDividerParams.setMargins(0, 8, 0, 8);
+            addView(alternativeDivider, alternativeDividerParams);
+            
+            final TextView alternativeText = new TextView(getContext());
+            alternativeText.setPadding(16, 12, 16, 12);
+            alternativeText.setTextSize(16);
+            alternativeText.setTextColor(0xFF000000);
+            alternativeText.setGravity(android.view.Gravity.CENTER);
+            alternativeText.setSingleLine(true);
+            alternativeText.setEllipsize(TextUtils.TruncateAt.END);
+            alternativeText.setClickable(true);
+            alternativeText.setOnClickListener(new OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    CharSequence alternative = alternativeText.getText();
+                    if (alternative.length() == 0) {
+                        return;
+                    }
+                    v.performHapticFeedback(android.view.HapticFeedbackConstants.KEYBOARD_TAP);
+                    if (mListener != null) {
+                        mListener.onAlternativeClicked(alternative.toString());
+                    }
+                }
+            });
+            LinearLayout.LayoutParams alternativeParams = new LinearLayout.LayoutParams(
+                    0, LayoutParams.WRAP_CONTENT, 1.0f);
+            alternativeParams.gravity = android.view.Gravity.CENTER_VERTICAL;
+            alternativeText.setMinimumHeight(40); // Thinner banner
+            addView(alternativeText, alternativeParams);
+            mAlternativeTexts[i] = alternativeText;
+        }
     }
 
     public void setOnSuggestionClickListener(OnSuggestionClickListener listener) {
@@ -277,6 +326,15 @@ public class TextReplacementSuggestionBar extends LinearLayout {
     }
 
     public void showSuggestion(String originalWord, String suggestion, boolean isAutoReplace) {
+        showSuggestion(originalWord, suggestion, isAutoReplace, Collections.<String>emptyList());
+    }
+
+    /**
+     * Show a suggestion together with up to {@link #MAX_ALTERNATIVES} alternative candidates,
+     * best first. Slots without a candidate are left empty.
+     */
+    public void showSuggestion(String originalWord, String suggestion, boolean isAutoReplace,
+            List<String> alternatives) {
         if (originalWord != null && !originalWord.isEmpty()) {
             mCurrentOriginalWord = originalWord;
             mCurrentSuggestion = suggestion;
@@ -309,16 +367,29 @@ public class TextReplacementSuggestionBar extends LinearLayout {
             
             // Update highlight based on auto-replace status
             updateHighlight();
+            setAlternatives(alternatives);
             
             setVisibility(VISIBLE);
-            // Force layout update
-            requestLayout();
-            invalidate();
         } else {
             hideSuggestion();
         }
     }
     
+    private void setAlternatives(List<String> alternatives) {
+        for (int i = 0; i < MAX_ALTERNATIVES; i++) {
+            setTextIfChanged(mAlternativeTexts[i], i < alternatives.size() ? alternatives.get(i) : "");
+        }
+    }
+    
+    /**
+     * Only touch a view whose text really changes, to spare an invalidation per keystroke.
+     */
+    private static void setTextIfChanged(TextView view, CharSequence text) {
+        if (!TextUtils.equals(view.getText(), text)) {
+            view.setText(text);
+        }
+    }
+    
     /**
      * Update highlight on correction text based on auto-replace status
      */
@@ -351,6 +422,7 @@ public class TextReplacementSuggestionBar extends LinearLayout {
         mIsCorrectionInputActive = false; // Stop routing input here
         mOriginalWordText.setText(""); // Clear text but keep visible
         mCorrectionText.setText(""); // Clear text but keep visible
+        setAlternatives(Collections.<String>emptyList());
         mCorrectionText.setBackgroundColor(0x00000000); // Clear highlight
         mCorrectionText.setFocusable(true);
         mCorrectionText.setFocusableInTouchMode(true);
@@ -374,6 +446,7 @@ public class TextReplacementSuggestionBar extends LinearLayout {
         mOriginalWordText.setText("");
         mCorrectionText.setText("");
         mCorrectionText.setBackgroundColor(0x00000000);
+        setAlternatives(Collections.<String>emptyList());
         setVisibility(View.GONE); // Completely hide the banner
     }
 
@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2025 Raimondas Rimkus
+ *
+ * This file is part of Simple Spellcheck, a derivative work based on
+ * Simple Keyboard (Copyright (C) 2025 Raimondas Rimkus and contributors)
+ * which is based on AOSP LatinIME (Copyright (C) 2008 The Android Open Source Project).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gkohn11.spellcheckkeyboard.latin.common;
+
+/**
+ * Editable text stored in a char array with a gap at the edit position.
+ *
+ * Inserting or deleting at the gap is amortized O(1) per char; moving the gap costs the distance
+ * moved. Views returned by {@link #subSequence} and {@link #beforeGap()} read the buffer directly
+ * and reflect later edits, so callers that need to keep the text must call toString() on them.
+ *
+ * This class is not thread safe.
+ */
+public final class GapBuffer implements CharSequence {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private char[] mBuffer = new char[INITIAL_CAPACITY];
+    // The gap is [mGapStart, mGapEnd).
+    private int mGapStart;
+    private int mGapEnd = INITIAL_CAPACITY;
+    private final CharSequence mBeforeGap = new BeforeGapView();
+
+    @Override
+    public int length() {
+        return mBuffer.length - (mGapEnd - mGapStart);
+    }
+
+    @Override
+    public char charAt(final int index) {
+        if (index < 0 || index >= length()) {
+            throw new IndexOutOfBoundsException("index=" + index + " length=" + length());
+        }
+        return index < mGapStart ? mBuffer[index] : mBuffer[index + mGapEnd - mGapStart];
+    }
+
+    /**
+     * @return a view of [start, end) that is backed by this buffer
+     */
+    @Override
+    public CharSequence subSequence(final int start, final int end) {
+        if (start < 0 || end > length() || start > end) {
+            throw new IndexOutOfBoundsException("start=" + start + " end=" + end
+                    + " length=" + length());
+        }
+        return new RangeView(start, end);
+    }
+
+    @Override
+    public String toString() {
+        final char[] chars = new char[length()];
+        getChars(0, chars.length, chars, 0);
+        return new String(chars);
+    }
+
+    /**
+     * Copy [start, end) to dest at destStart.
+     */
+    public void getChars(final int start, final int end, final char[] dest, final int destStart) {
+        int destIndex = destStart;
+        if (start < mGapStart) {
+            final int beforeEnd = Math.min(end, mGapStart);
+            System.arraycopy(mBuffer, start, dest, destIndex, beforeEnd - start);
+            destIndex += beforeEnd - start;
+        }
+        if (end > mGapStart) {
+            final int afterStart = Math.max(start, mGapStart);
+            System.arraycopy(mBuffer, afterStart + mGapEnd - mGapStart, dest, destIndex,
+                    end - afterStart);
+        }
+    }
+
+    /**
+     * @return a view of the text before the gap whose length follows the gap
+     */
+    public CharSequence beforeGap() {
+        return mBeforeGap;
+    }
+
+    public int getGapPosition() {
+        return mGapStart;
+    }
+
+    /**
+     * Move the gap so that it starts at position.
+     */
+    public void moveGapTo(final int position) {
+        if (position < 0 || position > length()) {
+            throw new IndexOutOfBoundsException("position=" + position + " length=" + length());
+        }
+        if (position < mGapStart) {
+            final int count = mGapStart - position;
+            System.arraycopy(mBuffer, position, mBuffer, mGapEnd - count, count);
+            mGapStart -= count;
+            mGapEnd -= count;
+        } else if (position > mGapStart) {
+            final int count = position - mGapStart;
+            System.arraycopy(mBuffer, mGapEnd, mBuffer, mGapStart, count);
+            mGapStart += count;
+            mGapEnd += count;
+        }
+    }
+
+    /**
+     * Insert text at the gap; the gap ends up after the inserted text.
+     */
+    public void insert(final CharSequence text) {
+        final int count = text.length();
+        ensureGap(count);
+        if (text instanceof String) {
+            ((String) text).getChars(0, count, mBuffer, mGapStart);
+        } else {
+            for (int i = 0; i < count; i++) {
+                mBuffer[mGapStart + i] = text.charAt(i);
+            }
+        }
+        mGapStart += count;
+    }
+
+    /**
+     * Delete up to count chars before the gap.
+     */
+    public void deleteBeforeGap(final int count) {
+        mGapStart -= Math.min(Math.max(count, 0), mGapStart);
+    }
+
+    /**
+     * Replace [start, end) with text. The gap ends up after the inserted text.
+     */
+    public void replace(final int start, final int end, final CharSequence text) {
+        moveGapTo(end);
+        deleteBeforeGap(end - start);
+        insert(text);
+    }
+
+    public void clear() {
+        mGapStart = 0;
+        mGapEnd = mBuffer.length;
+    }
+
+    private void ensureGap(final int count) {
+        if (mGapEnd - mGapStart >= count) {
+            return;
+        }
+        final int afterLength = mBuffer.length - mGapEnd;
+        final int capacity = Math.max(mBuffer.length * 2, length() + count + INITIAL_CAPACITY);
+        final char[] grown = new char[capacity];
+        System.arraycopy(mBuffer, 0, grown, 0, mGapStart);
+        System.arraycopy(mBuffer, mGapEnd, grown, capacity - afterLength, afterLength);
+        mBuffer = grown;
+        mGapEnd = capacity - afterLength;
+    }
+
+    private final class BeforeGapView implements CharSequence {
+        @Override
+        public int length() {
+            return mGapStart;
+        }
+
+        @Override
+        public char charAt(final int index) {
+            if (index < 0 || index >= mGapStart) {
+                throw new IndexOutOfBoundsException("index=" + index + " length=" + mGapStart);
+            }
+            return mBuffer[index];
+        }
+
+        @Override
+        public CharSequence subSequence(final int start, final int end) {
+            if (end > mGapStart) {
+                throw new IndexOutOfBoundsException("end=" + end + " length=" + mGapStart);
+            }
+            return GapBuffer.this.subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return new String(mBuffer, 0, mGapStart);
+        }
+    }
+
+    private final class RangeView implements CharSequence {
+        private final int mStart;
+        private final int mEnd;
+
+        RangeView(final int start, final int end) {
+            mStart = start;
+            mEnd = end;
+        }
+
+        @Override
+        public int length() {
+            return mEnd - mStart;
+        }
+
+        @Override
+        public char charAt(final int index) {
+            if (index < 0 || index >= mEnd - mStart) {
+                throw new IndexOutOfBoundsException("index=" + index + " length=" + length());
+            }
+            return GapBuffer.this.charAt(mStart + index);
+        }
+
+        @Override
+        public CharSequence subSequence(final int start, final int end) {
+            if (start < 0 || end > length() || start > end) {
+                throw new IndexOutOfBoundsException("start=" + start + " end=" + end
+                        + " length=" + length());
+            }
+            return new RangeView(mStart + start, mStart + end);
+        }
+
+        @Override
+        public String toString() {
+            final char[] chars = new char[length()];
+            getChars(mStart, mEnd, chars, 0);
+            return new String(chars);
+        }
+    }
+}
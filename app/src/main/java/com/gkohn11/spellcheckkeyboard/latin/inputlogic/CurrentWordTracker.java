@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2025 Raimondas Rimkus
+ *
+ * This file is part of Simple Spellcheck, a derivative work based on
+ * Simple Keyboard (Copyright (C) 2025 Raimondas Rimkus and contributors)
+ * which is based on AOSP LatinIME (Copyright (C) 2008 The Android Open Source Project).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gkohn11.spellcheckkeyboard.latin.inputlogic;
+
+import com.gkohn11.spellcheckkeyboard.latin.RichInputConnection;
+
+/**
+ * Keeps track of the last word before the cursor and the punctuation typed after it, with the
+ * same result as LastWordExtractor#extractLastWordWithPunctuation on the text before the cursor,
+ * and of where the word before it is, if only spaces separate the two.
+ *
+ * The state is updated incrementally from the code points committed by {@link InputLogic}. When
+ * the text before the cursor changed in any other way (backspace, cursor moves, cache reloads,
+ * replacements) the state is rebuilt by scanning backwards from the cursor, which only touches
+ * the trailing separators and the word itself.
+ */
+public final class CurrentWordTracker {
+    // Trailing punctuation that is reported separately from the word.
+    private static final String PUNCTUATION = ".,!;:?\"'()/\\[]";
+    private static final String[] PUNCTUATION_STRINGS = new String[PUNCTUATION.length()];
+    static {
+        for (int i = 0; i < PUNCTUATION.length(); i++) {
+            PUNCTUATION_STRINGS[i] = String.valueOf(PUNCTUATION.charAt(i));
+        }
+    }
+    private static final int NO_PUNCTUATION = -1;
+    private static final int UNKNOWN_VERSION = Integer.MIN_VALUE;
+
+    private final RichInputConnection mConnection;
+    private char[] mWord = new char[32];
+    private int mWordLength;
+    private int mPunctuationIndex = NO_PUNCTUATION;
+    // Where the word starts in the text before the cursor, and the length of that text.
+    private int mWordStart;
+    private int mTextLength;
+    // Bounds of the word before it in the text before the cursor; equal when there is none.
+    private int mPreviousWordStart;
+    private int mPreviousWordEnd;
+    // Whether nothing but spaces follows the word, so it is the previous word of the next one.
+    private boolean mOnlySpacesAfterWord;
+    // Whether the last char before the cursor is part of the word, i.e. the next letter or digit
+    // extends the word instead of starting a new one.
+    private boolean mInWord;
+    // Version of the connection's text before cursor that this state corresponds to.
+    private int mVersion = UNKNOWN_VERSION;
+    private String mWordString;
+
+    public CurrentWordTracker(final RichInputConnection connection) {
+        mConnection = connection;
+    }
+
+    /**
+     * Forget the state; it is rebuilt from the connection on the next {@link #sync()}.
+     */
+    public void invalidate() {
+        mVersion = UNKNOWN_VERSION;
+    }
+
+    /**
+     * Account for a code point the caller just committed through the connection.
+     * @param versionBefore the connection's text version before the commit
+     */
+    public void onCodePointCommitted(final int codePoint, final int versionBefore) {
+        if (mVersion != versionBefore) {
+            return;
+        }
+        if (Character.isSupplementaryCodePoint(codePoint)) {
+            // Two surrogates, neither of which is part of a word or punctuation.
+            onChar(Character.highSurrogate(codePoint));
+            onChar(Character.lowSurrogate(codePoint));
+        } else {
+            onChar((char) codePoint);
+        }
+        mVersion = mConnection.getTextBeforeCursorVersion();
+    }
+
+    /**
+     * Account for text the caller just committed through the connection.
+     * @param versionBefore the connection's text version before the commit
+     */
+    public void onTextCommitted(final CharSequence text, final int versionBefore) {
+        if (mVersion != versionBefore) {
+            return;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            onChar(text.charAt(i));
+        }
+        mVersion = mConnection.getTextBeforeCursorVersion();
+    }
+
+    private void onChar(final char c) {
+        if (c <= ' ') {
+            // Whitespace (as in String#trim) ends the word but keeps the punctuation.
+            mInWord = false;
+            if (c != ' ') {
+                mOnlySpacesAfterWord = false;
+            }
+        } else if (Character.isLetterOrDigit(c)) {
+            if (!mInWord) {
+                startWord();
+            }
+            appendToWord(c);
+            mInWord = true;
+            mPunctuationIndex = NO_PUNCTUATION;
+        } else {
+            mInWord = false;
+            mOnlySpacesAfterWord = false;
+            mPunctuationIndex = PUNCTUATION.indexOf(c);
+        }
+        mTextLength++;
+    }
+
+    private void startWord() {
+        if (mWordLength > 0 && mOnlySpacesAfterWord) {
+            mPreviousWordStart = mWordStart;
+            mPreviousWordEnd = mWordStart + mWordLength;
+        } else {
+            mPreviousWordStart = 0;
+            mPreviousWordEnd = 0;
+        }
+        mWordStart = mTextLength;
+        mWordLength = 0;
+        mOnlySpacesAfterWord = true;
+    }
+
+    private void appendToWord(final char c) {
+        if (mWordLength == mWord.length) {
+            final char[] grown = new char[mWord.length * 2];
+            System.arraycopy(mWord, 0, grown, 0, mWordLength);
+            mWord = grown;
+        }
+        mWord[mWordLength++] = c;
+        mWordString = null;
+    }
+
+    /**
+     * Bring the state up to date with the connection's text before the cursor.
+     * @return whether there is a word before the cursor
+     */
+    public boolean sync() {
+        final int version = mConnection.getTextBeforeCursorVersion();
+        if (mVersion != version) {
+            rescan(mConnection.getTextBeforeCursor());
+            mVersion = version;
+        }
+        return mWordLength > 0;
+    }
+
+    private void rescan(final CharSequence text) {
+        mTextLength = text == null ? 0 : text.length();
+        int end = mTextLength;
+        while (end > 0 && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        mInWord = end == mTextLength && end > 0
+                && Character.isLetterOrDigit(text.charAt(end - 1));
+        mPunctuationIndex = end > 0 ? PUNCTUATION.indexOf(text.charAt(end - 1))
+                : NO_PUNCTUATION;
+        if (mPunctuationIndex != NO_PUNCTUATION) {
+            end--;
+        }
+        while (end > 0 && !Character.isLetterOrDigit(text.charAt(end - 1))) {
+            end--;
+        }
+        int start = end;
+        while (start > 0 && Character.isLetterOrDigit(text.charAt(start - 1))) {
+            start--;
+        }
+        mWordStart = start;
+        mWordLength = 0;
+        mWordString = null;
+        for (int i = start; i < end; i++) {
+            appendToWord(text.charAt(i));
+        }
+        mOnlySpacesAfterWord = true;
+        for (int i = end; i < mTextLength && mOnlySpacesAfterWord; i++) {
+            mOnlySpacesAfterWord = text.charAt(i) == ' ';
+        }
+        // Only spaces may separate the two words; punctuation in between breaks the context.
+        int previousEnd = start;
+        while (previousEnd > 0 && text.charAt(previousEnd - 1) == ' ') {
+            previousEnd--;
+        }
+        int previousStart = previousEnd;
+        while (previousStart > 0 && Character.isLetterOrDigit(text.charAt(previousStart - 1))) {
+            previousStart--;
+        }
+        if (start == end || previousEnd == start) {
+            previousStart = previousEnd = 0;
+        }
+        mPreviousWordStart = previousStart;
+        mPreviousWordEnd = previousEnd;
+    }
+
+    /**
+     * @return the last word before the cursor; only valid after {@link #sync()} returned true
+     */
+    public String getWord() {
+        if (mWordString == null) {
+            mWordString = new String(mWord, 0, mWordLength);
+        }
+        return mWordString;
+    }
+
+    /**
+     * @return where the word before the last word starts in the connection's text before the
+     *         cursor; only valid after {@link #sync()}
+     */
+    public int getPreviousWordStart() {
+        return mPreviousWordStart;
+    }
+
+    /**
+     * @return where the word before the last word ends in the connection's text before the
+     *         cursor, the same as {@link #getPreviousWordStart()} if there is no such word; only
+     *         valid after {@link #sync()}
+     */
+    public int getPreviousWordEnd() {
+        return mPreviousWordEnd;
+    }
+
+    /**
+     * @return whether the cursor is right after the word; only valid after {@link #sync()}
+     */
+    public boolean isInWord() {
+        return mInWord;
+    }
+
+    /**
+     * @return the punctuation char typed right after the word as a string, or "" if none
+     */
+    public String getPunctuation() {
+        return mPunctuationIndex == NO_PUNCTUATION ? "" : PUNCTUATION_STRINGS[mPunctuationIndex];
+    }
+}
@@ -35,6 +35,7 @@ import com.gkohn11.spellcheckkeyboard.latin.common.Constants;
 import com.gkohn11.spellcheckkeyboard.latin.common.StringUtils;
 import com.gkohn11.spellcheckkeyboard.latin.settings.SettingsValues;
 import com.gkohn11.spellcheckkeyboard.latin.settings.TextReplacementManager;
+import com.gkohn11.spellcheckkeyboard.latin.utils.InputLatencyStats;
 import com.gkohn11.spellcheckkeyboard.latin.utils.InputTypeUtils;
 import com.gkohn11.spellcheckkeyboard.latin.utils.RecapitalizeStatus;
 import com.gkohn11.spellcheckkeyboard.latin.utils.SubtypeLocaleUtils;
@@ -48,6 +49,8 @@ public final class InputLogic {
 
     // This has package visibility so it can be accessed from InputLogicHandler.
     public final RichInputConnection mConnection;
+    // The word before the cursor, kept up to date from the events handled here.
+    public final CurrentWordTracker mWordTracker;
     private final RecapitalizeStatus mRecapitalizeStatus = new RecapitalizeStatus();
 
     /**
@@ -58,6 +61,7 @@ public final class InputLogic {
     public InputLogic(final LatinIME latinIME) {
         mLatinIME = latinIME;
         mConnection = new RichInputConnection(latinIME);
+        mWordTracker = new CurrentWordTracker(mConnection);
     }
 
     /**
@@ -94,7 +98,9 @@ public final class InputLogic {
         final String rawText = event.getTextToCommit().toString();
         final InputTransaction inputTransaction = new InputTransaction(settingsValues);
         final String text = performSpecificTldProcessingOnTextInput(rawText);
+        final int textVersion = mConnection.getTextBeforeCursorVersion();
         mConnection.commitText(text, 1);
+        mWordTracker.onTextCommitted(text, textVersion);
         // Space state must be updated before calling updateShiftState
         inputTransaction.requireShiftUpdate(InputTransaction.SHIFT_UPDATE_NOW);
         // Check for text replacement after committing text
@@ -132,6 +138,7 @@ public final class InputLogic {
      * @return the complete transaction object
      */
     public InputTransaction onCodeInput(final SettingsValues settingsValues, final Event event) {
+        final long startNanos = InputLatencyStats.now();
         final InputTransaction inputTransaction = new InputTransaction(settingsValues);
 
         Event currentEvent = event;
@@ -145,6 +152,7 @@ public final class InputLogic {
             }
             currentEvent = currentEvent.mNextEvent;
         }
+        mLatinIME.mLatencyStats.record(InputLatencyStats.STAGE_INPUT_LOGIC, startNanos);
         return inputTransaction;
     }
 
@@ -162,7 +170,9 @@ public final class InputLogic {
         // and we enter both of the following if clauses.
         final CharSequence textToCommit = event.getTextToCommit();
         if (!TextUtils.isEmpty(textToCommit)) {
+            final int textVersion = mConnection.getTextBeforeCursorVersion();
             mConnection.commitText(textToCommit, 1);
+            mWordTracker.onTextCommitted(textToCommit, textVersion);
             // Check for text replacement after committing text
             checkTextReplacement();
         }
@@ -305,6 +315,16 @@ public final class InputLogic {
      * @param inputTransaction The transaction in progress.
      */
     private void handleSeparatorEvent(final Event event, final InputTransaction inputTransaction) {
+        // The separator ends the word before the cursor: the user typed it as they meant it,
+        // after the word before it. Nothing is learned from password fields.
+        final SettingsValues settingsValues = inputTransaction.mSettingsValues;
+        if (mLatinIME != null && settingsValues.mTextReplacementEnabled
+                && !settingsValues.mInputAttributes.mIsPasswordField
+                && mWordTracker.sync() && mWordTracker.isInWord()) {
+            TextReplacementManager.getInstance(mLatinIME).learnWord(
+                    mConnection.getTextBeforeCursor(), mWordTracker.getPreviousWordStart(),
+                    mWordTracker.getPreviousWordEnd(), mWordTracker.getWord());
+        }
         sendKeyCodePoint(event.mCodePoint);
 
         inputTransaction.requireShiftUpdate(InputTransaction.SHIFT_UPDATE_NOW);
@@ -539,6 +559,12 @@ public final class InputLogic {
      */
     // TODO: replace these two parameters with an InputTransaction
     private void sendKeyCodePoint(final int codePoint) {
+        final int textVersion = mConnection.getTextBeforeCursorVersion();
+        sendKeyCodePointToConnection(codePoint);
+        mWordTracker.onCodePointCommitted(codePoint, textVersion);
+    }
+
+    private void sendKeyCodePointToConnection(final int codePoint) {
         // TODO: Remove this special handling of digit letters.
         // For backward compatibility. See {@link InputMethodService#sendKeyChar(char)}.
         if (codePoint >= '0' && codePoint <= '9') {
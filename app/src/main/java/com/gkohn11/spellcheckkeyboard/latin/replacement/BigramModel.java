@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2025 Raimondas Rimkus
+ *
+ * This file is part of Simple Spellcheck, a derivative work based on
+ * Simple Keyboard (Copyright (C) 2025 Raimondas Rimkus and contributors)
+ * which is based on AOSP LatinIME (Copyright (C) 2008 The Android Open Source Project).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gkohn11.spellcheckkeyboard.latin.replacement;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * How often the user wrote one word right after another, in a fixed amount of memory.
+ *
+ * Pairs are stored by a 64-bit hash of both folded words in an open-addressing table of a fixed
+ * number of slots: one long for the hash and one byte for the count. Counts are quantised:
+ * exact up to {@link #EXACT_COUNT}, then each level is worth about a quarter more than the one
+ * before, and a level is reached with the probability that keeps the expected count right (an
+ * approximate counter). When every slot a pair may use is taken, the pair with the lowest
+ * count among them makes room.
+ *
+ * All methods are thread-safe.
+ */
+public final class BigramModel {
+    private static final int MAGIC = 0x53424731; // "SBG1"
+    private static final int VERSION = 1;
+    private static final long EMPTY_KEY = 0;
+    // Slots tried for a pair before one is evicted.
+    private static final int MAX_PROBES = 8;
+    private static final int EXACT_COUNT = 16;
+    private static final int MAX_LEVEL = 63;
+    // Count that each level stands for.
+    private static final int[] LEVEL_COUNTS = new int[MAX_LEVEL + 1];
+    static {
+        for (int level = 0; level <= MAX_LEVEL; level++) {
+            LEVEL_COUNTS[level] = level <= EXACT_COUNT ? level
+                    : (int) Math.round(EXACT_COUNT * Math.pow(1.25, level - EXACT_COUNT));
+        }
+    }
+
+    private final long[] mKeys;
+    private final byte[] mLevels;
+    private final int mMask;
+    // State of the xorshift generator that decides approximate increments.
+    private long mRandom = 0x2545F4914F6CDD1DL;
+    // Whether there are changes since the last checkpoint.
+    private boolean mDirty;
+
+    /**
+     * @param slotCount number of pairs the table can hold; a power of two. Each slot takes
+     *        9 bytes.
+     */
+    public BigramModel(final int slotCount) {
+        if (Integer.bitCount(slotCount) != 1) {
+            throw new IllegalArgumentException("Slot count must be a power of two: " + slotCount);
+        }
+        mKeys = new long[slotCount];
+        mLevels = new byte[slotCount];
+        mMask = slotCount - 1;
+    }
+
+    /**
+     * Record that the user wrote next right after previous.
+     */
+    public void learn(final String previous, final String next) {
+        learn(previous, 0, previous.length(), next);
+    }
+
+    /**
+     * Record that the user wrote next right after the word in previous from start to end,
+     * without copying it out of the text.
+     */
+    public synchronized void learn(final CharSequence previous, final int start, final int end,
+            final String next) {
+        final long key = keyFor(previous, start, end, next);
+        final int home = slotFor(key);
+        int victim = home;
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            final int slot = (home + probe) & mMask;
+            if (mKeys[slot] == key) {
+                increment(slot);
+                return;
+            }
+            if (mKeys[slot] == EMPTY_KEY) {
+                victim = slot;
+                break;
+            }
+            if (mLevels[slot] < mLevels[victim]) {
+                victim = slot;
+            }
+        }
+        mKeys[victim] = key;
+        mLevels[victim] = 1;
+        mDirty = true;
+    }
+
+    private void increment(final int slot) {
+        final int level = mLevels[slot];
+        if (level == MAX_LEVEL) {
+            return;
+        }
+        final int step = LEVEL_COUNTS[level + 1] - LEVEL_COUNTS[level];
+        if (step > 1 && nextRandom() % step != 0) {
+            return;
+        }
+        mLevels[slot] = (byte) (level + 1);
+        mDirty = true;
+    }
+
+    private int nextRandom() {
+        mRandom ^= mRandom << 13;
+        mRandom ^= mRandom >>> 7;
+        mRandom ^= mRandom << 17;
+        return (int) (mRandom >>> 33);
+    }
+
+    /**
+     * @return about how often next was written right after previous, or 0 if never (or the
+     *         pair has been evicted)
+     */
+    public int getCount(final String previous, final String next) {
+        return getCount(previous, 0, previous.length(), next);
+    }
+
+    /**
+     * Like {@link #getCount(String, String)} for the word in previous from start to end, without
+     * copying it out of the text.
+     */
+    public synchronized int getCount(final CharSequence previous, final int start, final int end,
+            final String next) {
+        final long key = keyFor(previous, start, end, next);
+        final int home = slotFor(key);
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            final int slot = (home + probe) & mMask;
+            if (mKeys[slot] == key) {
+                return LEVEL_COUNTS[mLevels[slot]];
+            }
+            if (mKeys[slot] == EMPTY_KEY) {
+                return 0;
+            }
+        }
+        return 0;
+    }
+
+    private static long keyFor(final CharSequence previous, final int start, final int end,
+            final String next) {
+        final long key = ReplacementDictionary.hash(previous, start, end)
+                * 0x9E3779B97F4A7C15L + ReplacementDictionary.hash(next, 0, next.length());
+        return key == EMPTY_KEY ? 1 : key;
+    }
+
+    private int slotFor(final long key) {
+        return (int) (key ^ (key >>> 32)) & mMask;
+    }
+
+    /**
+     * Add the pairs of a checkpoint written by {@link #writeTo}; a pair that is also in the
+     * table keeps the higher count.
+     * @return false if there is no checkpoint
+     * @throws IOException if the checkpoint can't be read or is not valid for this table
+     */
+    public boolean readFrom(final File file) throws IOException {
+        if (!file.exists()) {
+            return false;
+        }
+        final long[] keys;
+        final byte[] levels;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || in.readInt() != mKeys.length) {
+                throw new IOException("Not a bigram model of this size: " + file);
+            }
+            keys = new long[mKeys.length];
+            levels = new byte[mKeys.length];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = in.readLong();
+            }
+            in.readFully(levels);
+        }
+        synchronized (this) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != EMPTY_KEY && levels[i] > 0 && levels[i] <= MAX_LEVEL) {
+                    merge(keys[i], levels[i]);
+                }
+            }
+        }
+        return true;
+    }
+
+    private void merge(final long key, final byte level) {
+        final int home = slotFor(key);
+        int victim = home;
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            final int slot = (home + probe) & mMask;
+            if (mKeys[slot] == key) {
+                if (level > mLevels[slot]) {
+                    mLevels[slot] = level;
+                }
+                return;
+            }
+            if (mKeys[slot] == EMPTY_KEY) {
+                victim = slot;
+                break;
+            }
+            if (mLevels[slot] < mLevels[victim]) {
+                victim = slot;
+            }
+        }
+        if (mKeys[victim] == EMPTY_KEY || mLevels[victim] < level) {
+            mKeys[victim] = key;
+            mLevels[victim] = level;
+        }
+    }
+
+    /**
+     * Write a checkpoint if anything changed since the last one, to a temporary file that is
+     * then renamed into place. The table is copied under the lock and written outside it.
+     * @return whether a checkpoint was written
+     */
+    public boolean writeTo(final File file) throws IOException {
+        final long[] keys;
+        final byte[] levels;
+        synchronized (this) {
+            if (!mDirty) {
+                return false;
+            }
+            keys = mKeys.clone();
+            levels = mLevels.clone();
+            mDirty = false;
+        }
+        final File tempFile = new File(file.getPath() + ".tmp");
+        try {
+            try (FileOutputStream fileOut = new FileOutputStream(tempFile)) {
+                final DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(fileOut));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(keys.length);
+                for (final long key : keys) {
+                    out.writeLong(key);
+                }
+                out.write(levels);
+                out.flush();
+                fileOut.getFD().sync();
+            }
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Failed to install bigram model: " + file);
+            }
+        } catch (IOException e) {
+            tempFile.delete();
+            synchronized (this) {
+                mDirty = true;
+            }
+            throw e;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2025 Raimondas Rimkus
+ *
+ * This file is part of Simple Spellcheck, a derivative work based on
+ * Simple Keyboard (Copyright (C) 2025 Raimondas Rimkus and contributors)
+ * which is based on AOSP LatinIME (Copyright (C) 2008 The Android Open Source Project).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gkohn11.spellcheckkeyboard.latin.replacement;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Trie over weighted words that completes a typed prefix.
+ *
+ * Every node keeps the ids of the best {@link #MAX_COMPLETIONS} + 1 words below it, best first,
+ * so a query walks the prefix and copies at most that many ids: its cost depends on the length
+ * of the prefix only, whatever the number of words. The extra id makes up for the word that is
+ * the prefix itself, which is never reported. Words are folded to lower case.
+ * Nodes live in parallel arrays like {@link PhraseMatcher}; a query never allocates.
+ */
+public final class CompletionTrie {
+    /** Largest number of completions a query returns. */
+    public static final int MAX_COMPLETIONS = 3;
+
+    private static final int TOP_SIZE = MAX_COMPLETIONS + 1;
+    private static final int ROOT = 0;
+    private static final int NO_NODE = -1;
+    private static final int NO_WORD = -1;
+
+    private static final CompletionTrie EMPTY = new Builder().build();
+
+    private final String[] mWords;
+    private final int[] mWeights;
+    // Trie as first-child / next-sibling lists; mLabel is the char on the edge into the node.
+    private final int[] mFirstChild;
+    private final int[] mNextSibling;
+    private final char[] mLabel;
+    // TOP_SIZE word ids per node, best first, padded with NO_WORD.
+    private final int[] mTop;
+
+    private CompletionTrie(final String[] words, final int[] weights, final int[] firstChild,
+            final int[] nextSibling, final char[] label, final int[] top) {
+        mWords = words;
+        mWeights = weights;
+        mFirstChild = firstChild;
+        mNextSibling = nextSibling;
+        mLabel = label;
+        mTop = top;
+    }
+
+    public static CompletionTrie empty() {
+        return EMPTY;
+    }
+
+    /**
+     * @return the number of distinct words
+     */
+    public int size() {
+        return mWords.length;
+    }
+
+    /**
+     * Find the best words that start with text[start, end) and are longer than it.
+     * @param out receives word ids, best first; see {@link #getWord}
+     * @return the number of ids written, at most {@link #MAX_COMPLETIONS} and out.length
+     */
+    public int complete(final CharSequence text, final int start, final int end,
+            final int[] out) {
+        int node = ROOT;
+        for (int i = start; i < end && node != NO_NODE; i++) {
+            node = findChild(node, Character.toLowerCase(text.charAt(i)));
+        }
+        if (node == NO_NODE || start >= end) {
+            return 0;
+        }
+        final int limit = Math.min(MAX_COMPLETIONS, out.length);
+        int count = 0;
+        for (int i = 0; i < TOP_SIZE && count < limit; i++) {
+            final int word = mTop[node * TOP_SIZE + i];
+            if (word == NO_WORD) {
+                break;
+            }
+            if (mWords[word].length() > end - start) {
+                out[count++] = word;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return a completion returned by {@link #complete}, in lower case
+     */
+    public String getWord(final int id) {
+        return mWords[id];
+    }
+
+    public int getWeight(final int id) {
+        return mWeights[id];
+    }
+
+    private int findChild(final int node, final char c) {
+        for (int child = mFirstChild[node]; child != NO_NODE; child = mNextSibling[child]) {
+            if (mLabel[child] == c) {
+                return child;
+            }
+        }
+        return NO_NODE;
+    }
+
+    /**
+     * Collects words and compiles them into a trie.
+     */
+    public static final class Builder {
+        private final Map<String, Integer> mIdByWord = new HashMap<>();
+        private final List<String> mWords = new ArrayList<>();
+        private final List<Integer> mWeights = new ArrayList<>();
+
+        /**
+         * Add a word. Adding an existing word keeps the higher weight.
+         * @param weight ranking weight among completions; higher is better
+         */
+        public Builder add(final String word, final int weight) {
+            if (word == null || word.isEmpty()) {
+                return this;
+            }
+            final String folded = word.toLowerCase();
+            final Integer existing = mIdByWord.get(folded);
+            if (existing != null) {
+                if (weight > mWeights.get(existing)) {
+                    mWeights.set(existing, weight);
+                }
+                return this;
+            }
+            mIdByWord.put(folded, mWords.size());
+            mWords.add(folded);
+            mWeights.add(weight);
+            return this;
+        }
+
+        public CompletionTrie build() {
+            final int wordCount = mWords.size();
+            final String[] words = mWords.toArray(new String[wordCount]);
+            final int[] weights = new int[wordCount];
+            int capacity = 1;
+            for (int i = 0; i < wordCount; i++) {
+                weights[i] = mWeights.get(i);
+                capacity += words[i].length();
+            }
+
+            // A node is always added after its parent, so walking the nodes backwards visits
+            // every child before its parent.
+            int[] firstChild = new int[capacity];
+            int[] nextSibling = new int[capacity];
+            char[] label = new char[capacity];
+            int[] parent = new int[capacity];
+            int[] terminal = new int[capacity];
+            firstChild[ROOT] = NO_NODE;
+            nextSibling[ROOT] = NO_NODE;
+            parent[ROOT] = NO_NODE;
+            terminal[ROOT] = NO_WORD;
+            int nodeCount = 1;
+            for (int id = 0; id < wordCount; id++) {
+                final String word = words[id];
+                int node = ROOT;
+                for (int i = 0; i < word.length(); i++) {
+                    final char c = word.charAt(i);
+                    int child = firstChild[node];
+                    while (child != NO_NODE && label[child] != c) {
+                        child = nextSibling[child];
+                    }
+                    if (child == NO_NODE) {
+                        child = nodeCount++;
+                        label[child] = c;
+                        firstChild[child] = NO_NODE;
+                        nextSibling[child] = firstChild[node];
+                        firstChild[node] = child;
+                        parent[child] = node;
+                        terminal[child] = NO_WORD;
+                    }
+                    node = child;
+                }
+                terminal[node] = id;
+            }
+
+            final int[] top = new int[nodeCount * TOP_SIZE];
+            Arrays.fill(top, NO_WORD);
+            for (int node = nodeCount - 1; node >= 0; node--) {
+                if (terminal[node] != NO_WORD) {
+                    offer(top, node, terminal[node], words, weights);
+                }
+                if (parent[node] != NO_NODE) {
+                    for (int i = 0; i < TOP_SIZE; i++) {
+                        final int word = top[node * TOP_SIZE + i];
+                        if (word == NO_WORD) {
+                            break;
+                        }
+                        offer(top, parent[node], word, words, weights);
+                    }
+                }
+            }
+            return new CompletionTrie(words, weights, Arrays.copyOf(firstChild, nodeCount),
+                    Arrays.copyOf(nextSibling, nodeCount), Arrays.copyOf(label, nodeCount), top);
+        }
+
+        /**
+         * Insert a word into the best-first list of a node if it ranks high enough.
+         */
+        private static void offer(final int[] top, final int node, final int word,
+                final String[] words, final int[] weights) {
+            final int base = node * TOP_SIZE;
+            int i = TOP_SIZE;
+            while (i > 0 && (top[base + i - 1] == NO_WORD
+                    || isBetter(word, top[base + i - 1], words, weights))) {
+                i--;
+            }
+            if (i == TOP_SIZE) {
+                return;
+            }
+            System.arraycopy(top, base + i, top, base + i + 1, TOP_SIZE - i - 1);
+            top[base + i] = word;
+        }
+
+        /**
+         * Higher weight first; among equal weights the shorter word, then alphabetical order.
+         */
+        private static boolean isBetter(final int a, final int b, final String[] words,
+                final int[] weights) {
+            if (weights[a] != weights[b]) {
+                return weights[a] > weights[b];
+            }
+            if (words[a].length() != words[b].length()) {
+                return words[a].length() < words[b].length();
+            }
+            return words[a].compareTo(words[b]) < 0;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2025 Raimondas Rimkus
+ *
+ * This file is part of Simple Spellcheck, a derivative work based on
+ * Simple Keyboard (Copyright (C) 2025 Raimondas Rimkus and contributors)
+ * which is based on AOSP LatinIME (Copyright (C) 2008 The Android Open Source Project).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gkohn11.spellcheckkeyboard.latin.replacement;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Append-only journal of usage-counter increments.
+ *
+ * Each record is a single lookup key followed by a newline, so recording a correction costs one
+ * small append instead of a rewrite of the whole replacement store. Records are folded back into
+ * the store by a compaction pass, after which the journal is cleared.
+ */
+public final class CounterJournal {
+    private final File mFile;
+
+    public CounterJournal(final File file) {
+        mFile = file;
+    }
+
+    /**
+     * Append one increment record for the given lookup key.
+     */
+    public synchronized void append(final String key) throws IOException {
+        final byte[] record = (key + "\n").getBytes(StandardCharsets.UTF_8);
+        try (FileOutputStream out = new FileOutputStream(mFile, true)) {
+            out.write(record);
+        }
+    }
+
+    /**
+     * Read all records and sum them per key.
+     * @return a map from lookup key to the number of pending increments (empty if no journal)
+     */
+    public synchronized Map<String, Integer> readCounts() throws IOException {
+        final Map<String, Integer> counts = new HashMap<>();
+        if (!mFile.exists()) {
+            return counts;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(mFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                final Integer current = counts.get(line);
+                counts.put(line, current == null ? 1 : current + 1);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Drop all records.
+     */
+    public synchronized void clear() {
+        if (mFile.exists() && !mFile.delete()) {
+            // Truncate instead if the file can't be removed.
+            try {
+                new FileOutputStream(mFile, false).close();
+            } catch (IOException e) {
+                // Nothing more we can do; records will be applied again on next compaction.
+            }
+        }
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright (C) 2025 Raimondas Rimkus
+ *
+ * This file is part of Simple Spellcheck, a derivative work based on
+ * Simple Keyboard (Copyright (C) 2025 Raimondas Rimkus and contributors)
+ * which is based on AOSP LatinIME (Copyright (C) 2008 The Android Open Source Project).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gkohn11.spellcheckkeyboard.latin.replacement;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Streaming RFC 4180 tokenizer for UTF-8 CSV, working on bytes.
+ *
+ * A field that starts with a quote may contain commas, line breaks and doubled quotes; a quote
+ * anywhere else is taken literally. Records end at CR, LF or CRLF outside quotes, and blank
+ * records are skipped. Field bytes are unescaped into a buffer that is reused for every record,
+ * so only the fields a caller asks for as strings allocate.
+ *
+ * A reader either streams from an {@link InputStream} or parses a range of a byte array; the
+ * latter, together with {@link #findLastRecordEnd}, lets a large file be parsed in chunks on
+ * several threads as it is read.
+ */
+public final class CsvReader {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final byte[] UTF8_BOM = { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF };
+
+    // Tokenizer states.
+    private static final int FIELD_START = 0;
+    private static final int UNQUOTED = 1;
+    private static final int QUOTED = 2;
+    // A quote inside a quoted field: either the first half of "" or the closing quote.
+    private static final int QUOTE_IN_QUOTED = 3;
+
+    private final InputStream mInput;
+    private byte[] mBuffer;
+    private int mPosition;
+    private int mLimit;
+
+    // Unescaped bytes of the current record's fields, and where each field ends.
+    private byte[] mFieldBytes = new byte[256];
+    private int[] mFieldEnds = new int[8];
+    private int mFieldCount;
+    private int mFieldLength;
+
+    /**
+     * Stream from in, skipping a leading UTF-8 byte order mark. The caller closes in.
+     */
+    public CsvReader(final InputStream in) throws IOException {
+        mInput = in;
+        mBuffer = new byte[BUFFER_SIZE];
+        fill();
+        if (hasBom(mBuffer, 0, mLimit)) {
+            mPosition = UTF8_BOM.length;
+        }
+    }
+
+    /**
+     * Parse data[start, end). The range should start at a record boundary.
+     */
+    public CsvReader(final byte[] data, final int start, final int end) {
+        mInput = null;
+        mBuffer = data;
+        mPosition = start;
+        mLimit = end;
+    }
+
+    /**
+     * @return the length of the UTF-8 byte order mark at the start of data, or 0
+     */
+    public static int getBomLength(final byte[] data, final int length) {
+        return hasBom(data, 0, length) ? UTF8_BOM.length : 0;
+    }
+
+    /**
+     * Find where the last complete record in data[start, end) ends, so that a file read in
+     * chunks can be cut without splitting a record. This runs the same quote state machine as
+     * the tokenizer, so quoted line breaks never end a record, but copies nothing.
+     * @param start a record boundary
+     * @return the offset just past the last line break outside quotes, or start if there is none
+     */
+    public static int findLastRecordEnd(final byte[] data, final int start, final int end) {
+        int recordEnd = start;
+        int state = FIELD_START;
+        for (int i = start; i < end; i++) {
+            final byte b = data[i];
+            switch (state) {
+                case QUOTED:
+                    if (b == '"') {
+                        state = QUOTE_IN_QUOTED;
+                    }
+                    continue;
+                case QUOTE_IN_QUOTED:
+                    if (b == '"') {
+                        state = QUOTED;
+                        continue;
+                    }
+                    break;
+                case FIELD_START:
+                    if (b == '"') {
+                        state = QUOTED;
+                        continue;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            if (b == '\n' || b == '\r') {
+                state = FIELD_START;
+                recordEnd = i + 1;
+            } else if (b == ',') {
+                state = FIELD_START;
+            } else if (state != FIELD_START || !isBlank(b)) {
+                state = UNQUOTED;
+            }
+        }
+        return recordEnd;
+    }
+
+    /**
+     * Advance to the next non-blank record.
+     * @return false at the end of the input
+     */
+    public boolean nextRecord() throws IOException {
+        while (true) {
+            if (!readRecord()) {
+                return false;
+            }
+            if (mFieldCount > 1 || trimmedStart(0) < trimmedEnd(0)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return for a reader over a byte array, the offset where the next record starts
+     */
+    public int getPosition() {
+        return mPosition;
+    }
+
+    /**
+     * @return the number of fields in the current record
+     */
+    public int getFieldCount() {
+        return mFieldCount;
+    }
+
+    /**
+     * @return a field with surrounding whitespace removed, or "" if the record has no such field
+     */
+    public String getString(final int field) {
+        if (field >= mFieldCount) {
+            return "";
+        }
+        final int start = trimmedStart(field);
+        return new String(mFieldBytes, start, trimmedEnd(field) - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return whether a field is "true", ignoring case and surrounding whitespace
+     */
+    public boolean getBoolean(final int field) {
+        if (field >= mFieldCount) {
+            return false;
+        }
+        final int start = trimmedStart(field);
+        if (trimmedEnd(field) - start != 4) {
+            return false;
+        }
+        return (mFieldBytes[start] | 0x20) == 't' && (mFieldBytes[start + 1] | 0x20) == 'r'
+                && (mFieldBytes[start + 2] | 0x20) == 'u' && (mFieldBytes[start + 3] | 0x20) == 'e';
+    }
+
+    /**
+     * @return a field as a decimal int, or defaultValue if it is missing or not a valid int
+     */
+    public int getInt(final int field, final int defaultValue) {
+        if (field >= mFieldCount) {
+            return defaultValue;
+        }
+        int i = trimmedStart(field);
+        final int end = trimmedEnd(field);
+        final boolean negative = i < end && mFieldBytes[i] == '-';
+        if (negative || (i < end && mFieldBytes[i] == '+')) {
+            i++;
+        }
+        if (i == end) {
+            return defaultValue;
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            final int digit = mFieldBytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return defaultValue;
+            }
+            value = value * 10 + digit;
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                return defaultValue;
+            }
+        }
+        value = negative ? -value : value;
+        return value > Integer.MAX_VALUE ? defaultValue : (int) value;
+    }
+
+    private boolean readRecord() throws IOException {
+        mFieldCount = 0;
+        mFieldLength = 0;
+        int state = FIELD_START;
+        boolean inRecord = false;
+        while (true) {
+            if (mPosition == mLimit && !fill()) {
+                if (!inRecord) {
+                    return false;
+                }
+                endField();
+                return true;
+            }
+            final byte b = mBuffer[mPosition++];
+            inRecord = true;
+            switch (state) {
+                case QUOTED:
+                    if (b == '"') {
+                        state = QUOTE_IN_QUOTED;
+                    } else {
+                        append(b);
+                    }
+                    continue;
+                case QUOTE_IN_QUOTED:
+                    if (b == '"') {
+                        append(b);
+                        state = QUOTED;
+                        continue;
+                    }
+                    // Closing quote; anything up to the next separator is kept as is.
+                    break;
+                case FIELD_START:
+                    if (b == '"') {
+                        state = QUOTED;
+                        continue;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            if (b == ',') {
+                endField();
+                state = FIELD_START;
+            } else if (b == '\n' || b == '\r') {
+                endField();
+                return true;
+            } else {
+                append(b);
+                if (state != FIELD_START || !isBlank(b)) {
+                    state = UNQUOTED;
+                }
+            }
+        }
+    }
+
+    private boolean fill() throws IOException {
+        if (mInput == null) {
+            return false;
+        }
+        final int read = mInput.read(mBuffer, 0, mBuffer.length);
+        mPosition = 0;
+        mLimit = Math.max(read, 0);
+        return read > 0;
+    }
+
+    private void append(final byte b) {
+        if (mFieldLength == mFieldBytes.length) {
+            mFieldBytes = Arrays.copyOf(mFieldBytes, mFieldLength * 2);
+        }
+        mFieldBytes[mFieldLength++] = b;
+    }
+
+    private void endField() {
+        if (mFieldCount == mFieldEnds.length) {
+            mFieldEnds = Arrays.copyOf(mFieldEnds, mFieldCount * 2);
+        }
+        mFieldEnds[mFieldCount++] = mFieldLength;
+    }
+
+    private int trimmedStart(final int field) {
+        int start = field == 0 ? 0 : mFieldEnds[field - 1];
+        final int end = mFieldEnds[field];
+        while (start < end && (mFieldBytes[start] & 0xFF) <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    private int trimmedEnd(final int field) {
+        final int start = field == 0 ? 0 : mFieldEnds[field - 1];
+        int end = mFieldEnds[field];
+        while (end > start && (mFieldBytes[end - 1] & 0xFF) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    // Blanks before an opening quote are allowed, and trimmed like any other.
+    private static boolean isBlank(final byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    private static boolean hasBom(final byte[] data, final int start, final int end) {
+        return end - start >= UTF8_BOM.length && data[start] == UTF8_BOM[0]
+                && data[start + 1] == UTF8_BOM[1] && data[start + 2] == UTF8_BOM[2];
+    }
+}
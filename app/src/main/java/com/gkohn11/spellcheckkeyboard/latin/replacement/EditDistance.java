@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2025 Raimondas Rimkus
+ *
+ * This file is part of Simple Spellcheck, a derivative work based on
+ * Simple Keyboard (Copyright (C) 2025 Raimondas Rimkus and contributors)
+ * which is based on AOSP LatinIME (Copyright (C) 2008 The Android Open Source Project).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gkohn11.spellcheckkeyboard.latin.replacement;
+
+/**
+ * Bounded optimal-string-alignment distance (Levenshtein plus adjacent transpositions).
+ */
+public final class EditDistance {
+    // Costs for computeWeighted, in half-edits so that both stay integers.
+    public static final int EDIT_COST = 2;
+    public static final int NEAR_SUBSTITUTION_COST = 1;
+
+    private EditDistance() {
+        // This utility class is not publicly instantiable.
+    }
+
+    /**
+     * @param rows three scratch rows of at least b.length() + 1 ints, overwritten
+     * @return the distance between a and b, or maxDistance + 1 if it exceeds maxDistance
+     */
+    public static int compute(final CharSequence a, final CharSequence b, final int maxDistance,
+            final int[][] rows) {
+        final int lengthA = a.length();
+        final int lengthB = b.length();
+        if (Math.abs(lengthA - lengthB) > maxDistance) {
+            return maxDistance + 1;
+        }
+        int[] previousPrevious = rows[0];
+        int[] previous = rows[1];
+        int[] current = rows[2];
+        for (int j = 0; j <= lengthB; j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= lengthA; i++) {
+            current[0] = i;
+            int rowMin = i;
+            final char charA = a.charAt(i - 1);
+            for (int j = 1; j <= lengthB; j++) {
+                final char charB = b.charAt(j - 1);
+                final int cost = charA == charB ? 0 : 1;
+                int value = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1),
+                        previous[j - 1] + cost);
+                if (i > 1 && j > 1 && charA == b.charAt(j - 2) && a.charAt(i - 2) == charB) {
+                    value = Math.min(value, previousPrevious[j - 2] + 1);
+                }
+                current[j] = value;
+                rowMin = Math.min(rowMin, value);
+            }
+            if (rowMin > maxDistance) {
+                return maxDistance + 1;
+            }
+            final int[] recycled = previousPrevious;
+            previousPrevious = previous;
+            previous = current;
+            current = recycled;
+        }
+        return Math.min(previous[lengthB], maxDistance + 1);
+    }
+
+    /**
+     * Keyboard-aware variant of {@link #compute}, in half-edits: substituting a key that was near
+     * the touch point of the typed char costs {@link #NEAR_SUBSTITUTION_COST}, every other edit
+     * costs {@link #EDIT_COST}.
+     * @param typed the typed word; char i was produced by tap i of history
+     * @param history touch history that {@link TouchHistory#matches matches} typed
+     * @param rows three scratch rows of at least candidate.length() + 1 ints, overwritten
+     * @return the cost of turning typed into candidate, or maxCost + 1 if it exceeds maxCost
+     */
+    public static int computeWeighted(final CharSequence typed, final CharSequence candidate,
+            final TouchHistory history, final int maxCost, final int[][] rows) {
+        final int lengthA = typed.length();
+        final int lengthB = candidate.length();
+        if (Math.abs(lengthA - lengthB) * EDIT_COST > maxCost) {
+            return maxCost + 1;
+        }
+        int[] previousPrevious = rows[0];
+        int[] previous = rows[1];
+        int[] current = rows[2];
+        for (int j = 0; j <= lengthB; j++) {
+            previous[j] = j * EDIT_COST;
+        }
+        for (int i = 1; i <= lengthA; i++) {
+            current[0] = i * EDIT_COST;
+            int rowMin = current[0];
+            final char charA = typed.charAt(i - 1);
+            for (int j = 1; j <= lengthB; j++) {
+                final char charB = candidate.charAt(j - 1);
+                final int cost;
+                if (charA == charB) {
+                    cost = 0;
+                } else if (history.isNeighbor(i - 1, charB)) {
+                    cost = NEAR_SUBSTITUTION_COST;
+                } else {
+                    cost = EDIT_COST;
+                }
+                int value = Math.min(Math.min(previous[j] + EDIT_COST,
+                        current[j - 1] + EDIT_COST), previous[j - 1] + cost);
+                if (i > 1 && j > 1 && charA == candidate.charAt(j - 2)
+                        && typed.charAt(i - 2) == charB) {
+                    value = Math.min(value, previousPrevious[j - 2] + EDIT_COST);
+                }
+                current[j] = value;
+                rowMin = Math.min(rowMin, value);
+            }
+            if (rowMin > maxCost) {
+                return maxCost + 1;
+            }
+            final int[] recycled = previousPrevious;
+            previousPrevious = previous;
+            previous = current;
+            current = recycled;
+        }
+        return Math.min(previous[lengthB], maxCost + 1);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2025 Raimondas Rimkus
+ *
+ * This file is part of Simple Spellcheck, a derivative work based on
+ * Simple Keyboard (Copyright (C) 2025 Raimondas Rimkus and contributors)
+ * which is based on AOSP LatinIME (Copyright (C) 2008 The Android Open Source Project).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gkohn11.spellcheckkeyboard.latin.replacement;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Append-only write-ahead journal of single-entry edits.
+ *
+ * Each record is one CSV record of the replacement store followed by a commit mark, and is
+ * synced to disk before {@link #append} returns, so an edit survives a crash as soon as it has
+ * been journaled. Records are folded back into the store by a compaction pass, after which the
+ * journal is cleared. A record cut short by a crash has no commit mark; it is dropped, and the
+ * file truncated to the last complete record, on the next {@link #replay}.
+ */
+public final class EntryJournal {
+    private static final String COMMIT_MARK = "#";
+
+    /**
+     * Receives the records of the journal in the order they were appended.
+     */
+    public interface Replayer {
+        /**
+         * @param record the record; its last field is the commit mark
+         */
+        void onRecord(CsvReader record);
+    }
+
+    private final File mFile;
+
+    public EntryJournal(final File file) {
+        mFile = file;
+    }
+
+    /**
+     * Append one record and sync it to disk.
+     * @param record one CSV record, without a line break
+     */
+    public synchronized void append(final String record) throws IOException {
+        final byte[] bytes = (record + "," + COMMIT_MARK + "\n").getBytes(StandardCharsets.UTF_8);
+        try (FileOutputStream out = new FileOutputStream(mFile, true)) {
+            out.write(bytes);
+            out.getFD().sync();
+        }
+    }
+
+    /**
+     * Hand every complete record to replayer, dropping an incomplete one at the end.
+     * @return the number of complete records
+     */
+    public synchronized int replay(final Replayer replayer) throws IOException {
+        if (!mFile.exists()) {
+            return 0;
+        }
+        // The journal is compacted long before it gets big, so it is read in one go.
+        byte[] data = new byte[(int) mFile.length()];
+        int length = 0;
+        try (FileInputStream in = new FileInputStream(mFile)) {
+            int read;
+            while ((read = in.read(data, length, data.length - length)) > 0) {
+                length += read;
+                if (length == data.length) {
+                    data = Arrays.copyOf(data, data.length * 2 + 1);
+                }
+            }
+        }
+        final CsvReader reader = new CsvReader(data, 0, length);
+        int count = 0;
+        int validLength = 0;
+        while (reader.nextRecord()) {
+            final int fieldCount = reader.getFieldCount();
+            if (fieldCount < 2 || !COMMIT_MARK.equals(reader.getString(fieldCount - 1))) {
+                break;
+            }
+            replayer.onRecord(reader);
+            count++;
+            validLength = reader.getPosition();
+        }
+        if (validLength < length) {
+            try (RandomAccessFile out = new RandomAccessFile(mFile, "rw")) {
+                out.setLength(validLength);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Drop all records.
+     */
+    public synchronized void clear() {
+        if (mFile.exists() && !mFile.delete()) {
+            // Truncate instead if the file can't be removed.
+            try {
+                new FileOutputStream(mFile, false).close();
+            } catch (IOException e) {
+                // Nothing more we can do; records will be applied again on next compaction.
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2025 Raimondas Rimkus
+ *
+ * This file is part of Simple Spellcheck, a derivative work based on
+ * Simple Keyboard (Copyright (C) 2025 Raimondas Rimkus and contributors)
+ * which is based on AOSP LatinIME (Copyright (C) 2008 The Android Open Source Project).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gkohn11.spellcheckkeyboard.latin.replacement;
+
+import java.util.Arrays;
+
+/**
+ * Finds the words and phrases of a text that have a non-empty replacement, one page at a time,
+ * in a single pass that looks up each word and feeds the phrase matcher. Words are looked up in
+ * place, so scanning allocates nothing. Where a phrase and a word overlap, the one that starts
+ * first wins, and the longer one if both start at the same position.
+ *
+ * Pages must be scanned in order and must not split a word; see {@link #findPageEnd}.
+ */
+public final class MisspellingScanner {
+    /**
+     * Receives the misspellings of a page in text order.
+     */
+    public interface Listener {
+        /**
+         * @param entry index of the entry in {@link #getEntries()}
+         */
+        void onMisspelling(int start, int end, int entry);
+    }
+
+    private final ReplacementLookup mEntries;
+    private final PhraseMatcher mPhraseMatcher;
+    private final CharSequence mText;
+    // Hits of the current page as (start, end, entry) triples, before overlaps are resolved.
+    private int[] mHits = new int[48];
+    private int mHitCount;
+    // Matcher state, carried across pages so that phrases spanning a page end are found.
+    private int mState = PhraseMatcher.ROOT;
+    // End of the last misspelling reported.
+    private int mLastEnd;
+
+    /**
+     * @param phraseMatcher matcher compiled from the phrase keys of entries
+     */
+    public MisspellingScanner(final ReplacementLookup entries,
+            final PhraseMatcher phraseMatcher, final CharSequence text) {
+        mEntries = entries;
+        mPhraseMatcher = phraseMatcher;
+        mText = text;
+    }
+
+    public ReplacementLookup getEntries() {
+        return mEntries;
+    }
+
+    /**
+     * @return the end of the page starting at start: pageSize chars on, extended to the end
+     *         of the word there
+     */
+    public static int findPageEnd(final CharSequence text, final int start, final int pageSize) {
+        final int length = text.length();
+        int end = Math.min(start + pageSize, length);
+        while (end < length && Character.isLetterOrDigit(text.charAt(end))) {
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * Report the misspellings in text[start, end) to listener.
+     */
+    public void scan(final int start, final int end, final Listener listener) {
+        mHitCount = 0;
+        int wordStart = -1;
+        for (int i = start; i <= end; i++) {
+            if (i < end) {
+                mState = mPhraseMatcher.next(mState, mText.charAt(i));
+                for (int match = mPhraseMatcher.firstMatch(mState);
+                        match != PhraseMatcher.NO_MATCH;
+                        match = mPhraseMatcher.nextMatch(match)) {
+                    final int matchStart = i + 1 - mPhraseMatcher.getMatchLength(match);
+                    final int entry = PhraseMatcher.findEntry(mEntries, mText, matchStart, i + 1);
+                    if (entry != ReplacementDictionary.NOT_FOUND) {
+                        addHit(matchStart, i + 1, entry);
+                        // Shorter phrases ending here are covered by this one.
+                        break;
+                    }
+                }
+            }
+            if (i < end && Character.isLetterOrDigit(mText.charAt(i))) {
+                if (wordStart == -1) {
+                    wordStart = i;
+                }
+                continue;
+            }
+            if (wordStart != -1) {
+                final int entry = mEntries.find(mText, wordStart, i);
+                if (entry != ReplacementDictionary.NOT_FOUND) {
+                    addHit(wordStart, i, entry);
+                }
+                wordStart = -1;
+            }
+        }
+        sortHits();
+        for (int h = 0; h < mHitCount; h++) {
+            final int hitStart = mHits[3 * h];
+            final int hitEnd = mHits[3 * h + 1];
+            final int entry = mHits[3 * h + 2];
+            if (hitStart < mLastEnd || mEntries.getValueLength(entry) == 0) {
+                continue;
+            }
+            listener.onMisspelling(hitStart, hitEnd, entry);
+            mLastEnd = hitEnd;
+        }
+    }
+
+    private void addHit(final int start, final int end, final int entry) {
+        if (3 * mHitCount + 3 > mHits.length) {
+            mHits = Arrays.copyOf(mHits, mHits.length * 2);
+        }
+        mHits[3 * mHitCount] = start;
+        mHits[3 * mHitCount + 1] = end;
+        mHits[3 * mHitCount + 2] = entry;
+        mHitCount++;
+    }
+
+    /**
+     * Insertion sort by start, longer first; hits arrive nearly sorted by end.
+     */
+    private void sortHits() {
+        for (int h = 1; h < mHitCount; h++) {
+            final int start = mHits[3 * h];
+            final int end = mHits[3 * h + 1];
+            final int entry = mHits[3 * h + 2];
+            int j = h - 1;
+            while (j >= 0 && (mHits[3 * j] > start
+                    || (mHits[3 * j] == start && mHits[3 * j + 1] < end))) {
+                mHits[3 * j + 3] = mHits[3 * j];
+                mHits[3 * j + 4] = mHits[3 * j + 1];
+                mHits[3 * j + 5] = mHits[3 * j + 2];
+                j--;
+            }
+            mHits[3 * j + 3] = start;
+            mHits[3 * j + 4] = end;
+            mHits[3 * j + 5] = entry;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2025 Raimondas Rimkus
+ *
+ * This file is part of Simple Spellcheck, a derivative work based on
+ * Simple Keyboard (Copyright (C) 2025 Raimondas Rimkus and contributors)
+ * which is based on AOSP LatinIME (Copyright (C) 2008 The Android Open Source Project).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gkohn11.spellcheckkeyboard.latin.replacement;
+
+import java.util.Arrays;
+
+/**
+ * Aho–Corasick automaton over the phrase keys of a {@link ReplacementDictionary}: keys that are
+ * not a single run of letters and digits, such as "could of" or "dont't". Single-word keys are
+ * found by the word lookup and are left out.
+ *
+ * The automaton matches on folded (lower case) text, so a reported match may still be rejected
+ * by the dictionary for an exact-case key; callers confirm each match with {@link #findEntry}.
+ * Text is fed one char at a time through {@link #next(int, char)}, so a caller can carry the
+ * state across pages of a longer text.
+ * Nodes live in parallel int arrays; feeding text never allocates.
+ */
+public final class PhraseMatcher {
+    /** State before any text has been fed. */
+    public static final int ROOT = 0;
+    /** Returned by {@link #nextMatch} when there are no further matches. */
+    public static final int NO_MATCH = -1;
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int NO_NODE = -1;
+
+    // Trie as first-child / next-sibling lists; mLabel is the char on the edge into the node.
+    private int[] mFirstChild;
+    private int[] mNextSibling;
+    private char[] mLabel;
+    private int[] mFail;
+    // Length of the key that ends at the node, or 0.
+    private int[] mKeyLength;
+    // Nearest node on the fail chain (excluding the node itself) where a key ends.
+    private int[] mOutput;
+    private int mNodeCount;
+    private int mKeyCount;
+    private int mMaxKeyLength;
+
+    private PhraseMatcher() {
+        mFirstChild = new int[INITIAL_CAPACITY];
+        mNextSibling = new int[INITIAL_CAPACITY];
+        mLabel = new char[INITIAL_CAPACITY];
+        mKeyLength = new int[INITIAL_CAPACITY];
+        mFirstChild[ROOT] = NO_NODE;
+        mNextSibling[ROOT] = NO_NODE;
+        mNodeCount = 1;
+    }
+
+    /**
+     * Compile the phrase keys of one or more dictionaries, e.g. a compiled dictionary and the
+     * edits on top of it.
+     */
+    public static PhraseMatcher build(final ReplacementDictionary... dictionaries) {
+        final PhraseMatcher matcher = new PhraseMatcher();
+        for (final ReplacementDictionary dictionary : dictionaries) {
+            for (int i = 0; i < dictionary.size(); i++) {
+                final String key = dictionary.getKey(i);
+                final int start = key.length() > 1
+                        && key.charAt(0) == ReplacementDictionary.EXACT_CASE_PREFIX ? 1 : 0;
+                if (isPhrase(key, start, key.length())) {
+                    matcher.insert(key, start);
+                }
+            }
+        }
+        matcher.linkFailures();
+        return matcher;
+    }
+
+    /**
+     * Whether text[start, end) is a phrase, i.e. contains a char that is not a letter or digit.
+     */
+    public static boolean isPhrase(final CharSequence text, final int start, final int end) {
+        for (int i = start; i < end; i++) {
+            if (!Character.isLetterOrDigit(text.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Confirm a match reported by the automaton against the entries: the phrase must not
+     * start or end in the middle of a word, and an exact-case key must match the case.
+     * @return the entry for text[start, end), or {@link ReplacementDictionary#NOT_FOUND}
+     */
+    public static int findEntry(final ReplacementLookup entries, final CharSequence text,
+            final int start, final int end) {
+        if (Character.isLetterOrDigit(text.charAt(start)) && start > 0
+                && Character.isLetterOrDigit(text.charAt(start - 1))) {
+            return ReplacementDictionary.NOT_FOUND;
+        }
+        if (Character.isLetterOrDigit(text.charAt(end - 1)) && end < text.length()
+                && Character.isLetterOrDigit(text.charAt(end))) {
+            return ReplacementDictionary.NOT_FOUND;
+        }
+        return entries.find(text, start, end);
+    }
+
+    /**
+     * @return the number of distinct (folded) phrase keys
+     */
+    public int size() {
+        return mKeyCount;
+    }
+
+    /**
+     * @return the length of the longest phrase key, so callers know how far back to look
+     */
+    public int getMaxKeyLength() {
+        return mMaxKeyLength;
+    }
+
+    /**
+     * Feed one char of text.
+     * @return the state after c
+     */
+    public int next(final int state, final char c) {
+        final char folded = Character.toLowerCase(c);
+        int node = state;
+        while (true) {
+            final int child = findChild(node, folded);
+            if (child != NO_NODE) {
+                return child;
+            }
+            if (node == ROOT) {
+                return ROOT;
+            }
+            node = mFail[node];
+        }
+    }
+
+    /**
+     * @return the state where the longest key ending at the current position ends, or
+     *         {@link #NO_MATCH}; pass it to {@link #getMatchLength} and {@link #nextMatch}
+     */
+    public int firstMatch(final int state) {
+        return mKeyLength[state] > 0 ? state : mOutput[state];
+    }
+
+    /**
+     * @return the next shorter key ending at the same position, or {@link #NO_MATCH}
+     */
+    public int nextMatch(final int match) {
+        return mOutput[match];
+    }
+
+    /**
+     * @return the length of the key for a match returned by firstMatch or nextMatch
+     */
+    public int getMatchLength(final int match) {
+        return mKeyLength[match];
+    }
+
+    private int findChild(final int node, final char c) {
+        for (int child = mFirstChild[node]; child != NO_NODE; child = mNextSibling[child]) {
+            if (mLabel[child] == c) {
+                return child;
+            }
+        }
+        return NO_NODE;
+    }
+
+    private void insert(final String key, final int start) {
+        int node = ROOT;
+        for (int i = start; i < key.length(); i++) {
+            final char c = Character.toLowerCase(key.charAt(i));
+            int child = findChild(node, c);
+            if (child == NO_NODE) {
+                child = addNode(c);
+                mNextSibling[child] = mFirstChild[node];
+                mFirstChild[node] = child;
+            }
+            node = child;
+        }
+        if (mKeyLength[node] == 0) {
+            // The exact-case and folded keys of a phrase end at the same node.
+            mKeyLength[node] = key.length() - start;
+            mKeyCount++;
+            mMaxKeyLength = Math.max(mMaxKeyLength, mKeyLength[node]);
+        }
+    }
+
+    private int addNode(final char label) {
+        if (mNodeCount == mLabel.length) {
+            final int capacity = mLabel.length * 2;
+            mFirstChild = Arrays.copyOf(mFirstChild, capacity);
+            mNextSibling = Arrays.copyOf(mNextSibling, capacity);
+            mLabel = Arrays.copyOf(mLabel, capacity);
+            mKeyLength = Arrays.copyOf(mKeyLength, capacity);
+        }
+        final int node = mNodeCount++;
+        mLabel[node] = label;
+        mFirstChild[node] = NO_NODE;
+        mNextSibling[node] = NO_NODE;
+        return node;
+    }
+
+    /**
+     * Compute the fail and output links breadth first, so a node's fail target is always
+     * finished before the node itself.
+     */
+    private void linkFailures() {
+        mFail = new int[mNodeCount];
+        mOutput = new int[mNodeCount];
+        mOutput[ROOT] = NO_MATCH;
+        final int[] queue = new int[mNodeCount];
+        int head = 0;
+        int tail = 0;
+        for (int child = mFirstChild[ROOT]; child != NO_NODE; child = mNextSibling[child]) {
+            mFail[child] = ROOT;
+            mOutput[child] = NO_MATCH;
+            queue[tail++] = child;
+        }
+        while (head < tail) {
+            final int node = queue[head++];
+            for (int child = mFirstChild[node]; child != NO_NODE; child = mNextSibling[child]) {
+                int fallback = mFail[node];
+                int target = findChild(fallback, mLabel[child]);
+                while (target == NO_NODE && fallback != ROOT) {
+                    fallback = mFail[fallback];
+                    target = findChild(fallback, mLabel[child]);
+                }
+                mFail[child] = target != NO_NODE ? target : ROOT;
+                mOutput[child] = firstMatch(mFail[child]);
+                queue[tail++] = child;
+            }
+        }
+    }
+}
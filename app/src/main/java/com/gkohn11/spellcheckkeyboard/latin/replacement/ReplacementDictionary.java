@@ -0,0 +1,469 @@
+/*
+ * Copyright (C) 2025 Raimondas Rimkus
+ *
+ * This file is part of Simple Spellcheck, a derivative work based on
+ * Simple Keyboard (Copyright (C) 2025 Raimondas Rimkus and contributors)
+ * which is based on AOSP LatinIME (Copyright (C) 2008 The Android Open Source Project).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gkohn11.spellcheckkeyboard.latin.replacement;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiled, read-only replacement dictionary that is memory-mapped instead of parsed.
+ *
+ * File layout (big-endian):
+ * <pre>
+ *   header   magic, version, entry count, pool length (chars), slot count, padding,
+ *            source generation, source length
+ *   hashes   one 64-bit hash per slot of an open-addressing table
+ *   slots    entry index per slot, or -1 for an empty slot
+ *   table    one record per entry, sorted by key:
+ *            key offset, key length, value offset, value length, flags, counter
+ *   pool     UTF-16 chars of all keys and values
+ * </pre>
+ * Keys use the same convention as the CSV: "^im" for an exact-case entry, otherwise the
+ * misspelling folded to lower case. Every entry is hashed by its folded misspelling (without
+ * the ^), so the exact-case and folded entries for a word sit on the same probe sequence and
+ * one probe answers both. The slot count is a power of two at least twice the entry count, and
+ * collisions are resolved by linear probing. Lookups hash and compare straight from the caller's
+ * text against the pool, so a miss allocates nothing.
+ */
+public final class ReplacementDictionary implements ReplacementLookup {
+    private static final int MAGIC = 0x53524431; // "SRD1"
+    // 2 added the hash table, 3 stamps the source generation instead of its mtime. A file of
+    // another version fails to open and is recompiled from the CSV.
+    private static final int VERSION = 3;
+    private static final int HEADER_SIZE = 6 * 4 + 2 * 8;
+    private static final int RECORD_INTS = 6;
+    private static final int FLAG_ALWAYS_ON = 1;
+    private static final int EMPTY_SLOT = -1;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    public static final int NOT_FOUND = -1;
+    public static final char EXACT_CASE_PREFIX = '^';
+
+    private static final ReplacementDictionary EMPTY = new ReplacementDictionary(
+            LongBuffer.allocate(0), IntBuffer.allocate(0), IntBuffer.allocate(0),
+            CharBuffer.allocate(0), 0, 0, 0);
+
+    private final LongBuffer mSlotHashes;
+    private final IntBuffer mSlotEntries;
+    // Slot count - 1, or -1 when there are no slots.
+    private final int mSlotMask;
+    private final IntBuffer mTable;
+    private final CharBuffer mPool;
+    private final int mSize;
+    private final long mSourceGeneration;
+    private final long mSourceLength;
+
+    private ReplacementDictionary(final LongBuffer slotHashes, final IntBuffer slotEntries,
+            final IntBuffer table, final CharBuffer pool, final int size,
+            final long sourceGeneration, final long sourceLength) {
+        mSlotHashes = slotHashes;
+        mSlotEntries = slotEntries;
+        mSlotMask = slotEntries.capacity() - 1;
+        mTable = table;
+        mPool = pool;
+        mSize = size;
+        mSourceGeneration = sourceGeneration;
+        mSourceLength = sourceLength;
+    }
+
+    public static ReplacementDictionary empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Memory-map a compiled dictionary.
+     * @throws IOException if the file can't be read or is not a valid dictionary
+     */
+    public static ReplacementDictionary open(final File file) throws IOException {
+        try (FileInputStream in = new FileInputStream(file); FileChannel channel = in.getChannel()) {
+            return parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()),
+                    file.toString());
+        }
+    }
+
+    private static ReplacementDictionary parse(final ByteBuffer buffer, final String name)
+            throws IOException {
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC
+                || buffer.getInt() != VERSION) {
+            throw new IOException("Not a replacement dictionary: " + name);
+        }
+        final int size = buffer.getInt();
+        final int poolLength = buffer.getInt();
+        final int slotCount = buffer.getInt();
+        buffer.getInt(); // Padding, keeps the hashes 8-byte aligned.
+        final long sourceGeneration = buffer.getLong();
+        final long sourceLength = buffer.getLong();
+        if (size < 0 || poolLength < 0 || slotCount < 2 * size
+                || Integer.bitCount(slotCount) != 1
+                || buffer.remaining() != slotCount * 12L + size * RECORD_INTS * 4L
+                        + poolLength * 2L) {
+            throw new IOException("Truncated replacement dictionary: " + name);
+        }
+        final LongBuffer slotHashes = section(buffer, slotCount * 8).asLongBuffer();
+        final IntBuffer slotEntries = section(buffer, slotCount * 4).asIntBuffer();
+        final IntBuffer table = section(buffer, size * RECORD_INTS * 4).asIntBuffer();
+        final CharBuffer pool = buffer.slice().asCharBuffer();
+        return new ReplacementDictionary(slotHashes, slotEntries, table, pool, size,
+                sourceGeneration, sourceLength);
+    }
+
+    /**
+     * @return the next length bytes of buffer as their own buffer, advancing past them
+     */
+    private static ByteBuffer section(final ByteBuffer buffer, final int length) {
+        final ByteBuffer section = buffer.slice();
+        section.limit(length);
+        buffer.position(buffer.position() + length);
+        return section;
+    }
+
+    /**
+     * Whether this dictionary was compiled from the given generation of the source file, with
+     * the given length.
+     */
+    public boolean isCompiledFrom(final long sourceGeneration, final long sourceLength) {
+        return mSourceGeneration == sourceGeneration && mSourceLength == sourceLength;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Find the entry for text[start, end) with a single probe: the exact-case ("^") entry if
+     * its case matches, otherwise the case-insensitive entry.
+     * @return the entry index, or {@link #NOT_FOUND}
+     */
+    public int find(final CharSequence text, final int start, final int end) {
+        if (start >= end || mSlotMask < 0) {
+            return NOT_FOUND;
+        }
+        final long hash = hash(text, start, end);
+        int folded = NOT_FOUND;
+        for (int slot = slotFor(hash, mSlotMask); ; slot = (slot + 1) & mSlotMask) {
+            final int entry = mSlotEntries.get(slot);
+            if (entry == EMPTY_SLOT) {
+                return folded;
+            }
+            if (mSlotHashes.get(slot) != hash) {
+                continue;
+            }
+            if (isExactCaseEntry(entry)) {
+                if (compareKey(entry, text, start, end, true) == 0) {
+                    return entry;
+                }
+            } else if (folded == NOT_FOUND && compareKey(entry, text, start, end, false) == 0) {
+                folded = entry;
+            }
+        }
+    }
+
+    /**
+     * Find the entry for text[start, end).
+     * @param exactCase look up the "^"-prefixed exact-case key instead of the folded key
+     * @return the entry index, or {@link #NOT_FOUND}
+     */
+    public int indexOf(final CharSequence text, final int start, final int end,
+            final boolean exactCase) {
+        if (start >= end || mSlotMask < 0) {
+            return NOT_FOUND;
+        }
+        final long hash = hash(text, start, end);
+        for (int slot = slotFor(hash, mSlotMask); ; slot = (slot + 1) & mSlotMask) {
+            final int entry = mSlotEntries.get(slot);
+            if (entry == EMPTY_SLOT) {
+                return NOT_FOUND;
+            }
+            if (mSlotHashes.get(slot) == hash && isExactCaseEntry(entry) == exactCase
+                    && compareKey(entry, text, start, end, exactCase) == 0) {
+                return entry;
+            }
+        }
+    }
+
+    private static int slotFor(final long hash, final int mask) {
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private boolean isExactCaseEntry(final int index) {
+        final int base = index * RECORD_INTS;
+        return mTable.get(base + 1) > 1 && mPool.get(mTable.get(base)) == EXACT_CASE_PREFIX;
+    }
+
+    /**
+     * 64-bit FNV-1a hash of text[start, end) folded to lower case per char, as in
+     * {@link #keyFor}.
+     */
+    static long hash(final CharSequence text, final int start, final int end) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = start; i < end; i++) {
+            hash ^= Character.toLowerCase(text.charAt(i));
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Hash of a stored key, ignoring the ^ of an exact-case key.
+     */
+    private static long keyHash(final String key) {
+        final int start = key.length() > 1 && key.charAt(0) == EXACT_CASE_PREFIX ? 1 : 0;
+        return hash(key, start, key.length());
+    }
+
+    private int compareKey(final int index, final CharSequence text, final int start,
+            final int end, final boolean exactCase) {
+        final int base = index * RECORD_INTS;
+        final int keyOffset = mTable.get(base);
+        final int keyLength = mTable.get(base + 1);
+        final int prefixLength = exactCase ? 1 : 0;
+        final int queryLength = prefixLength + end - start;
+        final int common = Math.min(keyLength, queryLength);
+        for (int i = 0; i < common; i++) {
+            final char keyChar = mPool.get(keyOffset + i);
+            final char queryChar;
+            if (i < prefixLength) {
+                queryChar = EXACT_CASE_PREFIX;
+            } else if (exactCase) {
+                queryChar = text.charAt(start + i - prefixLength);
+            } else {
+                queryChar = Character.toLowerCase(text.charAt(start + i));
+            }
+            if (keyChar != queryChar) {
+                return keyChar - queryChar;
+            }
+        }
+        return keyLength - queryLength;
+    }
+
+    public String getKey(final int index) {
+        final int base = index * RECORD_INTS;
+        return poolString(mTable.get(base), mTable.get(base + 1));
+    }
+
+    /**
+     * @return the raw correct spelling (may start with ^ to force exact case)
+     */
+    public String getValue(final int index) {
+        final int base = index * RECORD_INTS;
+        return poolString(mTable.get(base + 2), mTable.get(base + 3));
+    }
+
+    public int getValueLength(final int index) {
+        return mTable.get(index * RECORD_INTS + 3);
+    }
+
+    public boolean isAlwaysOn(final int index) {
+        return (mTable.get(index * RECORD_INTS + 4) & FLAG_ALWAYS_ON) != 0;
+    }
+
+    /**
+     * @return the usage counter stored when the dictionary was compiled
+     */
+    public int getCounter(final int index) {
+        return mTable.get(index * RECORD_INTS + 5);
+    }
+
+    private String poolString(final int offset, final int length) {
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = mPool.get(offset + i);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Normalize a misspelling to its lookup key: exact-case keys keep their ^ prefix and case,
+     * all others are folded per char, matching {@link #indexOf}.
+     */
+    public static String keyFor(final String misspell) {
+        final String trimmed = misspell.trim();
+        if (trimmed.length() > 0 && trimmed.charAt(0) == EXACT_CASE_PREFIX) {
+            return trimmed;
+        }
+        final char[] chars = trimmed.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Collects entries and writes them out in the compiled format.
+     */
+    public static final class Builder {
+        private final Map<String, Integer> mIndexByKey = new HashMap<>();
+        private final List<String> mKeys = new ArrayList<>();
+        private final List<String> mValues = new ArrayList<>();
+        private final List<Integer> mFlags = new ArrayList<>();
+        private final List<Integer> mCounters = new ArrayList<>();
+
+        /**
+         * Add an entry. A later entry with the same key replaces an earlier one.
+         */
+        public Builder add(final String misspell, final String correct, final boolean alwaysOn,
+                final int counter) {
+            if (misspell == null || misspell.trim().isEmpty()) {
+                return this;
+            }
+            final String key = keyFor(misspell);
+            final String value = correct != null ? correct.trim() : "";
+            final int flags = alwaysOn ? FLAG_ALWAYS_ON : 0;
+            final Integer existing = mIndexByKey.get(key);
+            if (existing != null) {
+                mValues.set(existing, value);
+                mFlags.set(existing, flags);
+                mCounters.set(existing, counter);
+            } else {
+                mIndexByKey.put(key, mKeys.size());
+                mKeys.add(key);
+                mValues.add(value);
+                mFlags.add(flags);
+                mCounters.add(counter);
+            }
+            return this;
+        }
+
+        /**
+         * Write the dictionary to a temporary file next to the target and rename it into place,
+         * so a mapped copy of the previous version stays valid and readers never see a partial
+         * file.
+         */
+        public void writeTo(final File file, final long sourceGeneration,
+                final long sourceLength) throws IOException {
+            final ByteBuffer buffer = encode(sourceGeneration, sourceLength);
+            final File tempFile = new File(file.getPath() + ".tmp");
+            try (RandomAccessFile out = new RandomAccessFile(tempFile, "rw")) {
+                out.setLength(0);
+                out.write(buffer.array());
+                out.getFD().sync();
+            }
+            if (!tempFile.renameTo(file)) {
+                tempFile.delete();
+                throw new IOException("Failed to install replacement dictionary: " + file);
+            }
+        }
+
+        /**
+         * Compile the entries into a dictionary on the heap, for a handful of entries that are
+         * not worth a file.
+         */
+        public ReplacementDictionary build() {
+            try {
+                return parse(encode(0, 0), "in-memory");
+            } catch (IOException e) {
+                // encode() always produces a valid dictionary.
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private ByteBuffer encode(final long sourceGeneration, final long sourceLength) {
+            final int size = mKeys.size();
+            final List<Integer> order = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                order.add(i);
+            }
+            Collections.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(final Integer a, final Integer b) {
+                    return mKeys.get(a).compareTo(mKeys.get(b));
+                }
+            });
+            int poolLength = 0;
+            for (int i = 0; i < size; i++) {
+                poolLength += mKeys.get(i).length() + mValues.get(i).length();
+            }
+            int slotCount = 2;
+            while (slotCount < 2 * size) {
+                slotCount <<= 1;
+            }
+            final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + slotCount * 12
+                    + size * RECORD_INTS * 4 + poolLength * 2);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(poolLength)
+                    .putInt(slotCount).putInt(0).putLong(sourceGeneration).putLong(sourceLength);
+            writeSlots(buffer, order, slotCount);
+            final int poolStart = buffer.position() + size * RECORD_INTS * 4;
+            int poolOffset = 0;
+            for (int i = 0; i < size; i++) {
+                final int entry = order.get(i);
+                final String key = mKeys.get(entry);
+                final String value = mValues.get(entry);
+                buffer.putInt(poolOffset).putInt(key.length());
+                putChars(buffer, poolStart + poolOffset * 2, key);
+                poolOffset += key.length();
+                buffer.putInt(poolOffset).putInt(value.length());
+                putChars(buffer, poolStart + poolOffset * 2, value);
+                poolOffset += value.length();
+                buffer.putInt(mFlags.get(entry)).putInt(mCounters.get(entry));
+            }
+            buffer.rewind();
+            return buffer;
+        }
+
+        /**
+         * Write the hash and entry index of every slot; entries are numbered in sorted order.
+         */
+        private void writeSlots(final ByteBuffer buffer, final List<Integer> order,
+                final int slotCount) {
+            final long[] hashes = new long[slotCount];
+            final int[] entries = new int[slotCount];
+            Arrays.fill(entries, EMPTY_SLOT);
+            final int mask = slotCount - 1;
+            for (int i = 0; i < order.size(); i++) {
+                final long hash = keyHash(mKeys.get(order.get(i)));
+                int slot = slotFor(hash, mask);
+                while (entries[slot] != EMPTY_SLOT) {
+                    slot = (slot + 1) & mask;
+                }
+                hashes[slot] = hash;
+                entries[slot] = i;
+            }
+            for (int slot = 0; slot < slotCount; slot++) {
+                buffer.putLong(hashes[slot]);
+            }
+            for (int slot = 0; slot < slotCount; slot++) {
+                buffer.putInt(entries[slot]);
+            }
+        }
+
+        private static void putChars(final ByteBuffer buffer, final int position,
+                final String text) {
+            for (int i = 0; i < text.length(); i++) {
+                buffer.putChar(position + i * 2, text.charAt(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2025 Raimondas Rimkus
+ *
+ * This file is part of Simple Spellcheck, a derivative work based on
+ * Simple Keyboard (Copyright (C) 2025 Raimondas Rimkus and contributors)
+ * which is based on AOSP LatinIME (Copyright (C) 2008 The Android Open Source Project).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gkohn11.spellcheckkeyboard.latin.replacement;
+
+/**
+ * Read access to the entries of a replacement list by index, whether they sit in one
+ * {@link ReplacementDictionary} or in a dictionary with edits on top of it.
+ */
+public interface ReplacementLookup {
+    /**
+     * @return the entry for text[start, end), or {@link ReplacementDictionary#NOT_FOUND}
+     */
+    int find(CharSequence text, int start, int end);
+
+    /**
+     * @return the raw correct spelling (may start with ^ to force exact case)
+     */
+    String getValue(int index);
+
+    int getValueLength(int index);
+}
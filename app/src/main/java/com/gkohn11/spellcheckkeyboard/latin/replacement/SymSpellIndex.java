@@ -0,0 +1,480 @@
+/*
+ * Copyright (C) 2025 Raimondas Rimkus
+ *
+ * This file is part of Simple Spellcheck, a derivative work based on
+ * Simple Keyboard (Copyright (C) 2025 Raimondas Rimkus and contributors)
+ * which is based on AOSP LatinIME (Copyright (C) 2008 The Android Open Source Project).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gkohn11.spellcheckkeyboard.latin.replacement;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Symmetric-delete spelling index (SymSpell).
+ *
+ * Every known word is indexed under all strings obtainable by deleting up to
+ * {@link #MAX_EDIT_DISTANCE} characters from its prefix. A query generates the same deletes of
+ * the typed word and only verifies the words found under them, so finding all candidates within
+ * edit distance 2 never scans the word list.
+ *
+ * Deletes are never stored as strings: each one is reduced to its 64-bit hash, which keys an
+ * open-addressing table like the one of {@link ReplacementDictionary}. The ids under a delete
+ * form a linked list in two shared int arrays. Two deletes with the same hash share a list,
+ * which only adds candidates that verification rejects.
+ *
+ * Words can be added and removed one at a time, so an edit of the replacement list only touches
+ * the deletes of the words it changes. A removed word keeps its id and its postings and is
+ * skipped by lookups until it is added again. All methods are thread-safe.
+ */
+public final class SymSpellIndex {
+    public static final int MAX_EDIT_DISTANCE = 2;
+    // Only the first PREFIX_LENGTH chars are expanded into deletes; longer words still match
+    // through their prefix and are verified on the full word.
+    private static final int PREFIX_LENGTH = 7;
+    private static final int INITIAL_WORD_CAPACITY = 64;
+    private static final int INITIAL_POSTING_CAPACITY = 256;
+    // An empty slot, or the end of a posting list.
+    private static final int NONE = -1;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    // Words by id, folded to lower case, with their weight and the number of times they were
+    // added but not removed; a word whose count is 0 is not in the index.
+    private String[] mWords = new String[INITIAL_WORD_CAPACITY];
+    private int[] mWeights = new int[INITIAL_WORD_CAPACITY];
+    private int[] mRefCounts = new int[INITIAL_WORD_CAPACITY];
+    private int mWordCount;
+    // Number of words with a count above 0.
+    private int mLiveCount;
+    // Open-addressing table from a word's String#hashCode to its id.
+    private int[] mWordSlots = newSlots(2 * INITIAL_WORD_CAPACITY);
+    // Open-addressing table from the hash of a delete to the first posting under it.
+    private long[] mDeleteHashes = new long[2 * INITIAL_POSTING_CAPACITY];
+    private int[] mDeleteHeads = newSlots(2 * INITIAL_POSTING_CAPACITY);
+    private int mDeleteCount;
+    // Postings: the word id and the next posting under the same delete.
+    private int[] mPostingIds = new int[INITIAL_POSTING_CAPACITY];
+    private int[] mPostingNext = new int[INITIAL_POSTING_CAPACITY];
+    private int mPostingCount;
+
+    /**
+     * A candidate correction for a typed word. Instances in {@link Results} are reused by the
+     * next lookup; read their fields only.
+     */
+    public static final class Suggestion {
+        public String mWord;
+        public int mDistance;
+        // Keyboard-weighted cost in half-edits (see EditDistance#computeWeighted); twice the
+        // distance when no touch history was available.
+        public int mCost;
+        public int mWeight;
+
+        void set(final String word, final int distance, final int cost, final int weight) {
+            mWord = word;
+            mDistance = distance;
+            mCost = cost;
+            mWeight = weight;
+        }
+    }
+
+    /**
+     * Candidates found by {@link #lookup(String, int, int, TouchHistory, Results)}, best first,
+     * and the scratch the lookup needs. Callers keep one instance and reuse it for every lookup
+     * on one thread, so a lookup allocates no result list, candidates, deletes or boxed ids.
+     */
+    public static final class Results {
+        // The kept candidates, best first, then one spare for the candidate being ranked.
+        private Suggestion[] mSuggestions = new Suggestion[0];
+        private int mSize;
+        // Lookup in which each word id was last verified, so no id is verified twice.
+        private int[] mCheckedIn = new int[0];
+        private int mLookup;
+        // Edit distance rows, grown to the longest candidate verified so far.
+        private final int[][] mRows = new int[3][0];
+
+        public int size() {
+            return mSize;
+        }
+
+        public Suggestion get(final int index) {
+            if (index >= mSize) {
+                throw new IndexOutOfBoundsException(index + " >= " + mSize);
+            }
+            return mSuggestions[index];
+        }
+
+        /**
+         * Reorder the candidates, e.g. by usage. Allocates nothing for the few candidates a
+         * lookup keeps.
+         */
+        public void sort(final Comparator<Suggestion> comparator) {
+            Arrays.sort(mSuggestions, 0, mSize, comparator);
+        }
+
+        private void start(final int maxResults, final int wordCount) {
+            mSize = 0;
+            if (mSuggestions.length < maxResults + 1) {
+                final int oldLength = mSuggestions.length;
+                mSuggestions = Arrays.copyOf(mSuggestions, maxResults + 1);
+                for (int i = oldLength; i < mSuggestions.length; i++) {
+                    mSuggestions[i] = new Suggestion();
+                }
+            }
+            if (mCheckedIn.length < wordCount) {
+                mCheckedIn = new int[wordCount];
+                mLookup = 0;
+            }
+            if (++mLookup == Integer.MAX_VALUE) {
+                Arrays.fill(mCheckedIn, 0);
+                mLookup = 1;
+            }
+        }
+
+        /**
+         * @return the edit distance rows, at least length + 1 ints each
+         */
+        private int[][] rows(final int length) {
+            if (mRows[0].length < length + 1) {
+                for (int i = 0; i < mRows.length; i++) {
+                    mRows[i] = new int[length + 1];
+                }
+            }
+            return mRows;
+        }
+
+        /**
+         * @return false if the id was already verified in this lookup
+         */
+        private boolean check(final int id) {
+            if (mCheckedIn[id] == mLookup) {
+                return false;
+            }
+            mCheckedIn[id] = mLookup;
+            return true;
+        }
+
+        /**
+         * Keep a candidate if it ranks among the best maxResults so far.
+         */
+        private void offer(final String word, final int distance, final int cost,
+                final int weight, final int maxResults) {
+            final Suggestion candidate = mSuggestions[mSize];
+            candidate.set(word, distance, cost, weight);
+            int position = mSize;
+            while (position > 0 && RANKING.compare(mSuggestions[position - 1], candidate) > 0) {
+                mSuggestions[position] = mSuggestions[position - 1];
+                position--;
+            }
+            mSuggestions[position] = candidate;
+            if (mSize < maxResults) {
+                mSize++;
+            }
+        }
+    }
+
+    private static final Comparator<Suggestion> RANKING = new Comparator<Suggestion>() {
+        @Override
+        public int compare(final Suggestion a, final Suggestion b) {
+            if (a.mCost != b.mCost) {
+                return Integer.compare(a.mCost, b.mCost);
+            }
+            return Integer.compare(b.mWeight, a.mWeight);
+        }
+    };
+
+    private static int[] newSlots(final int count) {
+        final int[] slots = new int[count];
+        Arrays.fill(slots, NONE);
+        return slots;
+    }
+
+    /**
+     * Add a word (case-folded) to the index. Adding a word that is already in the index keeps
+     * the higher weight and counts the word once more, so it takes as many {@link #remove}
+     * calls to drop it.
+     * @param weight ranking weight among candidates at the same distance; higher is better
+     */
+    public synchronized void add(final String word, final int weight) {
+        if (word == null || word.isEmpty()) {
+            return;
+        }
+        final String folded = word.toLowerCase();
+        final int existing = findWord(folded);
+        if (existing != NONE) {
+            if (mRefCounts[existing] == 0) {
+                mWeights[existing] = weight;
+                mLiveCount++;
+            } else if (weight > mWeights[existing]) {
+                mWeights[existing] = weight;
+            }
+            mRefCounts[existing]++;
+            return;
+        }
+        final int id = addWord(folded, weight);
+        final int prefixLength = Math.min(folded.length(), PREFIX_LENGTH);
+        addPosting(hashDelete(folded, prefixLength, -1, -1), id);
+        for (int i = 0; i < prefixLength && prefixLength >= 2; i++) {
+            addPosting(hashDelete(folded, prefixLength, i, -1), id);
+            for (int j = i + 1; j < prefixLength && prefixLength >= 3; j++) {
+                addPosting(hashDelete(folded, prefixLength, i, j), id);
+            }
+        }
+    }
+
+    /**
+     * Take back one {@link #add} of a word; the word is dropped once every add is taken back.
+     * Removing a word that is not in the index does nothing.
+     */
+    public synchronized void remove(final String word) {
+        if (word == null || word.isEmpty()) {
+            return;
+        }
+        final int id = findWord(word.toLowerCase());
+        if (id != NONE && mRefCounts[id] > 0 && --mRefCounts[id] == 0) {
+            mLiveCount--;
+        }
+    }
+
+    private int findWord(final String folded) {
+        final int mask = mWordSlots.length - 1;
+        for (int slot = folded.hashCode() & mask; ; slot = (slot + 1) & mask) {
+            final int id = mWordSlots[slot];
+            if (id == NONE || mWords[id].equals(folded)) {
+                return id;
+            }
+        }
+    }
+
+    private int addWord(final String folded, final int weight) {
+        if (mWordCount == mWords.length) {
+            final int capacity = mWordCount * 2;
+            mWords = Arrays.copyOf(mWords, capacity);
+            mWeights = Arrays.copyOf(mWeights, capacity);
+            mRefCounts = Arrays.copyOf(mRefCounts, capacity);
+            mWordSlots = newSlots(2 * capacity);
+            for (int id = 0; id < mWordCount; id++) {
+                insertWordSlot(id);
+            }
+        }
+        final int id = mWordCount++;
+        mWords[id] = folded;
+        mWeights[id] = weight;
+        mRefCounts[id] = 1;
+        mLiveCount++;
+        insertWordSlot(id);
+        return id;
+    }
+
+    private void insertWordSlot(final int id) {
+        final int mask = mWordSlots.length - 1;
+        int slot = mWords[id].hashCode() & mask;
+        while (mWordSlots[slot] != NONE) {
+            slot = (slot + 1) & mask;
+        }
+        mWordSlots[slot] = id;
+    }
+
+    /**
+     * Put a word id under a delete, unless it is there already: the deletes of one word are
+     * added one after the other, so an earlier posting of it is always at the head.
+     */
+    private void addPosting(final long hash, final int id) {
+        if (2 * (mDeleteCount + 1) > mDeleteHeads.length) {
+            growDeletes();
+        }
+        final int slot = findDeleteSlot(mDeleteHashes, mDeleteHeads, hash);
+        final int head = mDeleteHeads[slot];
+        if (head == NONE) {
+            mDeleteHashes[slot] = hash;
+            mDeleteCount++;
+        } else if (mPostingIds[head] == id) {
+            return;
+        }
+        if (mPostingCount == mPostingIds.length) {
+            mPostingIds = Arrays.copyOf(mPostingIds, mPostingCount * 2);
+            mPostingNext = Arrays.copyOf(mPostingNext, mPostingCount * 2);
+        }
+        mPostingIds[mPostingCount] = id;
+        mPostingNext[mPostingCount] = head;
+        mDeleteHeads[slot] = mPostingCount++;
+    }
+
+    private void growDeletes() {
+        final long[] hashes = new long[mDeleteHashes.length * 2];
+        final int[] heads = newSlots(mDeleteHeads.length * 2);
+        for (int slot = 0; slot < mDeleteHeads.length; slot++) {
+            if (mDeleteHeads[slot] != NONE) {
+                final int target = findDeleteSlot(hashes, heads, mDeleteHashes[slot]);
+                hashes[target] = mDeleteHashes[slot];
+                heads[target] = mDeleteHeads[slot];
+            }
+        }
+        mDeleteHashes = hashes;
+        mDeleteHeads = heads;
+    }
+
+    /**
+     * @return the slot of hash, or the empty slot where it goes
+     */
+    private static int findDeleteSlot(final long[] hashes, final int[] heads, final long hash) {
+        final int mask = heads.length - 1;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while (heads[slot] != NONE && hashes[slot] != hash) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * 64-bit FNV-1a hash of word[0, length) without the chars at skip1 and skip2 (-1 for none).
+     */
+    private static long hashDelete(final String word, final int length, final int skip1,
+            final int skip2) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < length; i++) {
+            if (i != skip1 && i != skip2) {
+                hash ^= word.charAt(i);
+                hash *= FNV_PRIME;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Release the spare capacity left by building; call once after the last {@link #add} of a
+     * build. Adding more words afterwards still works.
+     */
+    public synchronized void trimToSize() {
+        mPostingIds = Arrays.copyOf(mPostingIds, Math.max(mPostingCount, 1));
+        mPostingNext = Arrays.copyOf(mPostingNext, Math.max(mPostingCount, 1));
+    }
+
+    public synchronized int size() {
+        return mLiveCount;
+    }
+
+    public synchronized boolean contains(final String word) {
+        if (word == null || word.isEmpty()) {
+            return false;
+        }
+        final int id = findWord(word.toLowerCase());
+        return id != NONE && mRefCounts[id] > 0;
+    }
+
+    /**
+     * Find known words within maxDistance edits of the typed word, best first.
+     * @return candidates sorted by edit distance, then weight; the word itself has distance 0
+     */
+    public List<Suggestion> lookup(final String word, final int maxDistance,
+            final int maxResults) {
+        return lookup(word, maxDistance, maxResults, null);
+    }
+
+    /**
+     * Find known words within maxDistance edits of the typed word, ranked by keyboard proximity.
+     * @return candidates sorted by weighted cost, then weight
+     * @see #lookup(String, int, int, TouchHistory, Results)
+     */
+    public List<Suggestion> lookup(final String word, final int maxDistance,
+            final int maxResults, final TouchHistory history) {
+        final Results results = new Results();
+        lookup(word, maxDistance, maxResults, history, results);
+        final List<Suggestion> suggestions = new ArrayList<>(results.size());
+        for (int i = 0; i < results.size(); i++) {
+            suggestions.add(results.get(i));
+        }
+        return suggestions;
+    }
+
+    /**
+     * Find known words within maxDistance edits of the typed word, ranked by keyboard proximity.
+     *
+     * When history matches the word, substituting a key next to the one that was touched costs
+     * half an edit, and candidates at the maximum distance of 2 are only kept if at least one of
+     * their edits is such a near-key substitution.
+     * @param history touch geometry of the typed word, or null to rank by plain edit distance
+     * @param results receives at most maxResults candidates sorted by weighted cost, then
+     *        weight; replaces those of the previous lookup
+     * @return the number of candidates found
+     */
+    public synchronized int lookup(final String word, final int maxDistance,
+            final int maxResults, final TouchHistory history, final Results results) {
+        results.start(Math.max(maxResults, 0), mWordCount);
+        if (word == null || word.isEmpty() || maxResults <= 0) {
+            return 0;
+        }
+        final String folded = word.toLowerCase();
+        final int distanceLimit = Math.min(maxDistance, MAX_EDIT_DISTANCE);
+        final boolean useGeometry = history != null && history.matches(folded);
+        // Two full edits are only plausible if one of them was a near miss.
+        final int costLimit = distanceLimit < MAX_EDIT_DISTANCE
+                ? distanceLimit * EditDistance.EDIT_COST
+                : distanceLimit * EditDistance.EDIT_COST - EditDistance.NEAR_SUBSTITUTION_COST;
+        final int prefixLength = Math.min(folded.length(), PREFIX_LENGTH);
+        // The same deletes as add() generates, up to distanceLimit of them. A delete that comes
+        // up twice only walks its postings again; check() skips the ids.
+        verify(hashDelete(folded, prefixLength, -1, -1), folded, distanceLimit, useGeometry,
+                history, costLimit, maxResults, results);
+        for (int i = 0; i < prefixLength && distanceLimit >= 1 && prefixLength >= 2; i++) {
+            verify(hashDelete(folded, prefixLength, i, -1), folded, distanceLimit, useGeometry,
+                    history, costLimit, maxResults, results);
+            for (int j = i + 1; j < prefixLength && distanceLimit >= 2 && prefixLength >= 3;
+                    j++) {
+                verify(hashDelete(folded, prefixLength, i, j), folded, distanceLimit,
+                        useGeometry, history, costLimit, maxResults, results);
+            }
+        }
+        return results.size();
+    }
+
+    /**
+     * Verify the words under one delete of the typed word and offer those close enough.
+     */
+    private void verify(final long hash, final String folded, final int distanceLimit,
+            final boolean useGeometry, final TouchHistory history, final int costLimit,
+            final int maxResults, final Results results) {
+        final int slot = findDeleteSlot(mDeleteHashes, mDeleteHeads, hash);
+        for (int posting = mDeleteHeads[slot]; posting != NONE;
+                posting = mPostingNext[posting]) {
+            final int id = mPostingIds[posting];
+            if (mRefCounts[id] == 0 || !results.check(id)) {
+                continue;
+            }
+            final String candidate = mWords[id];
+            if (Math.abs(candidate.length() - folded.length()) > distanceLimit) {
+                continue;
+            }
+            final int[][] rows = results.rows(candidate.length());
+            final int distance = EditDistance.compute(folded, candidate, distanceLimit, rows);
+            if (distance > distanceLimit) {
+                continue;
+            }
+            if (!useGeometry) {
+                results.offer(candidate, distance, distance * EditDistance.EDIT_COST,
+                        mWeights[id], maxResults);
+                continue;
+            }
+            final int cost = EditDistance.computeWeighted(folded, candidate, history, costLimit,
+                    rows);
+            if (cost <= costLimit) {
+                results.offer(candidate, distance, cost, mWeights[id], maxResults);
+            }
+        }
+    }
+}
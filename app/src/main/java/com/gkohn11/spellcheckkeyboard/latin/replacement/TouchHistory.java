@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2025 Raimondas Rimkus
+ *
+ * This file is part of Simple Spellcheck, a derivative work based on
+ * Simple Keyboard (Copyright (C) 2025 Raimondas Rimkus and contributors)
+ * which is based on AOSP LatinIME (Copyright (C) 2008 The Android Open Source Project).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gkohn11.spellcheckkeyboard.latin.replacement;
+
+/**
+ * Touch geometry of the taps that produced the word being typed: for each tap, the code that
+ * was input, the touch coordinates and the codes of the keys around the touch point.
+ *
+ * All storage is preallocated, so recording a tap never allocates. Taps beyond
+ * {@link #MAX_WORD_LENGTH} are not recorded and the history then no longer matches the word.
+ */
+public final class TouchHistory {
+    public static final int MAX_WORD_LENGTH = 48;
+    public static final int MAX_NEIGHBORS = 16;
+
+    private final int[] mCodes = new int[MAX_WORD_LENGTH];
+    private final int[] mXCoordinates = new int[MAX_WORD_LENGTH];
+    private final int[] mYCoordinates = new int[MAX_WORD_LENGTH];
+    private final int[] mNeighborCodes = new int[MAX_WORD_LENGTH * MAX_NEIGHBORS];
+    private final int[] mNeighborCounts = new int[MAX_WORD_LENGTH];
+    private int mSize;
+    private boolean mOverflowed;
+
+    public void reset() {
+        mSize = 0;
+        mOverflowed = false;
+    }
+
+    /**
+     * Record a tap.
+     * @param neighborCodes codes of the keys near the touch point (the hit key may be included)
+     * @param neighborCount number of valid entries in neighborCodes
+     */
+    public void add(final int code, final int x, final int y, final int[] neighborCodes,
+            final int neighborCount) {
+        if (mSize >= MAX_WORD_LENGTH) {
+            mOverflowed = true;
+            return;
+        }
+        mCodes[mSize] = Character.toLowerCase(code);
+        mXCoordinates[mSize] = x;
+        mYCoordinates[mSize] = y;
+        final int count = Math.min(neighborCount, MAX_NEIGHBORS);
+        final int base = mSize * MAX_NEIGHBORS;
+        for (int i = 0; i < count; i++) {
+            mNeighborCodes[base + i] = Character.toLowerCase(neighborCodes[i]);
+        }
+        mNeighborCounts[mSize] = count;
+        mSize++;
+    }
+
+    /**
+     * Forget the last tap (backspace).
+     */
+    public void removeLast() {
+        if (mOverflowed) {
+            // We no longer know which taps belong to the word.
+            reset();
+            mOverflowed = true;
+            return;
+        }
+        if (mSize > 0) {
+            mSize--;
+        }
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public int getX(final int index) {
+        return mXCoordinates[index];
+    }
+
+    public int getY(final int index) {
+        return mYCoordinates[index];
+    }
+
+    /**
+     * Whether the recorded taps produced exactly this word (ignoring case). Geometry is only
+     * trusted when this holds; the cursor may have moved or text may have been pasted.
+     */
+    public boolean matches(final CharSequence word) {
+        if (mOverflowed || word == null || word.length() != mSize) {
+            return false;
+        }
+        for (int i = 0; i < mSize; i++) {
+            if (Character.toLowerCase(word.charAt(i)) != mCodes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether the key for code c was near the touch point of the tap at index.
+     */
+    public boolean isNeighbor(final int index, final int c) {
+        if (index < 0 || index >= mSize) {
+            return false;
+        }
+        final int folded = Character.toLowerCase(c);
+        final int base = index * MAX_NEIGHBORS;
+        final int end = base + mNeighborCounts[index];
+        for (int i = base; i < end; i++) {
+            if (mNeighborCodes[i] == folded) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
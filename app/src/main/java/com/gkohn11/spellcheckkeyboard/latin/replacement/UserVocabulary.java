@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2025 Raimondas Rimkus
+ *
+ * This file is part of Simple Spellcheck, a derivative work based on
+ * Simple Keyboard (Copyright (C) 2025 Raimondas Rimkus and contributors)
+ * which is based on AOSP LatinIME (Copyright (C) 2008 The Android Open Source Project).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gkohn11.spellcheckkeyboard.latin.replacement;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded store of the words the user types, learned as they are committed.
+ *
+ * Each word has a score that grows by one every time it is typed and decays exponentially with
+ * the configured half-life, so words that are no longer used fade out. Only the score and the
+ * time it was last updated are stored; decay is applied when the score is read or bumped. When
+ * the store is full, the word learned least recently is evicted.
+ *
+ * All methods are thread-safe. {@link #writeTo} encodes the words under the lock but writes the
+ * file outside it, so a checkpoint on a background thread doesn't hold up learning.
+ */
+public final class UserVocabulary {
+    private static final int MAGIC = 0x53555631; // "SUV1"
+    private static final int VERSION = 1;
+
+    private static final class Entry {
+        float mScore;
+        long mTime;
+    }
+
+    private final int mCapacity;
+    private final long mHalfLifeMillis;
+    // Folded word to entry, least recently learned first.
+    private LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>();
+    // Whether there are changes since the last checkpoint.
+    private boolean mDirty;
+
+    /**
+     * @param capacity the largest number of words kept
+     * @param halfLifeMillis time after which an unused word's score has halved
+     */
+    public UserVocabulary(final int capacity, final long halfLifeMillis) {
+        mCapacity = capacity;
+        mHalfLifeMillis = halfLifeMillis;
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Record that the user typed a word, unless it has an entry in the replacement list: a
+     * misspelling on the list stays one however often it is typed, whether or not the user
+     * then takes its correction.
+     * @return whether the word was learned
+     */
+    public boolean learnUnlessListed(final ReplacementLookup entries, final String word,
+            final long now) {
+        if (entries.find(word, 0, word.length()) != ReplacementDictionary.NOT_FOUND) {
+            return false;
+        }
+        learn(word, now);
+        return true;
+    }
+
+    /**
+     * Record that the user typed a word.
+     */
+    public synchronized void learn(final String word, final long now) {
+        final String key = word.toLowerCase();
+        Entry entry = mEntries.remove(key);
+        if (entry == null) {
+            entry = new Entry();
+            evictTo(mCapacity - 1);
+        } else {
+            entry.mScore = decayedScore(entry, now);
+        }
+        entry.mScore += 1;
+        entry.mTime = now;
+        // Re-inserting moves the word to the most recently learned end.
+        mEntries.put(key, entry);
+        mDirty = true;
+    }
+
+    /**
+     * @return the decayed score of a word, or 0 if it was never learned or has been evicted
+     */
+    public synchronized float getScore(final String word, final long now) {
+        final Entry entry = mEntries.get(word.toLowerCase());
+        return entry == null ? 0 : decayedScore(entry, now);
+    }
+
+    private float decayedScore(final Entry entry, final long now) {
+        final long age = Math.max(0, now - entry.mTime);
+        return (float) (entry.mScore * Math.pow(0.5, (double) age / mHalfLifeMillis));
+    }
+
+    private void evictTo(final int size) {
+        final Iterator<Entry> iterator = mEntries.values().iterator();
+        while (mEntries.size() > size && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Add the words of a checkpoint written by {@link #writeTo}. Words learned since then keep
+     * their current score and stay more recent than the loaded ones.
+     * @return false if there is no checkpoint
+     * @throws IOException if the checkpoint can't be read or is not valid
+     */
+    public boolean readFrom(final File file) throws IOException {
+        if (!file.exists()) {
+            return false;
+        }
+        final LinkedHashMap<String, Entry> loaded = new LinkedHashMap<>();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a user vocabulary: " + file);
+            }
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                final Entry entry = new Entry();
+                final String key = in.readUTF();
+                entry.mScore = in.readFloat();
+                entry.mTime = in.readLong();
+                loaded.put(key, entry);
+            }
+        }
+        synchronized (this) {
+            for (final Map.Entry<String, Entry> learned : mEntries.entrySet()) {
+                loaded.remove(learned.getKey());
+                loaded.put(learned.getKey(), learned.getValue());
+            }
+            mEntries = loaded;
+            evictTo(mCapacity);
+        }
+        return true;
+    }
+
+    /**
+     * Write a checkpoint if anything changed since the last one, to a temporary file that is
+     * then renamed into place.
+     * @return whether a checkpoint was written
+     */
+    public boolean writeTo(final File file) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        synchronized (this) {
+            if (!mDirty) {
+                return false;
+            }
+            final DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(mEntries.size());
+            for (final Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeFloat(entry.getValue().mScore);
+                out.writeLong(entry.getValue().mTime);
+            }
+            out.flush();
+            mDirty = false;
+        }
+        final File tempFile = new File(file.getPath() + ".tmp");
+        try {
+            try (FileOutputStream out = new FileOutputStream(tempFile)) {
+                bytes.writeTo(out);
+                out.getFD().sync();
+            }
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Failed to install user vocabulary: " + file);
+            }
+        } catch (IOException e) {
+            tempFile.delete();
+            synchronized (this) {
+                mDirty = true;
+            }
+            throw e;
+        }
+        return true;
+    }
+}
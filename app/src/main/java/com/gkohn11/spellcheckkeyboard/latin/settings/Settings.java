@@ -80,6 +80,10 @@ public final class Settings extends BroadcastReceiver implements SharedPreferenc
 
     private static final Settings sInstance = new Settings();
 
+    // Bumped on every preference or keyboard theme change, so views that derive their colors
+    // from the theme can tell when to read them again. Only written on the UI thread.
+    private static volatile int sThemeGeneration;
+
     public static Settings getInstance() {
         return sInstance;
     }
@@ -88,6 +92,17 @@ public final class Settings extends BroadcastReceiver implements SharedPreferenc
         sInstance.onCreate(context);
     }
 
+    /**
+     * @return a number that changes whenever the keyboard color or theme may have changed
+     */
+    public static int getThemeGeneration() {
+        return sThemeGeneration;
+    }
+
+    public static void onThemeChanged() {
+        sThemeGeneration++;
+    }
+
     private Settings() {
         // Intentional empty constructor for singleton.
     }
@@ -109,6 +124,7 @@ public final class Settings extends BroadcastReceiver implements SharedPreferenc
 
     @Override
     public void onSharedPreferenceChanged(final SharedPreferences prefs, final String key) {
+        onThemeChanged();
         mSettingsValuesLock.lock();
         try {
             if (mSettingsValues == null) {
@@ -24,13 +24,17 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
 import android.text.Editable;
+import android.text.TextUtils;
 import android.text.TextWatcher;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.PopupMenu;
+import android.widget.ProgressBar;
 import android.view.WindowManager;
 import android.widget.Button;
 import android.widget.EditText;
@@ -44,20 +48,23 @@ import androidx.core.content.FileProvider;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import com.gkohn11.spellcheckkeyboard.R;
+import com.gkohn11.spellcheckkeyboard.latin.RichInputMethodManager;
+import com.gkohn11.spellcheckkeyboard.latin.Subtype;
 
 /**
  * Activity for managing text replacement entries.
@@ -66,6 +73,8 @@ public class TextReplacementActivity extends AppCompatActivity {
     private static final String TAG = "TextReplacementActivity";
     private static final int REQUEST_CODE_PICK_CSV = 1001;
     private static final String PREFS_COUNTER_VISIBLE = "text_replacement_counter_visible";
+    // Share of an import's progress bar taken by reading and parsing; the rest is saving
+    private static final int IMPORT_READ_PERCENT = 50;
     private RecyclerView recyclerView;
     private TextReplacementAdapter adapter;
     private List<TextReplacementEntry> entries;
@@ -73,6 +82,12 @@ public class TextReplacementActivity extends AppCompatActivity {
     private String currentSearchTerm = "";
     private int currentMatchIndex = -1;
     private java.util.List<Integer> matchPositions = new java.util.ArrayList<>();
+    // Import, export and saves run here, one at a time
+    private final ExecutorService transferThread = Executors.newSingleThreadExecutor();
+    private CancellationSignal transferSignal;
+    private AlertDialog transferDialog;
+    // Language of the list being edited, or null for the shared list
+    private String listLanguage;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -174,12 +189,14 @@ public class TextReplacementActivity extends AppCompatActivity {
     private static final int MENU_COUNTER_OFF = 2;
     private static final int MENU_DELETE_UNUSED = 3;
     private static final int MENU_DELETE_ALL = 4;
+    private static final int MENU_LANGUAGE = 5;
 
     /**
-     * Show popup menu when 3-dots is pressed: Clear counter, Turn off counter, Delete unused, Delete selected, Delete all.
+     * Show popup menu when 3-dots is pressed: Language, Clear counter, Turn off counter, Delete unused, Delete selected, Delete all.
      */
     private void showHeaderMenu(View anchor) {
         PopupMenu popup = new PopupMenu(this, anchor);
+        popup.getMenu().add(0, MENU_LANGUAGE, 0, getString(R.string.tr_menu_language));
         popup.getMenu().add(0, MENU_CLEAR_COUNTER, 0, getString(R.string.tr_menu_clear_counter));
         boolean counterVisible = getCounterVisiblePreference();
         popup.getMenu().add(0, MENU_COUNTER_OFF, 0, counterVisible ? getString(R.string.tr_menu_turn_off_counter) : getString(R.string.tr_menu_turn_on_counter));
@@ -213,12 +230,131 @@ public class TextReplacementActivity extends AppCompatActivity {
                     showDeleteAllConfirmationDialog();
                     return true;
                 }
+                if (item.getItemId() == MENU_LANGUAGE) {
+                    showLanguageDialog();
+                    return true;
+                }
                 return false;
             }
         });
         popup.show();
     }
 
+    /**
+     * Let the user pick the list to edit: the shared list, or the list of one of the
+     * keyboard's languages. A language without a list of its own can get one, starting as a
+     * copy of the shared list; the keyboard then uses it for that language.
+     */
+    private void showLanguageDialog() {
+        RichInputMethodManager.init(this);
+        final Set<String> languageSet = new LinkedHashSet<>();
+        for (Subtype subtype : RichInputMethodManager.getInstance().getEnabledSubtypes(true)) {
+            String language = subtype.getLocaleObject().getLanguage();
+            if (!language.isEmpty()) {
+                languageSet.add(language);
+            }
+        }
+        final List<String> languages = new ArrayList<>(languageSet);
+        String[] names = new String[languages.size() + 1];
+        names[0] = getString(R.string.tr_language_shared);
+        int checked = 0;
+        for (int i = 0; i < languages.size(); i++) {
+            names[i + 1] = getLanguageName(languages.get(i));
+            if (languages.get(i).equals(listLanguage)) {
+                checked = i + 1;
+            }
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.tr_language_title)
+                .setSingleChoiceItems(names, checked, (dialog, which) -> {
+                    dialog.dismiss();
+                    selectLanguage(which == 0 ? null : languages.get(which - 1));
+                })
+                .setNegativeButton(R.string.tr_cancel, null)
+                .show();
+    }
+
+    /**
+     * Edit the list of a language, offering to create it first if it doesn't exist.
+     */
+    private void selectLanguage(final String language) {
+        if (language == null ? listLanguage == null : language.equals(listLanguage)) {
+            return;
+        }
+        // Changes to the current list are saved before the other list is read
+        saveData();
+        transferThread.execute(() -> {
+            final boolean exists = language == null
+                    || TextReplacementCsvManager.hasLanguageList(this, language);
+            runOnUiThread(() -> {
+                if (isDestroyed()) {
+                    return;
+                }
+                if (exists) {
+                    showList(language);
+                    return;
+                }
+                new AlertDialog.Builder(this)
+                        .setTitle(R.string.tr_language_title)
+                        .setMessage(getString(R.string.tr_create_language_list_message,
+                                getLanguageName(language)))
+                        .setPositiveButton(R.string.tr_create_btn, (dialog, which) -> {
+                            createLanguageList(language);
+                        })
+                        .setNegativeButton(R.string.tr_cancel, null)
+                        .show();
+            });
+        });
+    }
+
+    /**
+     * Create the list of a language from a copy of the shared list, then edit it.
+     */
+    private void createLanguageList(final String language) {
+        transferThread.execute(() -> {
+            boolean created;
+            try {
+                TextReplacementManager.getInstance(this).compactJournals();
+                created = TextReplacementCsvManager.saveCsvToStorage(this, language,
+                        TextReplacementCsvManager.loadCsvFromStorage(this), null, null);
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to create list for " + language, e);
+                created = false;
+            }
+            if (created) {
+                // The keyboard switches to the new list if it is using that language
+                TextReplacementManager.getInstance(this).reload(language);
+            }
+            final boolean succeeded = created;
+            runOnUiThread(() -> {
+                if (isDestroyed()) {
+                    return;
+                }
+                if (succeeded) {
+                    showList(language);
+                } else {
+                    Toast.makeText(this, R.string.tr_failed_save, Toast.LENGTH_SHORT).show();
+                }
+            });
+        });
+    }
+
+    private void showList(String language) {
+        listLanguage = language;
+        ActionBar actionBar = getSupportActionBar();
+        if (actionBar != null) {
+            actionBar.setSubtitle(language == null ? null : getLanguageName(language));
+        }
+        loadData();
+    }
+
+    private static String getLanguageName(String language) {
+        Locale locale = new Locale(language);
+        String name = locale.getDisplayLanguage(locale);
+        return name.isEmpty() ? language
+                : name.substring(0, 1).toUpperCase(locale) + name.substring(1);
+    }
+
     private boolean getCounterVisiblePreference() {
         SharedPreferences prefs = getSharedPreferences("TextReplacementActivity", MODE_PRIVATE);
         return prefs.getBoolean(PREFS_COUNTER_VISIBLE, true);
@@ -263,39 +399,66 @@ public class TextReplacementActivity extends AppCompatActivity {
         saveData();
     }
 
+    @Override
+    protected void onDestroy() {
+        // A cancelled import leaves the stored list untouched; pending saves still run
+        if (transferSignal != null) {
+            transferSignal.cancel();
+            transferSignal = null;
+        }
+        if (transferDialog != null) {
+            transferDialog.dismiss();
+            transferDialog = null;
+        }
+        transferThread.shutdown();
+        super.onDestroy();
+    }
+
     /**
-     * Load data from CSV file and sort by counter (most used first).
+     * Load data from CSV file and sort by counter (most used first). Pending keyboard edits are
+     * folded into the CSV and the file is read on the transfer thread, after any save queued
+     * before; the list is shown once it is loaded.
      */
     private void loadData() {
-        try {
-            // Initialize default CSV if needed
-            TextReplacementCsvManager.initializeDefaultCsv(this);
-            
-            // Load from storage
-            entries = TextReplacementCsvManager.loadCsvFromStorage(this);
-            
-            // Sort by counter descending (most used first)
-            Collections.sort(entries, new Comparator<TextReplacementEntry>() {
-                @Override
-                public int compare(TextReplacementEntry a, TextReplacementEntry b) {
-                    int ca = a != null ? a.getCounter() : 0;
-                    int cb = b != null ? b.getCounter() : 0;
-                    return Integer.compare(cb, ca); // descending
+        final String language = listLanguage;
+        transferThread.execute(() -> {
+            List<TextReplacementEntry> loaded;
+            try {
+                // Initialize default CSV if needed
+                TextReplacementCsvManager.initializeDefaultCsv(this, language);
+
+                // Fold pending edits and counter increments from the keyboard into the CSV so it is current
+                TextReplacementManager.getInstance(this).compactJournals(language);
+
+                // Load from storage
+                loaded = TextReplacementCsvManager.loadCsvFromStorage(this, language);
+
+                // Sort by counter descending (most used first)
+                Collections.sort(loaded, new Comparator<TextReplacementEntry>() {
+                    @Override
+                    public int compare(TextReplacementEntry a, TextReplacementEntry b) {
+                        int ca = a != null ? a.getCounter() : 0;
+                        int cb = b != null ? b.getCounter() : 0;
+                        return Integer.compare(cb, ca); // descending
+                    }
+                });
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to load data", e);
+                // Create empty list on error
+                loaded = new ArrayList<>();
+            }
+            final List<TextReplacementEntry> result = loaded;
+            runOnUiThread(() -> {
+                if (isDestroyed() || !TextUtils.equals(language, listLanguage)) {
+                    return;
                 }
+                // Setup adapter
+                entries = result;
+                adapter = new TextReplacementAdapter(entries);
+                adapter.setCounterVisible(getCounterVisiblePreference());
+                recyclerView.setAdapter(adapter);
             });
-            
-            // Setup adapter
-            adapter = new TextReplacementAdapter(entries);
-            adapter.setCounterVisible(getCounterVisiblePreference());
-            recyclerView.setAdapter(adapter);
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to load data", e);
-            // Create empty list on error
-            entries = new java.util.ArrayList<>();
-            adapter = new TextReplacementAdapter(entries);
-            adapter.setCounterVisible(getCounterVisiblePreference());
-            recyclerView.setAdapter(adapter);
-        }
+        });
     }
 
     /**
@@ -303,15 +466,21 @@ public class TextReplacementActivity extends AppCompatActivity {
      */
     private void saveData() {
         if (adapter != null && adapter.hasDataChanged()) {
-            try {
-                List<TextReplacementEntry> currentEntries = adapter.getEntries();
-                TextReplacementCsvManager.saveCsvToStorage(this, currentEntries);
-                adapter.setDataChanged(false);
-                // Reload the text replacement manager so changes take effect immediately
-                TextReplacementManager.getInstance(this).reload();
-            } catch (Exception e) {
-                Log.e(TAG, "Failed to save data", e);
-            }
+            // Saves replace the stored file atomically, so they can run in the background
+            final List<TextReplacementEntry> currentEntries = new ArrayList<>(adapter.getEntries());
+            final String language = listLanguage;
+            adapter.setDataChanged(false);
+            transferThread.execute(() -> {
+                try {
+                    if (TextReplacementCsvManager.saveCsvToStorage(this, language, currentEntries,
+                            null, null)) {
+                        // Reload the text replacement manager so changes take effect immediately
+                        TextReplacementManager.getInstance(this).reload(language);
+                    }
+                } catch (Exception e) {
+                    Log.e(TAG, "Failed to save data", e);
+                }
+            });
         }
     }
 
@@ -319,168 +488,125 @@ public class TextReplacementActivity extends AppCompatActivity {
      * Export text replacement data to CSV file and save to Downloads folder
      */
     private void exportToCsv() {
-        try {
-            // Get current entries from adapter
-            List<TextReplacementEntry> entriesToExport;
-            if (adapter != null) {
-                entriesToExport = adapter.getEntries();
-            } else {
-                entriesToExport = TextReplacementCsvManager.loadCsvFromStorage(this);
-            }
+        // Copy the list; the user may keep editing while the export runs
+        final List<TextReplacementEntry> entriesToExport = adapter != null
+                ? new ArrayList<>(adapter.getEntries()) : null;
+        final String fileName = createExportFileName();
+        final String language = listLanguage;
 
-            // Create filename with timestamp
-            java.text.SimpleDateFormat sdf = new java.text.SimpleDateFormat("yyyyMMdd_HHmmss", java.util.Locale.getDefault());
-            String timestamp = sdf.format(new java.util.Date());
-            String fileName = "text_replacements_" + timestamp + ".csv";
+        startTransfer(R.string.tr_exporting, R.string.tr_failed_export, (progress, signal) -> {
+            List<TextReplacementEntry> toWrite = entriesToExport != null
+                    ? entriesToExport : TextReplacementCsvManager.loadCsvFromStorage(this, language);
 
             // Save to Downloads folder
             if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.Q) {
-                // Android 10+ (API 29+): Use MediaStore
+                // Android 10+ (API 29+): Use MediaStore. The file stays pending, and hidden from
+                // other apps, until it is complete.
                 android.content.ContentValues values = new android.content.ContentValues();
                 values.put(android.provider.MediaStore.MediaColumns.DISPLAY_NAME, fileName);
                 values.put(android.provider.MediaStore.MediaColumns.MIME_TYPE, "text/csv");
                 values.put(android.provider.MediaStore.MediaColumns.RELATIVE_PATH, android.os.Environment.DIRECTORY_DOWNLOADS);
+                values.put(android.provider.MediaStore.MediaColumns.IS_PENDING, 1);
 
                 android.content.ContentResolver resolver = getContentResolver();
                 Uri uri = resolver.insert(android.provider.MediaStore.Downloads.EXTERNAL_CONTENT_URI, values);
-                
-                if (uri != null) {
+                if (uri == null) {
+                    throw new IOException("Failed to create file in Downloads");
+                }
+                boolean complete = false;
+                try {
                     try (java.io.OutputStream outputStream = resolver.openOutputStream(uri)) {
-                        // Write UTF-8 BOM first and flush to ensure it's written before other content
-                        outputStream.write(0xEF);
-                        outputStream.write(0xBB);
-                        outputStream.write(0xBF);
-                        outputStream.flush();
-                        
-                        // Now create writer and write content
-                        try (OutputStreamWriter writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8)) {
-                            // Write header
-                            writer.write("Misspell,Correct,Always on?,Counter\n");
-
-                            // Write entries
-                            for (TextReplacementEntry entry : entriesToExport) {
-                                if (entry != null && entry.getMisspell() != null && !entry.getMisspell().trim().isEmpty()) {
-                                    writer.write(entry.toCsv() + "\n");
-                                }
-                            }
-                            writer.flush();
+                        if (outputStream == null) {
+                            throw new IOException("Failed to open file in Downloads");
                         }
+                        TextReplacementCsvManager.writeCsv(outputStream, toWrite, progress, signal);
+                    }
+                    values.clear();
+                    values.put(android.provider.MediaStore.MediaColumns.IS_PENDING, 0);
+                    resolver.update(uri, values, null, null);
+                    complete = true;
+                } finally {
+                    if (!complete) {
+                        resolver.delete(uri, null, null);
                     }
-                    
-                    Toast.makeText(this, getString(R.string.tr_saved_to_downloads, fileName), Toast.LENGTH_LONG).show();
-                } else {
-                    throw new Exception("Failed to create file in Downloads");
                 }
             } else {
-                // Android 9 and below: Use direct file access
+                // Android 9 and below: Use direct file access, writing to a temporary file
+                // that is renamed once complete
                 File downloadsDir = android.os.Environment.getExternalStoragePublicDirectory(android.os.Environment.DIRECTORY_DOWNLOADS);
                 if (!downloadsDir.exists()) {
                     downloadsDir.mkdirs();
                 }
-                
+
                 File exportFile = new File(downloadsDir, fileName);
-                
-                try (FileOutputStream fileOutputStream = new FileOutputStream(exportFile, false)) {
-                    // Write UTF-8 BOM first and flush to ensure it's written before other content
-                    fileOutputStream.write(0xEF);
-                    fileOutputStream.write(0xBB);
-                    fileOutputStream.write(0xBF);
-                    fileOutputStream.flush();
-                    
-                    // Now create writer and write content
-                    try (OutputStreamWriter writer = new OutputStreamWriter(fileOutputStream, StandardCharsets.UTF_8)) {
-                        // Write header
-                        writer.write("Misspell,Correct,Always on?\n");
-
-                        // Write entries
-                        for (TextReplacementEntry entry : entriesToExport) {
-                            if (entry != null && entry.getMisspell() != null && !entry.getMisspell().trim().isEmpty()) {
-                                writer.write(entry.toCsv() + "\n");
-                            }
-                        }
-                        writer.flush();
+                File tempFile = new File(downloadsDir, fileName + ".tmp");
+                try {
+                    try (FileOutputStream fileOutputStream = new FileOutputStream(tempFile, false)) {
+                        TextReplacementCsvManager.writeCsv(fileOutputStream, toWrite, progress, signal);
                     }
+                    if (!tempFile.renameTo(exportFile)) {
+                        throw new IOException("Failed to rename " + tempFile);
+                    }
+                } finally {
+                    tempFile.delete();
                 }
-                
+
                 // Notify media scanner
                 Intent mediaScanIntent = new Intent(Intent.ACTION_MEDIA_SCANNER_SCAN_FILE);
                 Uri contentUri = Uri.fromFile(exportFile);
                 mediaScanIntent.setData(contentUri);
                 sendBroadcast(mediaScanIntent);
-                
-                Toast.makeText(this, getString(R.string.tr_saved_to_downloads, fileName), Toast.LENGTH_LONG).show();
             }
 
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to export CSV", e);
-            Toast.makeText(this, getString(R.string.tr_failed_export, e.getMessage()), Toast.LENGTH_SHORT).show();
-        }
+            return () -> Toast.makeText(this, getString(R.string.tr_saved_to_downloads, fileName), Toast.LENGTH_LONG).show();
+        });
     }
 
     /**
      * Share CSV file via share intent
      */
     private void shareCsv() {
-        try {
-            // Get current entries from adapter
-            List<TextReplacementEntry> entriesToShare;
-            if (adapter != null) {
-                entriesToShare = adapter.getEntries();
-            } else {
-                entriesToShare = TextReplacementCsvManager.loadCsvFromStorage(this);
-            }
-
-            // Create filename with timestamp
-            java.text.SimpleDateFormat sdf = new java.text.SimpleDateFormat("yyyyMMdd_HHmmss", java.util.Locale.getDefault());
-            String timestamp = sdf.format(new java.util.Date());
-            String fileName = "text_replacements_" + timestamp + ".csv";
+        final List<TextReplacementEntry> entriesToShare = adapter != null
+                ? new ArrayList<>(adapter.getEntries()) : null;
+        final String fileName = createExportFileName();
+        final String language = listLanguage;
 
-            // Create temporary file in cache directory
-            File cacheDir = getCacheDir();
-            File shareFile = new File(cacheDir, fileName);
+        startTransfer(R.string.tr_exporting, R.string.tr_failed_share_csv, (progress, signal) -> {
+            List<TextReplacementEntry> toWrite = entriesToShare != null
+                    ? entriesToShare : TextReplacementCsvManager.loadCsvFromStorage(this, language);
 
-            // Write CSV to temporary file
+            // Write CSV to a file in the cache directory
+            File shareFile = new File(getCacheDir(), fileName);
             try (FileOutputStream fileOutputStream = new FileOutputStream(shareFile, false)) {
-                // Write UTF-8 BOM first and flush to ensure it's written before other content
-                fileOutputStream.write(0xEF);
-                fileOutputStream.write(0xBB);
-                fileOutputStream.write(0xBF);
-                fileOutputStream.flush();
-                
-                // Now create writer and write content
-                try (OutputStreamWriter writer = new OutputStreamWriter(fileOutputStream, StandardCharsets.UTF_8)) {
-                    // Write header
-                    writer.write("Misspell,Correct,Always on?\n");
-
-                    // Write entries
-                    for (TextReplacementEntry entry : entriesToShare) {
-                        if (entry != null && entry.getMisspell() != null && !entry.getMisspell().trim().isEmpty()) {
-                            writer.write(entry.toCsv() + "\n");
-                        }
-                    }
-                    writer.flush();
-                }
+                TextReplacementCsvManager.writeCsv(fileOutputStream, toWrite, progress, signal);
             }
 
-            // Share the file using FileProvider
-            Uri fileUri = androidx.core.content.FileProvider.getUriForFile(
-                    this,
-                    getPackageName() + ".fileprovider",
-                    shareFile
-            );
+            return () -> {
+                // Share the file using FileProvider
+                Uri fileUri = androidx.core.content.FileProvider.getUriForFile(
+                        this,
+                        getPackageName() + ".fileprovider",
+                        shareFile
+                );
 
-            Intent shareIntent = new Intent(Intent.ACTION_SEND);
-            shareIntent.setType("text/csv; charset=utf-8");
-            shareIntent.putExtra(Intent.EXTRA_STREAM, fileUri);
-            shareIntent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.tr_text_replacements_export));
-            shareIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+                Intent shareIntent = new Intent(Intent.ACTION_SEND);
+                shareIntent.setType("text/csv; charset=utf-8");
+                shareIntent.putExtra(Intent.EXTRA_STREAM, fileUri);
+                shareIntent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.tr_text_replacements_export));
+                shareIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
 
-            startActivity(Intent.createChooser(shareIntent, getString(R.string.tr_share_csv_file)));
+                startActivity(Intent.createChooser(shareIntent, getString(R.string.tr_share_csv_file)));
+            };
+        });
+    }
 
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to share CSV", e);
-            Toast.makeText(this, getString(R.string.tr_failed_share_csv, e.getMessage()), Toast.LENGTH_SHORT).show();
-        }
+    /**
+     * Create a file name with timestamp for an exported CSV.
+     */
+    private static String createExportFileName() {
+        java.text.SimpleDateFormat sdf = new java.text.SimpleDateFormat("yyyyMMdd_HHmmss", java.util.Locale.getDefault());
+        String timestamp = sdf.format(new java.util.Date());
+        return "text_replacements_" + timestamp + ".csv";
     }
 
     /**
@@ -547,86 +673,133 @@ public class TextReplacementActivity extends AppCompatActivity {
                 }
             }
             
-            // Read CSV file from URI
-            InputStream inputStream = getContentResolver().openInputStream(fileUri);
-            if (inputStream == null) {
-                Toast.makeText(this, R.string.tr_failed_read_file, Toast.LENGTH_SHORT).show();
-                return;
-            }
-
-            // Check for UTF-8 BOM and skip it if present
-            java.io.PushbackInputStream pushbackInputStream = new java.io.PushbackInputStream(inputStream, 3);
-            byte[] bom = new byte[3];
-            int bytesRead = pushbackInputStream.read(bom, 0, 3);
-            if (bytesRead == 3 && bom[0] == (byte)0xEF && bom[1] == (byte)0xBB && bom[2] == (byte)0xBF) {
-                // BOM found, skip it
-            } else if (bytesRead > 0) {
-                // No BOM or partial read, push back the bytes
-                pushbackInputStream.unread(bom, 0, bytesRead);
-            }
-
-            BufferedReader reader = new BufferedReader(new InputStreamReader(pushbackInputStream, StandardCharsets.UTF_8));
-            List<TextReplacementEntry> importedEntries = new ArrayList<>();
-            
-            String line;
-            boolean isFirstLine = true;
-            
-            while ((line = reader.readLine()) != null) {
-                if (isFirstLine) {
-                    // Skip header line
-                    isFirstLine = false;
-                    continue;
+            final long fileSize = getFileSize(fileUri);
+            final String language = listLanguage;
+            startTransfer(R.string.tr_importing, R.string.tr_failed_import, (progress, signal) -> {
+                // Read CSV file from URI
+                List<TextReplacementEntry> importedEntries;
+                try (InputStream inputStream = getContentResolver().openInputStream(fileUri)) {
+                    if (inputStream == null) {
+                        return () -> Toast.makeText(this, R.string.tr_failed_read_file, Toast.LENGTH_SHORT).show();
+                    }
+                    // Quoted fields may span lines, so chunks are cut at record boundaries, not lines
+                    importedEntries = TextReplacementCsvManager.importEntries(inputStream,
+                            fileSize, scaleProgress(progress, 0, IMPORT_READ_PERCENT), signal);
                 }
-                
-                if (line.trim().isEmpty()) {
-                    continue;
+
+                // Replace existing entries with imported ones
+                if (importedEntries.isEmpty()) {
+                    return () -> Toast.makeText(this, R.string.tr_no_valid_entries, Toast.LENGTH_SHORT).show();
                 }
-                
-                // Parse CSV line
-                TextReplacementEntry entry = TextReplacementEntry.fromCsv(line);
-                if (entry != null && entry.getMisspell() != null && !entry.getMisspell().trim().isEmpty()) {
-                    importedEntries.add(entry);
+
+                // Saving replaces the stored list atomically, so until it is done the import
+                // can be cancelled without changing anything
+                if (!TextReplacementCsvManager.saveCsvToStorage(this, language, importedEntries,
+                        scaleProgress(progress, IMPORT_READ_PERCENT, 100), signal)) {
+                    throw new IOException(getString(R.string.tr_failed_save));
                 }
-            }
-            
-            reader.close();
-            inputStream.close();
-            
-            // Replace existing entries with imported ones
-            if (importedEntries.isEmpty()) {
-                Toast.makeText(this, R.string.tr_no_valid_entries, Toast.LENGTH_SHORT).show();
-                return;
-            }
-            
-            // Update the entries list
-            entries.clear();
-            entries.addAll(importedEntries);
-            
-            // Save to storage
-            TextReplacementCsvManager.saveCsvToStorage(this, entries);
-            
-            // Reload adapter
-            if (adapter != null) {
-                adapter = new TextReplacementAdapter(entries);
-                adapter.setCounterVisible(getCounterVisiblePreference());
-                recyclerView.setAdapter(adapter);
-            } else {
-                adapter = new TextReplacementAdapter(entries);
-                adapter.setCounterVisible(getCounterVisiblePreference());
-                recyclerView.setAdapter(adapter);
-            }
 
-            // Reload text replacement manager
-            TextReplacementManager.getInstance(this).reload();
+                // Reload text replacement manager; the keyboard switches to the new list at once
+                TextReplacementManager.getInstance(this).reload(language);
 
-            Toast.makeText(this, getString(R.string.tr_imported_entries, importedEntries.size()), Toast.LENGTH_SHORT).show();
-            
+                return () -> {
+                    // Update the entries list and reload adapter
+                    entries.clear();
+                    entries.addAll(importedEntries);
+                    adapter = new TextReplacementAdapter(entries);
+                    adapter.setCounterVisible(getCounterVisiblePreference());
+                    recyclerView.setAdapter(adapter);
+
+                    Toast.makeText(this, getString(R.string.tr_imported_entries, importedEntries.size()), Toast.LENGTH_SHORT).show();
+                };
+            });
         } catch (Exception e) {
             Log.e(TAG, "Failed to import CSV", e);
             Toast.makeText(this, getString(R.string.tr_failed_import, e.getMessage()), Toast.LENGTH_SHORT).show();
         }
     }
 
+    /**
+     * Work done on the transfer thread.
+     */
+    private interface TransferJob {
+        /**
+         * @return what to do on the UI thread once the job has finished
+         */
+        Runnable run(TextReplacementCsvManager.ProgressListener progress, CancellationSignal signal)
+                throws Exception;
+    }
+
+    /**
+     * Run an import or export on the transfer thread behind a progress dialog that can cancel
+     * it. Only one transfer runs at a time.
+     */
+    private void startTransfer(int titleResId, int failureResId, TransferJob job) {
+        if (transferSignal != null) {
+            return;
+        }
+        final CancellationSignal signal = new CancellationSignal();
+        transferSignal = signal;
+
+        View dialogView = LayoutInflater.from(this).inflate(R.layout.dialog_transfer_progress, null);
+        final ProgressBar progressBar = dialogView.findViewById(R.id.progress_transfer);
+        transferDialog = new AlertDialog.Builder(this)
+                .setTitle(titleResId)
+                .setView(dialogView)
+                .setCancelable(false)
+                .setNegativeButton(R.string.tr_cancel, (dialog, which) -> signal.cancel())
+                .show();
+
+        final TextReplacementCsvManager.ProgressListener progress =
+                new TextReplacementCsvManager.ProgressListener() {
+            private int lastPercent = -1;
+
+            @Override
+            public void onProgress(long done, long total) {
+                // Only post when the bar actually moves
+                int percent = total > 0 ? (int) Math.min(100, done * 100 / total) : 0;
+                if (percent != lastPercent) {
+                    lastPercent = percent;
+                    runOnUiThread(() -> progressBar.setProgress(percent));
+                }
+            }
+        };
+        transferThread.execute(() -> {
+            Runnable result;
+            try {
+                result = job.run(progress, signal);
+            } catch (OperationCanceledException e) {
+                result = null;
+            } catch (Exception e) {
+                Log.e(TAG, "Transfer failed", e);
+                result = () -> Toast.makeText(this, getString(failureResId, e.getMessage()), Toast.LENGTH_SHORT).show();
+            }
+            final Runnable onFinished = result;
+            runOnUiThread(() -> {
+                if (transferSignal != signal) {
+                    return; // The activity has been destroyed
+                }
+                transferSignal = null;
+                transferDialog.dismiss();
+                transferDialog = null;
+                if (onFinished != null) {
+                    onFinished.run();
+                }
+            });
+        });
+    }
+
+    /**
+     * Map the progress of one step of a job onto [startPercent, endPercent] of the whole job.
+     */
+    private static TextReplacementCsvManager.ProgressListener scaleProgress(
+            TextReplacementCsvManager.ProgressListener progress, int startPercent, int endPercent) {
+        return (done, total) -> {
+            long fraction = total > 0 ? Math.min(done, total) * (endPercent - startPercent) / total : 0;
+            progress.onProgress(startPercent + fraction, 100);
+        };
+    }
+
     /**
      * Show confirmation dialog before deleting all entries
      */
@@ -683,28 +856,21 @@ public class TextReplacementActivity extends AppCompatActivity {
      * Delete all entries that have counter 0, then reload.
      */
     private void deleteUnusedEntries() {
-        try {
-            if (entries == null) {
-                return;
-            }
-            List<TextReplacementEntry> toKeep = new ArrayList<>();
-            for (TextReplacementEntry entry : entries) {
-                if (entry == null) continue;
-                if (entry.getCounter() > 0) {
-                    toKeep.add(entry);
-                }
-                // Skip entries with counter == 0 (they are "unused")
+        if (entries == null) {
+            return;
+        }
+        List<TextReplacementEntry> toKeep = new ArrayList<>();
+        for (TextReplacementEntry entry : entries) {
+            if (entry == null) continue;
+            if (entry.getCounter() > 0) {
+                toKeep.add(entry);
             }
-            entries.clear();
-            entries.addAll(toKeep);
-            TextReplacementCsvManager.saveCsvToStorage(this, adapter != null ? adapter.getEntries() : entries);
-            TextReplacementManager.getInstance(this).reload();
+            // Skip entries with counter == 0 (they are "unused")
+        }
+        saveInBackground(toKeep, () -> {
             loadData();
             Toast.makeText(this, R.string.tr_unused_deleted, Toast.LENGTH_SHORT).show();
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to delete unused entries", e);
-            Toast.makeText(this, R.string.tr_failed_delete_unused, Toast.LENGTH_SHORT).show();
-        }
+        }, getString(R.string.tr_failed_delete_unused));
     }
 
     /**
@@ -725,55 +891,91 @@ public class TextReplacementActivity extends AppCompatActivity {
      * Clear all counters and reload the list
      */
     private void clearAllCounters() {
-        try {
-            if (entries == null) {
-                return;
-            }
-            for (TextReplacementEntry entry : entries) {
-                if (entry != null) {
-                    entry.setCounter(0);
-                }
+        if (entries == null) {
+            return;
+        }
+        // The shown entries only change once the save has succeeded
+        List<TextReplacementEntry> toSave = new ArrayList<>();
+        for (TextReplacementEntry entry : adapter != null ? adapter.getEntries() : entries) {
+            if (entry != null) {
+                toSave.add(new TextReplacementEntry(entry.getMisspell(), entry.getCorrect(),
+                        entry.isAlwaysOn(), 0));
             }
-            List<TextReplacementEntry> toSave = adapter != null ? adapter.getEntries() : entries;
-            TextReplacementCsvManager.saveCsvToStorage(this, toSave);
-            TextReplacementManager.getInstance(this).reload();
+        }
+        saveInBackground(toSave, () -> {
             loadData();
             Toast.makeText(this, R.string.tr_counters_cleared, Toast.LENGTH_SHORT).show();
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to clear counters", e);
-            Toast.makeText(this, R.string.tr_failed_clear_counters, Toast.LENGTH_SHORT).show();
-        }
+        }, getString(R.string.tr_failed_clear_counters));
     }
 
     /**
      * Delete all text replacement entries
      */
     private void deleteAllEntries() {
-        try {
-            // Clear all entries
+        saveInBackground(new ArrayList<>(), () -> {
+            // Clear all entries and reload adapter
             if (entries != null) {
                 entries.clear();
             }
-            
-            // Save empty list to CSV
-            List<TextReplacementEntry> emptyList = new ArrayList<>();
-            TextReplacementCsvManager.saveCsvToStorage(this, emptyList);
-            
-            // Reload adapter
             if (adapter != null) {
                 adapter = new TextReplacementAdapter(entries);
                 adapter.setCounterVisible(getCounterVisiblePreference());
                 recyclerView.setAdapter(adapter);
             }
+            Toast.makeText(this, R.string.tr_all_entries_deleted, Toast.LENGTH_SHORT).show();
+        }, getString(R.string.tr_failed_delete_all, getString(R.string.tr_failed_save)));
+    }
 
-            // Reload text replacement manager
-            TextReplacementManager.getInstance(this).reload();
+    /**
+     * Save entries on the transfer thread, after any save queued before. If the save succeeds
+     * the keyboard reloads its replacements and onSaved runs on the UI thread; otherwise
+     * failureMessage is shown and the stored list is unchanged.
+     */
+    private void saveInBackground(final List<TextReplacementEntry> toSave,
+            final Runnable onSaved, final String failureMessage) {
+        final String language = listLanguage;
+        transferThread.execute(() -> {
+            boolean saved;
+            try {
+                saved = TextReplacementCsvManager.saveCsvToStorage(this, language, toSave, null,
+                        null);
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to save data", e);
+                saved = false;
+            }
+            if (saved) {
+                // Reload the text replacement manager so changes take effect immediately
+                TextReplacementManager.getInstance(this).reload(language);
+            }
+            final boolean succeeded = saved;
+            runOnUiThread(() -> {
+                if (isDestroyed()) {
+                    return;
+                }
+                if (succeeded) {
+                    onSaved.run();
+                } else {
+                    Toast.makeText(this, failureMessage, Toast.LENGTH_SHORT).show();
+                }
+            });
+        });
+    }
 
-            Toast.makeText(this, R.string.tr_all_entries_deleted, Toast.LENGTH_SHORT).show();
+    /**
+     * Get file size from URI, or -1 if unknown
+     */
+    private long getFileSize(Uri uri) {
+        try (android.database.Cursor cursor = getContentResolver().query(uri, null, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst()) {
+                int sizeIndex = cursor.getColumnIndex(android.provider.OpenableColumns.SIZE);
+                if (sizeIndex >= 0 && !cursor.isNull(sizeIndex)) {
+                    return cursor.getLong(sizeIndex);
+                }
+            }
         } catch (Exception e) {
-            Log.e(TAG, "Failed to delete all entries", e);
-            Toast.makeText(this, getString(R.string.tr_failed_delete_all, e.getMessage()), Toast.LENGTH_SHORT).show();
+            Log.e(TAG, "Failed to get file size", e);
         }
+        return -1;
     }
 
     /**
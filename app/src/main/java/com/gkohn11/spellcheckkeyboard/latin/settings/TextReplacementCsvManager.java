@@ -21,41 +21,100 @@
 package com.gkohn11.spellcheckkeyboard.latin.settings;
 
 import android.content.Context;
+import android.os.CancellationSignal;
 import android.util.Log;
 
-import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import com.gkohn11.spellcheckkeyboard.latin.replacement.CsvReader;
+import com.gkohn11.spellcheckkeyboard.latin.replacement.ReplacementDictionary;
 
 /**
  * Manages loading and saving text replacement data from/to CSV files.
+ * CSV is the editable and import/export format; every save also compiles the entries into a
+ * binary {@link ReplacementDictionary} that the keyboard memory-maps instead of parsing CSV.
+ * Storage access is serialized on the class, so background writers (such as counter journal
+ * compaction) never interleave with a load or save from the UI.
+ *
+ * Saves never touch the current file: each one writes a new generation of the CSV
+ * (text_replacements.N.csv, where generation 0 is the original text_replacements.csv) to a
+ * temporary file, syncs it and renames it into place, then deletes the previous generation. A
+ * save that is killed half way therefore leaves the last complete generation in place, and the
+ * dictionary records which generation it was compiled from.
+ *
+ * Besides the shared list above, a language can have a list of its own, kept the same way in
+ * text_replacements/LANGUAGE/ and seeded from the text_replacements_LANGUAGE.csv asset. Methods
+ * that take a language work on that language's list, or on the shared list for null.
  */
 public class TextReplacementCsvManager {
     private static final String TAG = "TextReplacementCsvManager";
     private static final String ASSETS_FILE = "text_replacements.csv";
+    private static final String LANGUAGE_ASSETS_FILE_PREFIX = "text_replacements_";
+    private static final String LANGUAGE_LISTS_DIRECTORY = "text_replacements";
     private static final String STORAGE_FILE = "text_replacements.csv";
+    private static final String STORAGE_FILE_PREFIX = "text_replacements.";
+    private static final String STORAGE_FILE_SUFFIX = ".csv";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final String DICTIONARY_FILE = "text_replacements.dict";
+    // An import is read and parsed in chunks of about this size; a CSV that fits in one chunk
+    // is parsed on the calling thread.
+    private static final int IMPORT_CHUNK_BYTES = 64 * 1024;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    // Rows between progress reports and cancellation checks while writing.
+    private static final int PROGRESS_INTERVAL_ROWS = 1024;
+    private static final String CSV_HEADER = "Misspell,Correct,Always on?,Counter\n";
+
+    // Generation of the current CSV by list directory, once the files have been looked at.
+    private static final Map<File, Long> sGenerations = new HashMap<>();
+
+    /**
+     * Progress of a long-running import, export or save, reported on the thread doing the work.
+     */
+    public interface ProgressListener {
+        /**
+         * @param total the expected total, or -1 if unknown
+         */
+        void onProgress(long done, long total);
+    }
 
     /**
      * Load default CSV from assets and copy to internal storage if it doesn't exist.
      */
     public static void initializeDefaultCsv(Context context) {
-        File storageFile = getStorageFile(context);
+        initializeDefaultCsv(context, null);
+    }
+
+    /**
+     * Like {@link #initializeDefaultCsv(Context)}, for the list of a language.
+     * @param language the language of the list, or null for the shared list
+     */
+    public static synchronized void initializeDefaultCsv(Context context, String language) {
+        File storageFile = getStorageFile(context, language);
         if (storageFile.exists()) {
             return; // Already initialized
         }
 
         try {
-            List<TextReplacementEntry> entries = loadDefaultCsv(context);
+            List<TextReplacementEntry> entries = loadDefaultCsv(context, language);
             if (!entries.isEmpty()) {
-                saveCsvToStorage(context, entries);
+                saveCsvToStorage(context, language, entries, null, null);
             }
         } catch (Exception e) {
             Log.e(TAG, "Failed to initialize default CSV", e);
@@ -66,170 +125,487 @@ public class TextReplacementCsvManager {
      * Load CSV from assets (default template).
      */
     public static List<TextReplacementEntry> loadDefaultCsv(Context context) {
-        List<TextReplacementEntry> entries = new ArrayList<>();
-        InputStream inputStream = null;
-        BufferedReader reader = null;
+        return loadDefaultCsv(context, null);
+    }
 
-        try {
-            inputStream = context.getAssets().open(ASSETS_FILE);
-            reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
-            String line;
-            boolean isFirstLine = true;
-
-            while ((line = reader.readLine()) != null) {
-                if (isFirstLine) {
-                    // Skip header line
-                    isFirstLine = false;
-                    continue;
-                }
-                if (line.trim().isEmpty()) {
-                    continue;
-                }
-                TextReplacementEntry entry = TextReplacementEntry.fromCsv(line);
-                if (entry.getMisspell() != null && !entry.getMisspell().isEmpty()) {
-                    entries.add(entry);
-                }
-            }
+    private static List<TextReplacementEntry> loadDefaultCsv(Context context, String language) {
+        try (InputStream inputStream = context.getAssets().open(getAssetsFile(language))) {
+            return readEntries(inputStream);
         } catch (IOException e) {
             Log.e(TAG, "Failed to load default CSV from assets", e);
-        } finally {
-            try {
-                if (reader != null) {
-                    reader.close();
-                }
-                if (inputStream != null) {
-                    inputStream.close();
-                }
-            } catch (IOException e) {
-                Log.e(TAG, "Error closing streams", e);
-            }
+            return new ArrayList<>();
         }
-
-        return entries;
     }
 
     /**
      * Load CSV from internal storage.
      */
     public static List<TextReplacementEntry> loadCsvFromStorage(Context context) {
-        List<TextReplacementEntry> entries = new ArrayList<>();
-        File storageFile = getStorageFile(context);
+        return loadCsvFromStorage(context, null);
+    }
+
+    /**
+     * Like {@link #loadCsvFromStorage(Context)}, for the list of a language.
+     * @param language the language of the list, or null for the shared list
+     */
+    public static synchronized List<TextReplacementEntry> loadCsvFromStorage(Context context,
+            String language) {
+        File storageFile = getStorageFile(context, language);
 
         if (!storageFile.exists()) {
             // Initialize from default if storage file doesn't exist
-            initializeDefaultCsv(context);
+            initializeDefaultCsv(context, language);
             if (!storageFile.exists()) {
-                return entries; // Still doesn't exist, return empty list
+                return new ArrayList<>(); // Still doesn't exist, return empty list
             }
         }
 
-        FileInputStream fileInputStream = null;
-        BufferedReader reader = null;
+        try (InputStream inputStream = new FileInputStream(storageFile)) {
+            return readEntries(inputStream);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to load CSV from storage", e);
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Stream entries from CSV, skipping the header and entries without a misspell value.
+     */
+    public static List<TextReplacementEntry> readEntries(InputStream inputStream)
+            throws IOException {
+        CsvReader reader = new CsvReader(inputStream);
+        List<TextReplacementEntry> entries = new ArrayList<>();
+        // Skip header line
+        if (reader.nextRecord()) {
+            readEntries(reader, entries);
+        }
+        return entries;
+    }
+
+    /**
+     * Read a whole CSV file for import, skipping the header and entries without a misspell
+     * value. The file is read in chunks cut at record boundaries, and each chunk is parsed in
+     * parallel while the next one is read; the result is in file order either way.
+     */
+    public static List<TextReplacementEntry> importEntries(InputStream inputStream)
+            throws IOException {
+        return importEntries(inputStream, -1, null, null);
+    }
 
+    /**
+     * Like {@link #importEntries(InputStream)}, for a background import.
+     * @param totalBytes size of the file if known, or -1
+     * @param listener receives the number of bytes read, or null
+     * @param signal checked while reading and before each chunk is parsed, or null
+     */
+    public static List<TextReplacementEntry> importEntries(InputStream inputStream,
+            long totalBytes, ProgressListener listener, CancellationSignal signal)
+            throws IOException {
+        boolean parallel = ForkJoinPool.getCommonPoolParallelism() >= 2;
+        List<ParseTask> tasks = new ArrayList<>();
+        byte[] chunk = new byte[IMPORT_CHUNK_BYTES];
+        int length = 0;
+        long bytesRead = 0;
+        boolean first = true;
         try {
-            fileInputStream = new FileInputStream(storageFile);
-            
-            // Check for UTF-8 BOM and skip it if present
-            java.io.PushbackInputStream pushbackInputStream = new java.io.PushbackInputStream(fileInputStream, 3);
-            byte[] bom = new byte[3];
-            int bytesRead = pushbackInputStream.read(bom, 0, 3);
-            if (bytesRead == 3 && bom[0] == (byte)0xEF && bom[1] == (byte)0xBB && bom[2] == (byte)0xBF) {
-                // BOM found, skip it
-            } else if (bytesRead > 0) {
-                // No BOM or partial read, push back the bytes
-                pushbackInputStream.unread(bom, 0, bytesRead);
-            }
-            
-            reader = new BufferedReader(new InputStreamReader(pushbackInputStream, StandardCharsets.UTF_8));
-            String line;
-            boolean isFirstLine = true;
-
-            while ((line = reader.readLine()) != null) {
-                if (isFirstLine) {
-                    // Skip header line
-                    isFirstLine = false;
-                    continue;
+            while (true) {
+                int read = inputStream.read(chunk, length, chunk.length - length);
+                if (read > 0) {
+                    length += read;
+                    bytesRead += read;
+                    if (signal != null) {
+                        signal.throwIfCanceled();
+                    }
+                    if (listener != null) {
+                        listener.onProgress(bytesRead, totalBytes);
+                    }
+                    if (length < chunk.length) {
+                        continue;
+                    }
+                }
+                int start = first ? CsvReader.getBomLength(chunk, length) : 0;
+                if (read <= 0) {
+                    // This thread would only wait for the other chunks, so it parses the last.
+                    ParseTask task = new ParseTask(chunk, start, length, first, signal);
+                    task.invoke();
+                    tasks.add(task);
+                    break;
                 }
-                if (line.trim().isEmpty()) {
+                int end = CsvReader.findLastRecordEnd(chunk, start, length);
+                if (end == start) {
+                    // A single record fills the chunk.
+                    chunk = Arrays.copyOf(chunk, chunk.length * 2);
                     continue;
                 }
-                TextReplacementEntry entry = TextReplacementEntry.fromCsv(line);
-                if (entry.getMisspell() != null && !entry.getMisspell().isEmpty()) {
-                    entries.add(entry);
+                ParseTask task = new ParseTask(chunk, start, end, first, signal);
+                if (parallel) {
+                    ForkJoinPool.commonPool().execute(task);
+                } else {
+                    task.invoke();
                 }
+                tasks.add(task);
+                byte[] next = new byte[Math.max(IMPORT_CHUNK_BYTES, (length - end) * 2)];
+                System.arraycopy(chunk, end, next, 0, length - end);
+                chunk = next;
+                length -= end;
+                first = false;
             }
-        } catch (IOException e) {
-            Log.e(TAG, "Failed to load CSV from storage", e);
+            List<TextReplacementEntry> entries = new ArrayList<>();
+            for (ParseTask task : tasks) {
+                entries.addAll(task.join());
+            }
+            return entries;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         } finally {
+            // Only does anything if reading or parsing failed part way.
+            for (ParseTask task : tasks) {
+                task.cancel(false);
+            }
+        }
+    }
+
+    private static void readEntries(CsvReader reader, List<TextReplacementEntry> entries)
+            throws IOException {
+        while (reader.nextRecord()) {
+            TextReplacementEntry entry = TextReplacementEntry.fromCsv(reader);
+            if (entry != null && !entry.getMisspell().isEmpty()) {
+                entries.add(entry);
+            }
+        }
+    }
+
+    /**
+     * Parses one chunk of a CSV file being imported, data[start, end).
+     */
+    private static final class ParseTask extends RecursiveTask<List<TextReplacementEntry>> {
+        private final byte[] mData;
+        private final int mStart;
+        private final int mEnd;
+        private final boolean mSkipHeader;
+        private final CancellationSignal mSignal;
+
+        ParseTask(byte[] data, int start, int end, boolean skipHeader, CancellationSignal signal) {
+            mData = data;
+            mStart = start;
+            mEnd = end;
+            mSkipHeader = skipHeader;
+            mSignal = signal;
+        }
+
+        @Override
+        protected List<TextReplacementEntry> compute() {
+            if (mSignal != null) {
+                mSignal.throwIfCanceled();
+            }
+            List<TextReplacementEntry> entries = new ArrayList<>();
             try {
-                if (reader != null) {
-                    reader.close();
-                }
-                if (fileInputStream != null) {
-                    fileInputStream.close();
+                CsvReader reader = new CsvReader(mData, mStart, mEnd);
+                if (!mSkipHeader || reader.nextRecord()) {
+                    readEntries(reader, entries);
                 }
             } catch (IOException e) {
-                Log.e(TAG, "Error closing streams", e);
+                throw new UncheckedIOException(e);
             }
+            return entries;
         }
-
-        return entries;
     }
 
     /**
      * Save entries to CSV file in internal storage.
+     * @return whether the entries were saved; if not, the previous version is still in place
+     */
+    public static boolean saveCsvToStorage(Context context, List<TextReplacementEntry> entries) {
+        return saveCsvToStorage(context, entries, null, null);
+    }
+
+    /**
+     * Save entries as a new generation of the CSV file in internal storage.
+     * @param listener receives the number of entries written, or null
+     * @param signal checked while writing, or null; a cancelled save leaves the previous
+     *        version in place
+     * @return whether the entries were saved; if not, the previous version is still in place
+     */
+    public static boolean saveCsvToStorage(Context context,
+            List<TextReplacementEntry> entries, ProgressListener listener,
+            CancellationSignal signal) {
+        return saveCsvToStorage(context, null, entries, listener, signal);
+    }
+
+    /**
+     * Like {@link #saveCsvToStorage(Context, List, ProgressListener, CancellationSignal)}, for
+     * the list of a language.
+     * @param language the language of the list, or null for the shared list
+     */
+    public static synchronized boolean saveCsvToStorage(Context context, String language,
+            List<TextReplacementEntry> entries, ProgressListener listener,
+            CancellationSignal signal) {
+        File directory = getListDirectory(context, language);
+        File previousFile = getStorageFile(context, language);
+        long generation = getGeneration(directory) + 1;
+        File storageFile = getStorageFile(directory, generation);
+        File tempFile = new File(storageFile.getPath() + TEMP_FILE_SUFFIX);
+
+        boolean saved = false;
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Failed to create " + directory);
+            }
+            try (FileOutputStream fileOutputStream = new FileOutputStream(tempFile, false)) {
+                writeCsv(fileOutputStream, entries, listener, signal);
+                // The data must be on disk before the rename makes it the current version
+                fileOutputStream.getFD().sync();
+            }
+            if (!tempFile.renameTo(storageFile)) {
+                throw new IOException("Failed to rename " + tempFile.getName());
+            }
+            saved = true;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to save CSV to storage: " + storageFile.getAbsolutePath(), e);
+        } finally {
+            if (!saved) {
+                tempFile.delete();
+            }
+        }
+        if (!saved) {
+            return false;
+        }
+        sGenerations.put(directory, generation);
+        previousFile.delete();
+
+        // Entries are already in memory, so compile them now rather than re-parsing later.
+        compileDictionary(context, language, entries);
+        return true;
+    }
+
+    /**
+     * Write entries as CSV with a UTF-8 BOM and header, skipping entries without a misspell
+     * value. The caller closes outputStream.
+     * @param listener receives the number of entries written, or null
+     * @param signal checked between rows, or null
      */
-    public static void saveCsvToStorage(Context context, List<TextReplacementEntry> entries) {
-        File storageFile = getStorageFile(context);
-        FileOutputStream fileOutputStream = null;
-        OutputStreamWriter writer = null;
+    public static void writeCsv(OutputStream outputStream, List<TextReplacementEntry> entries,
+            ProgressListener listener, CancellationSignal signal) throws IOException {
+        // Write UTF-8 BOM to ensure proper encoding recognition
+        outputStream.write(0xEF);
+        outputStream.write(0xBB);
+        outputStream.write(0xBF);
+
+        Writer writer = new BufferedWriter(
+                new OutputStreamWriter(outputStream, StandardCharsets.UTF_8), WRITE_BUFFER_SIZE);
+        writer.write(CSV_HEADER);
+        int total = entries.size();
+        for (int i = 0; i < total; i++) {
+            if (i % PROGRESS_INTERVAL_ROWS == 0) {
+                if (signal != null) {
+                    signal.throwIfCanceled();
+                }
+                if (listener != null) {
+                    listener.onProgress(i, total);
+                }
+            }
+            TextReplacementEntry entry = entries.get(i);
+            // Only save entries that have at least a misspell value
+            if (entry != null && entry.getMisspell() != null && !entry.getMisspell().trim().isEmpty()) {
+                writer.write(entry.toCsv());
+                writer.write('\n');
+            }
+        }
+        writer.flush();
+        if (listener != null) {
+            listener.onProgress(total, total);
+        }
+    }
 
+    /**
+     * Compile entries into the binary dictionary, stamped with the current CSV generation so that
+     * {@link #loadDictionary(Context, String)} can tell whether it is up to date.
+     */
+    private static void compileDictionary(Context context, String language,
+            List<TextReplacementEntry> entries) {
+        File directory = getListDirectory(context, language);
+        File storageFile = getStorageFile(context, language);
         try {
-            fileOutputStream = new FileOutputStream(storageFile, false); // false = overwrite, not append
-            
-            // Write UTF-8 BOM to ensure proper encoding recognition
-            fileOutputStream.write(0xEF);
-            fileOutputStream.write(0xBB);
-            fileOutputStream.write(0xBF);
-            
-            writer = new OutputStreamWriter(fileOutputStream, StandardCharsets.UTF_8);
-
-            // Write header
-            writer.write("Misspell,Correct,Always on?,Counter\n");
-
-            // Write entries (filter out empty ones)
-            int savedCount = 0;
+            ReplacementDictionary.Builder builder = new ReplacementDictionary.Builder();
             for (TextReplacementEntry entry : entries) {
-                // Only save entries that have at least a misspell value
-                if (entry != null && entry.getMisspell() != null && !entry.getMisspell().trim().isEmpty()) {
-                    String csvLine = entry.toCsv();
-                    writer.write(csvLine + "\n");
-                    savedCount++;
+                if (entry != null) {
+                    builder.add(entry.getMisspell(), entry.getCorrect(), entry.isAlwaysOn(),
+                            entry.getCounter());
                 }
             }
+            builder.writeTo(getDictionaryFile(directory), getGeneration(directory),
+                    storageFile.length());
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to compile replacement dictionary", e);
+        }
+    }
 
-            writer.flush();
+    /**
+     * Compile the stored CSV into the binary dictionary, parsing records straight into the
+     * builder without creating entry objects.
+     */
+    private static void compileDictionaryFromCsv(Context context, String language) {
+        File directory = getListDirectory(context, language);
+        File storageFile = getStorageFile(context, language);
+        try (InputStream inputStream = new FileInputStream(storageFile)) {
+            ReplacementDictionary.Builder builder = new ReplacementDictionary.Builder();
+            CsvReader reader = new CsvReader(inputStream);
+            // Skip header line
+            if (reader.nextRecord()) {
+                while (reader.nextRecord()) {
+                    if (reader.getFieldCount() >= 3) {
+                        builder.add(reader.getString(0), reader.getString(1),
+                                reader.getBoolean(2), reader.getInt(3, 0));
+                    }
+                }
+            }
+            builder.writeTo(getDictionaryFile(directory), getGeneration(directory),
+                    storageFile.length());
         } catch (IOException e) {
-            Log.e(TAG, "Failed to save CSV to storage: " + storageFile.getAbsolutePath(), e);
-        } finally {
+            Log.e(TAG, "Failed to compile replacement dictionary", e);
+        }
+    }
+
+    /**
+     * Memory-map the compiled dictionary, compiling it from the CSV first if it is missing or
+     * compiled from another generation of the CSV (e.g. first run after an upgrade, or a save
+     * that was killed before it compiled the dictionary).
+     */
+    public static ReplacementDictionary loadDictionary(Context context) {
+        return loadDictionary(context, null);
+    }
+
+    /**
+     * Like {@link #loadDictionary(Context)}, for the list of a language.
+     * @param language the language of the list, or null for the shared list
+     */
+    public static synchronized ReplacementDictionary loadDictionary(Context context,
+            String language) {
+        initializeDefaultCsv(context, language);
+        File directory = getListDirectory(context, language);
+        File storageFile = getStorageFile(context, language);
+        File dictionaryFile = getDictionaryFile(directory);
+        if (dictionaryFile.exists()) {
             try {
-                if (writer != null) {
-                    writer.close();
-                }
-                if (fileOutputStream != null) {
-                    fileOutputStream.close();
+                ReplacementDictionary dictionary = ReplacementDictionary.open(dictionaryFile);
+                if (dictionary.isCompiledFrom(getGeneration(directory), storageFile.length())) {
+                    return dictionary;
                 }
             } catch (IOException e) {
-                Log.e(TAG, "Error closing streams", e);
+                Log.w(TAG, "Recompiling unreadable replacement dictionary", e);
             }
         }
+        if (!storageFile.exists()) {
+            return ReplacementDictionary.empty();
+        }
+        compileDictionaryFromCsv(context, language);
+        try {
+            return ReplacementDictionary.open(dictionaryFile);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to open replacement dictionary", e);
+            return ReplacementDictionary.empty();
+        }
+    }
+
+    /**
+     * Whether a language has a list of its own, in storage or as an asset to seed it from.
+     * Languages without one use the shared list.
+     */
+    public static synchronized boolean hasLanguageList(Context context, String language) {
+        if (getStorageFile(context, language).exists()) {
+            return true;
+        }
+        try (InputStream inputStream = context.getAssets().open(getAssetsFile(language))) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static String getAssetsFile(String language) {
+        return language == null ? ASSETS_FILE
+                : LANGUAGE_ASSETS_FILE_PREFIX + language + STORAGE_FILE_SUFFIX;
+    }
+
+    /**
+     * Get the directory that holds the files of a list: the CSV generations, the compiled
+     * dictionary and the keyboard's journals. A language's directory doesn't exist before its
+     * first save.
+     * @param language the language of the list, or null for the shared list
+     */
+    static File getListDirectory(Context context, String language) {
+        if (language == null) {
+            return context.getFilesDir();
+        }
+        return new File(new File(context.getFilesDir(), LANGUAGE_LISTS_DIRECTORY), language);
+    }
+
+    /**
+     * Get the path of the current storage file. It doesn't exist before the first save.
+     */
+    private static File getStorageFile(Context context, String language) {
+        File directory = getListDirectory(context, language);
+        return getStorageFile(directory, getGeneration(directory));
+    }
+
+    private static File getStorageFile(File directory, long generation) {
+        String name = generation == 0 ? STORAGE_FILE
+                : STORAGE_FILE_PREFIX + generation + STORAGE_FILE_SUFFIX;
+        return new File(directory, name);
+    }
+
+    /**
+     * Get the generation of the current storage file in a list directory. The first call picks
+     * the newest complete generation and cleans up after saves that were interrupted.
+     */
+    private static long getGeneration(File directory) {
+        Long known = sGenerations.get(directory);
+        if (known != null) {
+            return known;
+        }
+        File[] files = directory.listFiles();
+        long newest = 0;
+        if (files != null) {
+            for (File file : files) {
+                newest = Math.max(newest, parseGeneration(file.getName()));
+            }
+            for (File file : files) {
+                String name = file.getName();
+                long generation = parseGeneration(name);
+                if ((generation >= 0 && generation < newest) || (name.startsWith(STORAGE_FILE_PREFIX)
+                        && name.endsWith(STORAGE_FILE_SUFFIX + TEMP_FILE_SUFFIX))) {
+                    file.delete();
+                }
+            }
+        }
+        sGenerations.put(directory, newest);
+        return newest;
+    }
+
+    /**
+     * @return the generation of a storage file name, or -1 if it isn't one
+     */
+    private static long parseGeneration(String name) {
+        if (name.equals(STORAGE_FILE)) {
+            return 0;
+        }
+        if (!name.startsWith(STORAGE_FILE_PREFIX) || !name.endsWith(STORAGE_FILE_SUFFIX)
+                || name.length() <= STORAGE_FILE_PREFIX.length() + STORAGE_FILE_SUFFIX.length()) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(STORAGE_FILE_PREFIX.length(),
+                    name.length() - STORAGE_FILE_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
     }
 
     /**
-     * Get the storage file path.
+     * Get the compiled dictionary file path.
      */
-    private static File getStorageFile(Context context) {
-        return new File(context.getFilesDir(), STORAGE_FILE);
+    private static File getDictionaryFile(File directory) {
+        return new File(directory, DICTIONARY_FILE);
     }
 }
 
@@ -20,6 +20,11 @@
 
 package com.gkohn11.spellcheckkeyboard.latin.settings;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import com.gkohn11.spellcheckkeyboard.latin.replacement.CsvReader;
+
 /**
  * Data model for a text replacement entry.
  */
@@ -98,84 +103,40 @@ public class TextReplacementEntry {
             return new TextReplacementEntry();
         }
 
-        String[] parts = parseCsvLine(csvLine);
-        if (parts.length < 3) {
+        byte[] bytes = csvLine.getBytes(StandardCharsets.UTF_8);
+        CsvReader reader = new CsvReader(bytes, 0, bytes.length);
+        try {
+            TextReplacementEntry entry = reader.nextRecord() ? fromCsv(reader) : null;
+            return entry != null ? entry : new TextReplacementEntry();
+        } catch (IOException e) {
+            // Reading from an array doesn't throw.
             return new TextReplacementEntry();
         }
-
-        String misspell = unescapeCsvField(parts[0].trim());
-        String correct = unescapeCsvField(parts[1].trim());
-        boolean alwaysOn = "true".equalsIgnoreCase(parts[2].trim());
-        int counter = 0;
-        if (parts.length >= 4) {
-            try {
-                counter = Integer.parseInt(parts[3].trim());
-            } catch (NumberFormatException e) {
-                counter = 0;
-            }
-        }
-
-        return new TextReplacementEntry(misspell, correct, alwaysOn, counter);
     }
 
     /**
-     * Escape CSV field if it contains comma, quote, or newline
+     * Convert the current record of a CSV reader.
+     * @return the entry, or null if the record has fewer than three fields
      */
-    private static String escapeCsvField(String field) {
-        if (field == null) {
-            return "";
+    public static TextReplacementEntry fromCsv(CsvReader reader) {
+        if (reader.getFieldCount() < 3) {
+            return null;
         }
-        if (field.contains(",") || field.contains("\"") || field.contains("\n")) {
-            return "\"" + field.replace("\"", "\"\"") + "\"";
-        }
-        return field;
+        return new TextReplacementEntry(reader.getString(0), reader.getString(1),
+                reader.getBoolean(2), reader.getInt(3, 0));
     }
 
     /**
-     * Unescape CSV field
+     * Escape CSV field if it contains comma, quote, or line break
      */
-    private static String unescapeCsvField(String field) {
+    private static String escapeCsvField(String field) {
         if (field == null) {
             return "";
         }
-        if (field.startsWith("\"") && field.endsWith("\"")) {
-            field = field.substring(1, field.length() - 1);
-            field = field.replace("\"\"", "\"");
+        if (field.contains(",") || field.contains("\"") || field.contains("\n")
+                || field.contains("\r")) {
+            return "\"" + field.replace("\"", "\"\"") + "\"";
         }
         return field;
     }
-
-    /**
-     * Parse CSV line handling quoted fields
-     */
-    private static String[] parseCsvLine(String line) {
-        java.util.List<String> fields = new java.util.ArrayList<>();
-        StringBuilder currentField = new StringBuilder();
-        boolean inQuotes = false;
-
-        for (int i = 0; i < line.length(); i++) {
-            char c = line.charAt(i);
-            if (c == '"') {
-                if (inQuotes && i + 1 < line.length() && line.charAt(i + 1) == '"') {
-                    // Escaped quote
-                    currentField.append('"');
-                    i++;
-                } else {
-                    // Toggle quote state
-                    inQuotes = !inQuotes;
-                }
-            } else if (c == ',' && !inQuotes) {
-                // Field separator
-                fields.add(currentField.toString());
-                currentField = new StringBuilder();
-            } else {
-                currentField.append(c);
-            }
-        }
-        fields.add(currentField.toString());
-
-        return fields.toArray(new String[fields.size()]);
-    }
 }
-
-
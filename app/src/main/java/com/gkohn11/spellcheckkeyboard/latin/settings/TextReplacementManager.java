@@ -22,32 +22,698 @@ package com.gkohn11.spellcheckkeyboard.latin.settings;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.text.TextUtils;
 import android.util.Log;
 
-import java.util.HashMap;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.gkohn11.spellcheckkeyboard.latin.replacement.BigramModel;
+import com.gkohn11.spellcheckkeyboard.latin.replacement.CompletionTrie;
+import com.gkohn11.spellcheckkeyboard.latin.replacement.CounterJournal;
+import com.gkohn11.spellcheckkeyboard.latin.replacement.CsvReader;
+import com.gkohn11.spellcheckkeyboard.latin.replacement.EditDistance;
+import com.gkohn11.spellcheckkeyboard.latin.replacement.EntryJournal;
+import com.gkohn11.spellcheckkeyboard.latin.replacement.LastWordExtractor;
+import com.gkohn11.spellcheckkeyboard.latin.replacement.MisspellingScanner;
+import com.gkohn11.spellcheckkeyboard.latin.replacement.PhraseMatcher;
+import com.gkohn11.spellcheckkeyboard.latin.replacement.ReplacementDictionary;
+import com.gkohn11.spellcheckkeyboard.latin.replacement.ReplacementLookup;
+import com.gkohn11.spellcheckkeyboard.latin.replacement.SymSpellIndex;
+import com.gkohn11.spellcheckkeyboard.latin.replacement.TouchHistory;
+import com.gkohn11.spellcheckkeyboard.latin.replacement.UserVocabulary;
 
 /**
  * Manager for text replacement functionality in the keyboard.
- * Loads replacements from CSV and provides lookup functionality.
+ * Memory-maps the compiled replacement dictionary and provides lookup functionality.
  */
 public class TextReplacementManager {
     private static final String TAG = "TextReplacementManager";
     /** Same prefs name and key as TextReplacementActivity for counter on/off */
     private static final String PREFS_NAME = "TextReplacementActivity";
     private static final String PREFS_COUNTER_VISIBLE = "text_replacement_counter_visible";
+    private static final String COUNTER_JOURNAL_FILE = "text_replacements_counters.journal";
+    /** Number of journal records after which the journal is folded back into the CSV. */
+    private static final int COUNTER_JOURNAL_COMPACT_THRESHOLD = 64;
+    private static final String ENTRY_JOURNAL_FILE = "text_replacements_entries.journal";
+    /** Number of entry edits after which they are folded back into the CSV. */
+    private static final int ENTRY_JOURNAL_COMPACT_THRESHOLD = 16;
+    /**
+     * Bundled list of common English words (most frequent first) used for fuzzy suggestions
+     * with the shared list, when the keyboard's language is English.
+     */
+    private static final String WORD_LIST_ASSET = "words_en.txt";
+    private static final String WORD_LIST_LANGUAGE = "en";
+    /** Word list of a language with a replacement list of its own: words_LANGUAGE.txt. */
+    private static final String LANGUAGE_WORD_LIST_ASSET_PREFIX = "words_";
+    private static final String LANGUAGE_WORD_LIST_ASSET_SUFFIX = ".txt";
+    /**
+     * Replacement lists kept loaded, so switching back to one of them needs no load; only the
+     * active one keeps its spelling index.
+     */
+    private static final int MAX_LOADED_LISTS = 3;
+    /** Correct spellings from the replacement list rank above any bundled word. */
+    private static final int REPLACEMENT_WORD_WEIGHT = 1000000;
+    private static final int MIN_FUZZY_WORD_LENGTH = 3;
+    /** Candidates taken from the spelling index before they are re-ranked by usage. */
+    private static final int SPELLING_CANDIDATE_POOL = 16;
+    private static final int MIN_COMPLETION_PREFIX_LENGTH = 2;
+    private static final String USER_VOCABULARY_FILE = "user_vocabulary.bin";
+    /** Number of distinct words the user vocabulary keeps before evicting the least recent. */
+    private static final int USER_VOCABULARY_CAPACITY = 5000;
+    /** Time after which the score of a word that is no longer typed has halved. */
+    private static final long USER_VOCABULARY_HALF_LIFE_MS = TimeUnit.DAYS.toMillis(30);
+    /** Minimum time between two checkpoints of the user vocabulary while typing. */
+    private static final long USER_VOCABULARY_CHECKPOINT_INTERVAL_MS = TimeUnit.MINUTES.toMillis(5);
+    /** Decayed score from which a typed word counts as one the user means to write. */
+    private static final float KNOWN_WORD_SCORE = 2.0f;
+    private static final String BIGRAM_FILE = "bigrams.bin";
+    /** Word pairs the bigram model holds; at 9 bytes a slot it takes 288 KiB. */
+    private static final int BIGRAM_SLOTS = 1 << 15;
+    /**
+     * Times the user must have kept a word after the same previous word before an always-on
+     * replacement of it stops being applied there.
+     */
+    private static final int CONTEXT_KEEP_COUNT = 2;
+    private static final Snapshot EMPTY_SNAPSHOT = new Snapshot(ReplacementDictionary.empty(),
+            new AtomicIntegerArray(0), PhraseMatcher.build(ReplacementDictionary.empty()),
+            ReplacementDictionary.empty());
 
     private static TextReplacementManager sInstance;
-    private Map<String, String> mReplacements;
-    private Map<String, Boolean> mAlwaysOnMap;
     private Context mContext;
     private boolean mInitialized = false;
+    // Loads, journal appends and compaction run here so the IME thread never waits on storage.
+    private final ExecutorService mStorageThread;
+    // The list edited in the settings screen, used by languages without a list of their own.
+    private final ReplacementList mSharedList;
+    // List that lookups use, or null while the list of a language seen for the first time is
+    // being found; lookups find nothing then. Switching to a list that is not loaded swaps it
+    // in right away, so its empty snapshot is used until the load publishes the list.
+    private volatile ReplacementList mList;
+    // Language of the current subtype, or null before it is known.
+    private volatile String mCurrentLanguage;
+    // List of each language seen so far, possibly the shared list.
+    private final Map<String, ReplacementList> mListByLanguage = new ConcurrentHashMap<>();
+    // Loaded lists, least recently used first; only accessed on the storage thread.
+    private final ArrayDeque<ReplacementList> mLoadedLists = new ArrayDeque<>();
+    // Scratch for getCompletions(), which only runs on the IME thread.
+    private final int[] mCompletionIds = new int[CompletionTrie.MAX_COMPLETIONS];
+    // Words the user commits, learned on the IME thread and checkpointed on the storage thread.
+    private final UserVocabulary mUserVocabulary =
+            new UserVocabulary(USER_VOCABULARY_CAPACITY, USER_VOCABULARY_HALF_LIFE_MS);
+    private final File mUserVocabularyFile;
+    // Word pairs the user commits, learned and checkpointed like the user vocabulary.
+    private final BigramModel mBigramModel = new BigramModel(BIGRAM_SLOTS);
+    private final File mBigramFile;
+    // Only accessed on the IME thread.
+    private long mLastVocabularyCheckpoint;
+
+    /**
+     * Everything a lookup needs from one load. A reload builds a new snapshot off to the side
+     * and publishes it with a single reference swap, so readers never block and never mix
+     * entries of two loads.
+     *
+     * The usage counters are the one part that changes after publishing. They are atomic, as
+     * the IME thread increments them while the storage thread reads them to weigh the words of
+     * the spelling index and the completion trie. An edit copies the counters of the
+     * other edits into its new snapshot, so an increment of an edit that lands in the old
+     * snapshot right after is missing from memory; it is still in the counter journal, so the
+     * next load or compaction counts it.
+     *
+     * Entries edited since the dictionary was compiled sit in a small heap dictionary on top of
+     * it. An edit publishes a new snapshot that shares the compiled dictionary and its counters,
+     * so its cost depends on the number of edits, not on the size of the list. Entries are
+     * referred to by index: the compiled entries first, then the edits.
+     */
+    private static final class Snapshot implements ReplacementLookup {
+        final ReplacementDictionary mDictionary;
+        // Live usage counters, indexed like mDictionary (compiled counter plus later increments).
+        final AtomicIntegerArray mCounters;
+        // Multi-word and punctuation keys of mDictionary and mEdits.
+        final PhraseMatcher mPhraseMatcher;
+        // Entries added or replaced since mDictionary was compiled, and their live counters.
+        final ReplacementDictionary mEdits;
+        final AtomicIntegerArray mEditCounters;
+
+        Snapshot(ReplacementDictionary dictionary, AtomicIntegerArray counters,
+                PhraseMatcher phraseMatcher, ReplacementDictionary edits) {
+            mDictionary = dictionary;
+            mCounters = counters;
+            mPhraseMatcher = phraseMatcher;
+            mEdits = edits;
+            mEditCounters = new AtomicIntegerArray(edits.size());
+            for (int i = 0; i < edits.size(); i++) {
+                mEditCounters.set(i, edits.getCounter(i));
+            }
+        }
+
+        /**
+         * @return the entry for text[start, end), or NOT_FOUND. An edit replaces the compiled
+         *         entry with the same key; an exact-case entry still wins over a case-insensitive
+         *         one.
+         */
+        @Override
+        public int find(CharSequence text, int start, int end) {
+            int index = mDictionary.find(text, start, end);
+            if (mEdits.size() == 0) {
+                return index;
+            }
+            int edit = mEdits.find(text, start, end);
+            if (edit == ReplacementDictionary.NOT_FOUND) {
+                return index;
+            }
+            if (index != ReplacementDictionary.NOT_FOUND && isExactCaseKey(mDictionary.getKey(index))
+                    && !isExactCaseKey(mEdits.getKey(edit))) {
+                return index;
+            }
+            return mDictionary.size() + edit;
+        }
+
+        /**
+         * @return the entry for a stored key, or NOT_FOUND
+         */
+        int findKey(String key) {
+            int edit = indexOfKey(mEdits, key);
+            if (edit != ReplacementDictionary.NOT_FOUND) {
+                return mDictionary.size() + edit;
+            }
+            return indexOfKey(mDictionary, key);
+        }
+
+        String getKey(int index) {
+            int size = mDictionary.size();
+            return index < size ? mDictionary.getKey(index) : mEdits.getKey(index - size);
+        }
+
+        @Override
+        public String getValue(int index) {
+            int size = mDictionary.size();
+            return index < size ? mDictionary.getValue(index) : mEdits.getValue(index - size);
+        }
+
+        @Override
+        public int getValueLength(int index) {
+            int size = mDictionary.size();
+            return index < size ? mDictionary.getValueLength(index)
+                    : mEdits.getValueLength(index - size);
+        }
+
+        boolean isAlwaysOn(int index) {
+            int size = mDictionary.size();
+            return index < size ? mDictionary.isAlwaysOn(index) : mEdits.isAlwaysOn(index - size);
+        }
+
+        /**
+         * @return the number of entries, including compiled entries hidden by an edit
+         */
+        int size() {
+            return mDictionary.size() + mEdits.size();
+        }
+
+        /**
+         * @return whether the entry is a compiled one that an edit of the same key replaced
+         */
+        boolean isReplacedByEdit(int index) {
+            return index < mDictionary.size() && mEdits.size() > 0
+                    && indexOfKey(mEdits, mDictionary.getKey(index))
+                            != ReplacementDictionary.NOT_FOUND;
+        }
+
+        int getCounter(int index) {
+            int size = mDictionary.size();
+            return index < size ? mCounters.get(index) : mEditCounters.get(index - size);
+        }
+
+        /**
+         * Add to a live counter; safe from any thread.
+         */
+        void addToCounter(int index, int increment) {
+            int size = mDictionary.size();
+            if (index < size) {
+                mCounters.addAndGet(index, increment);
+            } else {
+                mEditCounters.addAndGet(index - size, increment);
+            }
+        }
+
+        /**
+         * @return a snapshot with entry added, or replacing the entry with the same key
+         */
+        Snapshot withEdit(TextReplacementEntry entry) {
+            ReplacementDictionary.Builder builder = new ReplacementDictionary.Builder();
+            for (int i = 0; i < mEdits.size(); i++) {
+                builder.add(mEdits.getKey(i), mEdits.getValue(i), mEdits.isAlwaysOn(i),
+                        mEditCounters.get(i));
+            }
+            builder.add(entry.getMisspell(), entry.getCorrect(), entry.isAlwaysOn(),
+                    entry.getCounter());
+            ReplacementDictionary edits = builder.build();
+            // Only a phrase key changes the phrases to match.
+            String key = ReplacementDictionary.keyFor(entry.getMisspell());
+            int keyStart = isExactCaseKey(key) ? 1 : 0;
+            PhraseMatcher phraseMatcher = PhraseMatcher.isPhrase(key, keyStart, key.length())
+                    ? PhraseMatcher.build(mDictionary, edits) : mPhraseMatcher;
+            return new Snapshot(mDictionary, mCounters, phraseMatcher, edits);
+        }
+
+        private static boolean isExactCaseKey(String key) {
+            return key.length() > 1 && key.charAt(0) == ReplacementDictionary.EXACT_CASE_PREFIX;
+        }
+    }
+
+    /**
+     * A replacement list and everything loaded from it: the shared list, or the list of a
+     * language (see {@link TextReplacementCsvManager#hasLanguageList}). Each list has its own
+     * files and journals. Loading and unloading happen on the storage thread.
+     */
+    private final class ReplacementList {
+        // Language of the list, or null for the shared list.
+        final String mLanguage;
+        // Empty until the first load finishes in the background; lookups simply miss until then.
+        final AtomicReference<Snapshot> mSnapshot = new AtomicReference<>(EMPTY_SNAPSHOT);
+        final CounterJournal mCounterJournal;
+        final EntryJournal mEntryJournal;
+        // Whether the snapshot holds the list rather than nothing.
+        volatile boolean mLoaded;
+        // Only accessed on the storage thread.
+        int mPendingJournalRecords = 0;
+        int mPendingEntryRecords = 0;
+        // Edits already published but not yet in the entry journal, oldest first. Snapshots are
+        // only published while holding this lock, so a load can't drop an edit made during it.
+        final ArrayDeque<TextReplacementEntry> mUnjournaledEdits = new ArrayDeque<>();
+        // Number of snapshots published so far; guarded by mUnjournaledEdits.
+        long mPublishCount;
+        // Only kept while the list is the active one: built in the background after it is
+        // loaded or switched to, then updated word by word as entries are edited. Null until
+        // the build finishes.
+        volatile SymSpellIndex mSpellIndex;
+        // Publish count of the snapshot the spelling index was built from; edits published
+        // after it still have to be applied. Only accessed on the storage thread.
+        long mSpellIndexPublishCount;
+        // Whether a build of the spelling index is queued. Only accessed on the storage thread.
+        boolean mSpellIndexBuildScheduled;
+        // Built from the correct spellings after each load and edit; empty until the first
+        // build finishes.
+        volatile CompletionTrie mCompletionTrie = CompletionTrie.empty();
+        // Bundled word list added to the spelling index, or null for none. The shared list
+        // only gets one while it serves English. Only accessed on the storage thread.
+        String mWordListAsset;
+
+        ReplacementList(String language) {
+            mLanguage = language;
+            mWordListAsset = language == null ? WORD_LIST_ASSET
+                    : LANGUAGE_WORD_LIST_ASSET_PREFIX + language + LANGUAGE_WORD_LIST_ASSET_SUFFIX;
+            File directory = TextReplacementCsvManager.getListDirectory(mContext, language);
+            mCounterJournal = new CounterJournal(new File(directory, COUNTER_JOURNAL_FILE));
+            mEntryJournal = new EntryJournal(new File(directory, ENTRY_JOURNAL_FILE));
+        }
+
+        /**
+         * Load the list, publish it and rebuild the completion trie in the background.
+         * @param rebuildSpellIndex whether to rebuild the spelling index from scratch as well,
+         *        rather than keeping it when the load only folded edits it already has
+         */
+        void load(boolean rebuildSpellIndex) {
+            try {
+                // Compiles the dictionary from CSV only if it is missing or stale
+                ReplacementDictionary dictionary =
+                        TextReplacementCsvManager.loadDictionary(mContext, mLanguage);
+                AtomicIntegerArray counters = new AtomicIntegerArray(dictionary.size());
+                for (int i = 0; i < dictionary.size(); i++) {
+                    counters.set(i, dictionary.getCounter(i));
+                }
+
+                // Edits not yet compacted into the CSV go on top, in the order they were made.
+                final ReplacementDictionary.Builder edits = new ReplacementDictionary.Builder();
+                int entryRecords = mEntryJournal.replay(new EntryJournal.Replayer() {
+                    @Override
+                    public void onRecord(CsvReader record) {
+                        TextReplacementEntry entry = TextReplacementEntry.fromCsv(record);
+                        if (entry != null) {
+                            edits.add(entry.getMisspell(), entry.getCorrect(), entry.isAlwaysOn(),
+                                    entry.getCounter());
+                        }
+                    }
+                });
+                ReplacementDictionary editDictionary = edits.build();
+                PhraseMatcher phraseMatcher = PhraseMatcher.build(dictionary, editDictionary);
+                Snapshot snapshot =
+                        new Snapshot(dictionary, counters, phraseMatcher, editDictionary);
+
+                // Increments not yet compacted into the CSV still count.
+                Map<String, Integer> pending = mCounterJournal.readCounts();
+                int pendingRecords = 0;
+                for (Map.Entry<String, Integer> record : pending.entrySet()) {
+                    int index = snapshot.findKey(record.getKey());
+                    if (index != ReplacementDictionary.NOT_FOUND) {
+                        snapshot.addToCounter(index, record.getValue());
+                    }
+                    pendingRecords += record.getValue();
+                }
+
+                synchronized (mUnjournaledEdits) {
+                    for (TextReplacementEntry entry : mUnjournaledEdits) {
+                        snapshot = snapshot.withEdit(entry);
+                    }
+                    mSnapshot.set(snapshot);
+                    mPublishCount++;
+                }
+                mLoaded = true;
+                mPendingJournalRecords = pendingRecords;
+                mPendingEntryRecords = entryRecords;
+                Log.d(TAG, "Loaded " + dictionary.size() + " text replacements ("
+                        + (mLanguage == null ? "shared" : mLanguage) + "), "
+                        + phraseMatcher.size() + " of them phrases");
+                if (rebuildSpellIndex || mSpellIndex == null) {
+                    scheduleSpellIndexBuild();
+                } else {
+                    scheduleCompletionTrieBuild();
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to load text replacements", e);
+            }
+        }
+
+        /**
+         * Drop everything loaded from the list; its edits and journals are kept.
+         */
+        void unload() {
+            synchronized (mUnjournaledEdits) {
+                mSnapshot.set(EMPTY_SNAPSHOT);
+                mPublishCount++;
+            }
+            mLoaded = false;
+            mSpellIndex = null;
+            mCompletionTrie = CompletionTrie.empty();
+        }
+
+        /**
+         * Use the bundled word list of a language in the spelling index, rebuilding it if that
+         * changes which word list is used. Call on the storage thread.
+         * @param language the keyboard's language, which for the shared list may be any
+         *        language without a list of its own
+         */
+        void setWordListLanguage(String language) {
+            if (mLanguage != null) {
+                return;
+            }
+            String asset = language == null || language.equals(WORD_LIST_LANGUAGE)
+                    ? WORD_LIST_ASSET : null;
+            if (TextUtils.equals(asset, mWordListAsset)) {
+                return;
+            }
+            mWordListAsset = asset;
+            if (mLoaded) {
+                // No suggestions from the other language's words while it is rebuilt.
+                mSpellIndex = null;
+                scheduleSpellIndexBuild();
+            }
+        }
+
+        /**
+         * Rebuild the fuzzy spelling index from the correct spellings of the current snapshot,
+         * edits included, and the bundled word list on the storage thread, then publish it. The
+         * completion trie is rebuilt and published first. Nothing is built unless the list is
+         * the active one.
+         */
+        private void scheduleSpellIndexBuild() {
+            if (mSpellIndexBuildScheduled) {
+                return;
+            }
+            mSpellIndexBuildScheduled = true;
+            mStorageThread.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mSpellIndexBuildScheduled = false;
+                    if (!mLoaded || !isActive()) {
+                        return;
+                    }
+                    Snapshot snapshot;
+                    long publishCount;
+                    synchronized (mUnjournaledEdits) {
+                        snapshot = mSnapshot.get();
+                        publishCount = mPublishCount;
+                    }
+                    mCompletionTrie = buildCompletionTrie(snapshot);
+                    SymSpellIndex index = new SymSpellIndex();
+                    for (int i = 0; i < snapshot.size(); i++) {
+                        if (snapshot.isReplacedByEdit(i)) {
+                            continue;
+                        }
+                        String correct = resolveCapitalizePrefix(snapshot.getValue(i));
+                        if (isFuzzyCandidate(correct)) {
+                            index.add(correct, REPLACEMENT_WORD_WEIGHT + snapshot.getCounter(i));
+                        }
+                    }
+                    if (mWordListAsset != null) {
+                        loadWordList(index, mWordListAsset);
+                    }
+                    index.trimToSize();
+                    mSpellIndex = index;
+                    mSpellIndexPublishCount = publishCount;
+                    Log.d(TAG, "Built spelling index with " + index.size() + " words");
+                }
+            });
+        }
+
+        /**
+         * Rebuild only the completion trie from the current snapshot on the storage thread,
+         * e.g. after an edit that was applied to the spelling index word by word.
+         */
+        private void scheduleCompletionTrieBuild() {
+            mStorageThread.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (mLoaded) {
+                        mCompletionTrie = buildCompletionTrie(mSnapshot.get());
+                    }
+                }
+            });
+        }
+
+        private CompletionTrie buildCompletionTrie(Snapshot snapshot) {
+            CompletionTrie.Builder completions = new CompletionTrie.Builder();
+            for (int i = 0; i < snapshot.size(); i++) {
+                if (snapshot.isReplacedByEdit(i)) {
+                    continue;
+                }
+                String correct = resolveCapitalizePrefix(snapshot.getValue(i));
+                if (isFuzzyCandidate(correct)) {
+                    completions.add(correct, snapshot.getCounter(i));
+                }
+            }
+            return completions.build();
+        }
+
+        /**
+         * Drop the spelling index, e.g. when another list becomes the active one. Runs on the
+         * storage thread.
+         */
+        void dropSpellIndex() {
+            mSpellIndex = null;
+        }
+
+        /**
+         * @return whether lookups use this list, as of the last switch. Call on the storage
+         *         thread.
+         */
+        private boolean isActive() {
+            return mLoadedLists.peekLast() == this;
+        }
+
+        /**
+         * Apply an edit published as publishCount to the spelling index, unless the index was
+         * built from a snapshot that already has it: only the old and the new correct spelling
+         * are touched. Runs on the storage thread.
+         * @param oldCorrect the raw correct spelling the edit replaced, or null for a new entry
+         */
+        private void updateSpellIndex(long publishCount, String oldCorrect,
+                TextReplacementEntry entry) {
+            SymSpellIndex index = mSpellIndex;
+            if (index == null || publishCount <= mSpellIndexPublishCount) {
+                return;
+            }
+            String previous = resolveCapitalizePrefix(oldCorrect);
+            if (isFuzzyCandidate(previous)) {
+                index.remove(previous);
+            }
+            String correct = resolveCapitalizePrefix(entry.getCorrect().trim());
+            if (isFuzzyCandidate(correct)) {
+                index.add(correct, REPLACEMENT_WORD_WEIGHT + entry.getCounter());
+            }
+        }
+
+        /**
+         * Journal a counter increment already applied to the snapshot. Runs on the storage
+         * thread.
+         */
+        void journalCounter(String key) {
+            try {
+                mCounterJournal.append(key);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to journal counter for key: " + key, e);
+            }
+            if (++mPendingJournalRecords >= COUNTER_JOURNAL_COMPACT_THRESHOLD) {
+                compactPendingJournals();
+            }
+        }
+
+        /**
+         * Compact the journals and start counting their records from zero; compaction clears
+         * both journals, whichever of them reached its threshold. Runs on the storage thread.
+         */
+        private void compactPendingJournals() {
+            mPendingJournalRecords = 0;
+            mPendingEntryRecords = 0;
+            compactJournals();
+        }
+
+        /**
+         * See {@link TextReplacementManager#upsert}.
+         */
+        void upsert(final TextReplacementEntry entry) {
+            final String misspell = entry.getMisspell().trim();
+            if (misspell.isEmpty()) {
+                return;
+            }
+            final String oldCorrect;
+            final long publishCount;
+            synchronized (mUnjournaledEdits) {
+                Snapshot snapshot = mSnapshot.get();
+                int index = snapshot.findKey(ReplacementDictionary.keyFor(misspell));
+                oldCorrect = index != ReplacementDictionary.NOT_FOUND
+                        ? snapshot.getValue(index) : null;
+                mSnapshot.set(snapshot.withEdit(entry));
+                publishCount = ++mPublishCount;
+                mUnjournaledEdits.addLast(entry);
+            }
+
+            mStorageThread.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        mEntryJournal.append(entry.toCsv());
+                    } catch (IOException e) {
+                        Log.e(TAG, "Failed to journal replacement for: " + misspell, e);
+                    }
+                    synchronized (mUnjournaledEdits) {
+                        mUnjournaledEdits.removeFirst();
+                    }
+                    // So that the new correct spelling is suggested instead of the old one.
+                    updateSpellIndex(publishCount, oldCorrect, entry);
+                    // Phrase keys need the phrase matcher rebuilt, so they are compacted right
+                    // away. An unloaded list picks the edit up from the CSV when it is loaded.
+                    int keyStart =
+                            misspell.charAt(0) == ReplacementDictionary.EXACT_CASE_PREFIX ? 1 : 0;
+                    if (++mPendingEntryRecords >= ENTRY_JOURNAL_COMPACT_THRESHOLD
+                            || PhraseMatcher.isPhrase(misspell, keyStart, misspell.length())) {
+                        compactPendingJournals();
+                        if (mLoaded) {
+                            load(false);
+                        }
+                    } else if (mLoaded) {
+                        // So that the new correct spelling is completed; a load does this too.
+                        scheduleCompletionTrieBuild();
+                    }
+                }
+            });
+        }
+
+        /**
+         * See {@link TextReplacementManager#compactJournals}.
+         */
+        void compactJournals() {
+            synchronized (TextReplacementCsvManager.class) {
+                // Holding the journals keeps edits and increments from being appended between
+                // reading and clearing.
+                synchronized (mEntryJournal) {
+                    synchronized (mCounterJournal) {
+                        try {
+                            foldJournals();
+                        } catch (IOException e) {
+                            Log.e(TAG, "Failed to compact journals", e);
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Merge the journals into the CSV. Both are only cleared once the CSV is saved, so a
+         * failed or interrupted save folds them in again next time.
+         */
+        private void foldJournals() throws IOException {
+            final Map<String, TextReplacementEntry> edits = new LinkedHashMap<>();
+            mEntryJournal.replay(new EntryJournal.Replayer() {
+                @Override
+                public void onRecord(CsvReader record) {
+                    TextReplacementEntry entry = TextReplacementEntry.fromCsv(record);
+                    if (entry != null && !entry.getMisspell().isEmpty()) {
+                        // A later edit of the same entry replaces the earlier one.
+                        String key = ReplacementDictionary.keyFor(entry.getMisspell());
+                        edits.remove(key);
+                        edits.put(key, entry);
+                    }
+                }
+            });
+            Map<String, Integer> counts = mCounterJournal.readCounts();
+            if (edits.isEmpty() && counts.isEmpty()) {
+                return;
+            }
+            List<TextReplacementEntry> entries =
+                    TextReplacementCsvManager.loadCsvFromStorage(mContext, mLanguage);
+            // Edits replace their entry in place; new entries go to the top, newest first.
+            for (int i = 0; i < entries.size(); i++) {
+                String misspell = entries.get(i).getMisspell();
+                if (misspell == null || misspell.trim().isEmpty()) continue;
+                TextReplacementEntry edit = edits.remove(ReplacementDictionary.keyFor(misspell));
+                if (edit != null) {
+                    entries.set(i, edit);
+                }
+            }
+            for (TextReplacementEntry edit : edits.values()) {
+                entries.add(0, edit);
+            }
+            for (TextReplacementEntry entry : entries) {
+                String misspell = entry.getMisspell();
+                if (misspell == null || misspell.trim().isEmpty()) continue;
+                Integer increments = counts.get(ReplacementDictionary.keyFor(misspell));
+                if (increments != null) {
+                    entry.setCounter(entry.getCounter() + increments);
+                }
+            }
+            if (TextReplacementCsvManager.saveCsvToStorage(mContext, mLanguage, entries, null,
+                    null)) {
+                mEntryJournal.clear();
+                mCounterJournal.clear();
+            }
+        }
+    }
 
     private TextReplacementManager(Context context) {
         mContext = context.getApplicationContext();
-        mReplacements = new HashMap<>();
-        mAlwaysOnMap = new HashMap<>();
+        mSharedList = new ReplacementList(null);
+        mList = mSharedList;
+        mUserVocabularyFile = new File(mContext.getFilesDir(), USER_VOCABULARY_FILE);
+        mBigramFile = new File(mContext.getFilesDir(), BIGRAM_FILE);
+        mStorageThread = Executors.newSingleThreadExecutor();
     }
 
     public static synchronized TextReplacementManager getInstance(Context context) {
@@ -58,54 +724,195 @@ public class TextReplacementManager {
     }
 
     /**
-     * Initialize and load replacements from CSV
+     * Start loading replacements from the compiled dictionary in the background, for the
+     * language last passed to {@link #setLocale}. Returns right away; lookups find nothing until
+     * the dictionary is published.
      */
     public void initialize() {
         if (mInitialized) {
             return;
         }
-        loadReplacements();
         mInitialized = true;
+        mLastVocabularyCheckpoint = System.currentTimeMillis();
+        mStorageThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mUserVocabulary.readFrom(mUserVocabularyFile);
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to load user vocabulary", e);
+                }
+                try {
+                    mBigramModel.readFrom(mBigramFile);
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to load bigram model", e);
+                }
+            }
+        });
+        scheduleSwitchTo(mCurrentLanguage);
     }
 
     /**
-     * Reload replacements from CSV (call when replacements are updated)
+     * Reload the shared list in the background (call when replacements are updated in the
+     * settings screen). Lookups keep using the previous dictionary until the new one is
+     * published.
      */
     public void reload() {
-        mReplacements.clear();
-        mAlwaysOnMap.clear();
-        loadReplacements();
-    }
-
-    private void loadReplacements() {
-        try {
-            // Initialize default CSV if needed
-            TextReplacementCsvManager.initializeDefaultCsv(mContext);
-            
-            // Load from storage
-            List<TextReplacementEntry> entries = TextReplacementCsvManager.loadCsvFromStorage(mContext);
-            
-            // Build lookup maps. ^ on misspell = exact case match (key stored as "^im"); no ^ = case-insensitive (key "im").
-            for (TextReplacementEntry entry : entries) {
-                String misspell = entry.getMisspell();
-                String correct = entry.getCorrect();
-                if (misspell != null && !misspell.trim().isEmpty()) {
-                    // Trim to avoid whitespace issues
-                    misspell = misspell.trim();
-                    correct = correct != null ? correct.trim() : "";
-                    String key = misspell.startsWith("^") ? misspell : misspell.toLowerCase();
-                    mReplacements.put(key, correct);
-                    mAlwaysOnMap.put(key, entry.isAlwaysOn());
-                    Log.d(TAG, "Loaded replacement: key='" + key + "' -> '" + correct + "'");
+        reload(null);
+    }
+
+    /**
+     * Like {@link #reload()}, for the list of a language. A list the settings screen has just
+     * created for a language that used the shared list so far takes over from it, and is
+     * switched to if the keyboard is using that language.
+     * @param language the language of the list, or null for the shared list
+     */
+    public void reload(final String language) {
+        mStorageThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean created = false;
+                if (language != null) {
+                    synchronized (mListByLanguage) {
+                        created = mListByLanguage.get(language) == mSharedList
+                                && TextReplacementCsvManager.hasLanguageList(mContext, language);
+                        if (created) {
+                            mListByLanguage.remove(language);
+                        }
+                    }
+                }
+                if (created && mInitialized && language.equals(mCurrentLanguage)) {
+                    scheduleSwitchTo(language);
+                    return;
+                }
+                ReplacementList list = getList(language);
+                if (list.mLoaded) {
+                    list.load(true);
+                }
+            }
+        });
+    }
+
+    /**
+     * Use the replacements for the language of locale, e.g. when the keyboard's subtype
+     * changes. A language without a list of its own uses the shared list. If the list is
+     * still loaded this is a reference swap; otherwise it is loaded in the background, and
+     * lookups find nothing until it is published, rather than using the previous language's
+     * replacements. Call on the IME thread.
+     * @param locale the locale of the current subtype, or null for the shared list
+     */
+    public void setLocale(Locale locale) {
+        final String language = locale == null || locale.getLanguage().isEmpty() ? null
+                : locale.getLanguage();
+        mCurrentLanguage = language;
+        if (!mInitialized) {
+            // initialize() loads it
+            return;
+        }
+        // An unknown language is looked up on the storage thread; until then there is no list.
+        mList = language == null ? mSharedList : mListByLanguage.get(language);
+        scheduleSwitchTo(language);
+    }
+
+    /**
+     * Load the list of a language if needed, mark it as most recently used and make it the
+     * current list, unloading the least recently used lists beyond {@link #MAX_LOADED_LISTS}.
+     */
+    private void scheduleSwitchTo(final String language) {
+        mStorageThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                ReplacementList list = getList(language);
+                list.setWordListLanguage(language);
+                if (!list.mLoaded) {
+                    list.load(true);
+                }
+                mLoadedLists.remove(list);
+                mLoadedLists.addLast(list);
+                while (mLoadedLists.size() > MAX_LOADED_LISTS) {
+                    mLoadedLists.removeFirst().unload();
+                }
+                // Only the active list keeps a spelling index; the others are rebuilt when
+                // switched back to.
+                for (ReplacementList loaded : mLoadedLists) {
+                    if (loaded != list) {
+                        loaded.dropSpellIndex();
+                    }
+                }
+                if (list.mSpellIndex == null) {
+                    list.scheduleSpellIndexBuild();
+                }
+                // Another language may have been chosen in the meantime; its switch follows.
+                String current = mCurrentLanguage;
+                if (language == null ? current == null : language.equals(current)) {
+                    mList = list;
                 }
             }
-            
-            Log.d(TAG, "Loaded " + mReplacements.size() + " text replacements");
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to load text replacements", e);
+        });
+    }
+
+    /**
+     * @return the list that serves a language, found out on first use
+     */
+    private ReplacementList getList(String language) {
+        if (language == null) {
+            return mSharedList;
+        }
+        // The settings screen also looks lists up, so a list is never created twice.
+        synchronized (mListByLanguage) {
+            ReplacementList list = mListByLanguage.get(language);
+            if (list == null) {
+                list = TextReplacementCsvManager.hasLanguageList(mContext, language)
+                        ? new ReplacementList(language) : mSharedList;
+                mListByLanguage.put(language, list);
+            }
+            return list;
+        }
+    }
+
+    private void loadWordList(SymSpellIndex index, String asset) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                mContext.getAssets().open(asset), StandardCharsets.UTF_8))) {
+            // Earlier lines are more frequent, so they get a higher weight.
+            int weight = REPLACEMENT_WORD_WEIGHT - 1;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String word = line.trim();
+                if (isFuzzyCandidate(word)) {
+                    index.add(word, weight--);
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to load word list " + asset, e);
         }
     }
 
+    /**
+     * Only single words made of letters (apostrophes allowed) are offered as fuzzy suggestions.
+     */
+    private static boolean isFuzzyCandidate(String word) {
+        if (word == null || word.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if (!Character.isLetter(c) && c != '\'') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find the entry for a stored key ("^im" for exact case, folded "im" otherwise).
+     */
+    private static int indexOfKey(ReplacementDictionary dictionary, String key) {
+        if (key.length() > 1 && key.charAt(0) == ReplacementDictionary.EXACT_CASE_PREFIX) {
+            return dictionary.indexOf(key, 1, key.length(), true);
+        }
+        return dictionary.indexOf(key, 0, key.length(), false);
+    }
+
     /**
      * Resolve the ^ prefix on Correct: "^I'm" means use exact case "I'm" (strip ^, no case matching).
      */
@@ -122,35 +929,397 @@ public class TextReplacementManager {
      * @return The raw correct spelling if found, null otherwise
      */
     public String getReplacement(String word) {
-        if (word == null || word.isEmpty()) {
+        Snapshot snapshot = getSnapshot();
+        int index = resolveIndex(snapshot, word);
+        if (index == ReplacementDictionary.NOT_FOUND) {
             return null;
         }
-        // Exact-case match first (misspell stored as "^im")
-        String exact = mReplacements.get("^" + word);
-        if (exact != null) {
-            Log.d(TAG, "getReplacement exact match: word='" + word + "' -> '" + exact + "'");
-            return exact;
+        return snapshot.getValue(index);
+    }
+
+    /**
+     * Look up the word text[start, end) once and fill in everything known about its entry,
+     * with the same key logic as getReplacement. Case folding happens while comparing keys, so
+     * no string is created for the word and a miss allocates nothing. Safe to call from a
+     * background thread, as long as each thread uses its own result.
+     * @param result filled in on a hit, cleared on a miss
+     * @return whether an entry was found
+     */
+    public boolean lookup(CharSequence text, int start, int end, LookupResult result) {
+        Snapshot snapshot = getSnapshot();
+        int index = resolveIndex(snapshot, text, start, end);
+        if (index == ReplacementDictionary.NOT_FOUND) {
+            result.clear();
+            return false;
+        }
+        result.mReplacement = snapshot.getValue(index);
+        result.mAlwaysOn = snapshot.isAlwaysOn(index);
+        result.mCounter = snapshot.getCounter(index);
+        return true;
+    }
+
+    /**
+     * Scanner for the misspelled words and phrases of text, working on the replacements
+     * loaded right now even if they are reloaded during the scan. Safe to call from a
+     * background thread.
+     */
+    public MisspellingScanner newMisspellingScanner(CharSequence text) {
+        Snapshot snapshot = getSnapshot();
+        return new MisspellingScanner(snapshot, snapshot.mPhraseMatcher, text);
+    }
+
+    /**
+     * Find the longest phrase replacement that ends at text position end, in one pass over the
+     * longest-key window before it.
+     * @return the start of the phrase, or -1 if none ends there
+     */
+    public int findPhraseEndingAt(CharSequence text, int end) {
+        Snapshot snapshot = getSnapshot();
+        PhraseMatcher matcher = snapshot.mPhraseMatcher;
+        if (matcher.size() == 0 || end <= 0) {
+            return -1;
+        }
+        int state = PhraseMatcher.ROOT;
+        for (int i = Math.max(0, end - matcher.getMaxKeyLength()); i < end; i++) {
+            state = matcher.next(state, text.charAt(i));
         }
-        String result = mReplacements.get(word.toLowerCase());
-        if (result != null) {
-            Log.d(TAG, "getReplacement case-insensitive: word='" + word + "' -> '" + result + "'");
+        for (int match = matcher.firstMatch(state); match != PhraseMatcher.NO_MATCH;
+                match = matcher.nextMatch(match)) {
+            int start = end - matcher.getMatchLength(match);
+            if (PhraseMatcher.findEntry(snapshot, text, start, end)
+                    != ReplacementDictionary.NOT_FOUND) {
+                return start;
+            }
         }
-        return result;
+        return -1;
     }
 
     /**
-     * Check if a replacement should always be applied automatically (same key logic as getReplacement).
+     * Entry found by {@link #lookup}. Callers keep one instance and reuse it for every lookup.
      */
-    public boolean isAlwaysOn(String word) {
-        if (word == null || word.isEmpty()) {
-            return false;
+    public static final class LookupResult {
+        private String mReplacement;
+        private boolean mAlwaysOn;
+        private int mCounter;
+
+        private void clear() {
+            mReplacement = null;
+            mAlwaysOn = false;
+            mCounter = 0;
+        }
+
+        public boolean isFound() {
+            return mReplacement != null;
+        }
+
+        /**
+         * @return the raw correct spelling (may start with ^), or null if nothing was found
+         */
+        public String getReplacement() {
+            return mReplacement;
+        }
+
+        /**
+         * Whether the replacement should always be applied automatically.
+         */
+        public boolean isAlwaysOn() {
+            return mAlwaysOn;
+        }
+
+        /**
+         * Whether the correct spelling is used in its exact case (stored with ^) instead of
+         * following the case of the typed word.
+         */
+        public boolean isExactCase() {
+            return mReplacement != null && mReplacement.length() > 0
+                    && mReplacement.charAt(0) == ReplacementDictionary.EXACT_CASE_PREFIX;
+        }
+
+        /**
+         * @return the usage counter, including increments still pending in the journal
+         */
+        public int getCounter() {
+            return mCounter;
+        }
+    }
+
+    /**
+     * Nearest known spelling for a word that has no exact replacement entry, using the
+     * symmetric-delete index (edit distance 1 for short words, 2 otherwise).
+     * @return the suggested word in lower case, or null if the word is known, too short,
+     *         nothing is close enough, or the index is still being built
+     */
+    public String getSpellingSuggestion(String word) {
+        return getSpellingSuggestion(word, null);
+    }
+
+    /**
+     * Like {@link #getSpellingSuggestion(String)}, but ranks candidates by keyboard proximity
+     * when the touch history of the typed word is known.
+     * @param touchHistory taps that typed the word, or null; ignored if it doesn't match word
+     */
+    public String getSpellingSuggestion(String word, TouchHistory touchHistory) {
+        List<String> suggestions = getSpellingSuggestions(word, touchHistory, 1);
+        return suggestions.isEmpty() ? null : suggestions.get(0);
+    }
+
+    /**
+     * The best spellings for a word that has no exact replacement entry, ranked by edit cost
+     * and by how often they were chosen as a correction or typed (see {@link UsageRanking}).
+     * @param touchHistory taps that typed the word, or null; ignored if it doesn't match word
+     * @return at most maxResults words in lower case, best first; empty if the word is known
+     *         (also from the user vocabulary), too short, nothing is close enough, or the index
+     *         is still being built
+     */
+    public List<String> getSpellingSuggestions(String word, TouchHistory touchHistory,
+            int maxResults) {
+        return getSpellingSuggestions(word, null, touchHistory, maxResults);
+    }
+
+    /**
+     * Like {@link #getSpellingSuggestions(String, TouchHistory, int)}, but also ranks up the
+     * words the user often writes after previousWord.
+     * @param previousWord the word before the typed one, or null if there is none
+     */
+    public List<String> getSpellingSuggestions(String word, String previousWord,
+            TouchHistory touchHistory, int maxResults) {
+        SpellingResult result = new SpellingResult();
+        int count = getSpellingSuggestions(word, previousWord, 0,
+                previousWord != null ? previousWord.length() : 0, touchHistory, maxResults,
+                result);
+        if (count == 0) {
+            return Collections.emptyList();
+        }
+        List<String> words = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            words.add(result.getWord(i));
+        }
+        return words;
+    }
+
+    /**
+     * Like {@link #getSpellingSuggestions(String, String, TouchHistory, int)}, but takes the
+     * previous word as a range of text and leaves the words in result instead of allocating a
+     * list, for the typing path.
+     * @param text text holding the previous word from previousStart to previousEnd, or null;
+     *        there is no previous word if the two are equal
+     * @param result receives the words; replaces those of the previous call
+     * @return the number of words in result, at most maxResults
+     */
+    public int getSpellingSuggestions(String word, CharSequence text, int previousStart,
+            int previousEnd, TouchHistory touchHistory, int maxResults, SpellingResult result) {
+        result.mSize = 0;
+        ReplacementList list = mList;
+        SymSpellIndex index = list != null ? list.mSpellIndex : null;
+        if (index == null || word == null || word.length() < MIN_FUZZY_WORD_LENGTH
+                || !isFuzzyCandidate(word) || index.contains(word) || maxResults <= 0
+                || isKnownWord(word)) {
+            return 0;
+        }
+        int maxDistance = word.length() <= 4 ? 1 : SymSpellIndex.MAX_EDIT_DISTANCE;
+        SymSpellIndex.Results candidates = result.mCandidates;
+        index.lookup(word, maxDistance, Math.max(maxResults, SPELLING_CANDIDATE_POOL),
+                touchHistory, candidates);
+        result.mRanking.reset(mUserVocabulary, mBigramModel, text, previousStart, previousEnd,
+                System.currentTimeMillis());
+        candidates.sort(result.mRanking);
+        result.mSize = Math.min(maxResults, candidates.size());
+        return result.mSize;
+    }
+
+    /**
+     * Words found by {@link #getSpellingSuggestions(String, CharSequence, int, int, TouchHistory,
+     * int, SpellingResult)}, best first. Callers keep one instance and reuse it for every lookup on
+     * the IME thread; it also holds the scratch of the lookup and its ranking.
+     */
+    public static final class SpellingResult {
+        private final SymSpellIndex.Results mCandidates = new SymSpellIndex.Results();
+        private final UsageRanking mRanking = new UsageRanking();
+        private int mSize;
+
+        public int size() {
+            return mSize;
+        }
+
+        /**
+         * @return the word in lower case
+         */
+        public String getWord(int index) {
+            if (index >= mSize) {
+                throw new IndexOutOfBoundsException(index + " >= " + mSize);
+            }
+            return mCandidates.get(index).mWord;
+        }
+    }
+
+    /**
+     * Complete a partly typed word from the correct spellings of the replacement list, most
+     * used first. Allocates nothing; call it on the IME thread.
+     * @param out receives the completions in lower case; its length caps their number
+     * @return the number of completions written to out
+     */
+    public int getCompletions(CharSequence text, int start, int end, String[] out) {
+        if (end - start < MIN_COMPLETION_PREFIX_LENGTH) {
+            return 0;
+        }
+        ReplacementList list = mList;
+        if (list == null) {
+            return 0;
         }
-        Boolean alwaysOn = mAlwaysOnMap.get("^" + word);
-        if (alwaysOn != null) {
-            return alwaysOn;
+        CompletionTrie trie = list.mCompletionTrie;
+        int[] ids = mCompletionIds;
+        int count = trie.complete(text, start, end, ids);
+        count = Math.min(count, out.length);
+        for (int i = 0; i < count; i++) {
+            out[i] = trie.getWord(ids[i]);
         }
-        alwaysOn = mAlwaysOnMap.get(word.toLowerCase());
-        return alwaysOn != null && alwaysOn;
+        return count;
+    }
+
+    /**
+     * Orders spelling candidates by edit cost less a usage bonus, then by weight. Usage is the
+     * counter of a correction plus the decayed score of the word in the user vocabulary plus
+     * how often it followed the previous word. Each doubling of it takes half an edit off the
+     * cost, up to one full edit, so a word the user keeps choosing or typing can beat a
+     * slightly closer word.
+     */
+    private static final class UsageRanking implements Comparator<SymSpellIndex.Suggestion> {
+        private UserVocabulary mUserVocabulary;
+        private BigramModel mBigramModel;
+        // The previous word is read in place from this text; only during the lookup.
+        private CharSequence mText;
+        private int mPreviousStart;
+        private int mPreviousEnd;
+        private long mNow;
+
+        /**
+         * Set up the ranking for the candidates of one lookup.
+         */
+        void reset(UserVocabulary userVocabulary, BigramModel bigramModel, CharSequence text,
+                int previousStart, int previousEnd, long now) {
+            mUserVocabulary = userVocabulary;
+            mBigramModel = bigramModel;
+            mText = text;
+            mPreviousStart = previousStart;
+            mPreviousEnd = previousEnd;
+            mNow = now;
+        }
+
+        @Override
+        public int compare(SymSpellIndex.Suggestion a, SymSpellIndex.Suggestion b) {
+            int cost = Integer.compare(getRankingCost(a), getRankingCost(b));
+            return cost != 0 ? cost : Integer.compare(b.mWeight, a.mWeight);
+        }
+
+        private int getRankingCost(SymSpellIndex.Suggestion suggestion) {
+            // Bundled words weigh less than REPLACEMENT_WORD_WEIGHT and have no counter.
+            int usage = Math.max(0, suggestion.mWeight - REPLACEMENT_WORD_WEIGHT)
+                    + (int) mUserVocabulary.getScore(suggestion.mWord, mNow);
+            if (mText != null && mPreviousStart < mPreviousEnd) {
+                usage += mBigramModel.getCount(mText, mPreviousStart, mPreviousEnd,
+                        suggestion.mWord);
+            }
+            if (usage <= 0) {
+                return suggestion.mCost;
+            }
+            int bonus = 31 - Integer.numberOfLeadingZeros(usage + 1);
+            return suggestion.mCost - Math.min(bonus, EditDistance.EDIT_COST);
+        }
+    }
+
+    /**
+     * Learn a word the user committed, for ranking spelling suggestions and to recognize words
+     * the user means to write. Words with a replacement entry are skipped, so typing a listed
+     * misspelling never stops it from being flagged. A checkpoint is written in the background
+     * at most every {@link #USER_VOCABULARY_CHECKPOINT_INTERVAL_MS}. Call on the IME thread.
+     */
+    public void learnWord(String word) {
+        learnWord(null, 0, 0, word);
+    }
+
+    /**
+     * Like {@link #learnWord(String)}, and also learns that word followed the previous word.
+     * @param text text holding the previous word from previousStart to previousEnd, or null;
+     *        there is no previous word if the two are equal
+     */
+    public void learnWord(CharSequence text, int previousStart, int previousEnd, String word) {
+        if (word == null || word.length() < MIN_FUZZY_WORD_LENGTH || !isFuzzyCandidate(word)) {
+            return;
+        }
+        // A word on the replacement list is learned neither as known nor after the previous word.
+        long now = System.currentTimeMillis();
+        if (!mUserVocabulary.learnUnlessListed(getSnapshot(), word, now)) {
+            return;
+        }
+        if (text != null && previousStart < previousEnd) {
+            mBigramModel.learn(text, previousStart, previousEnd, word);
+        }
+        if (now - mLastVocabularyCheckpoint >= USER_VOCABULARY_CHECKPOINT_INTERVAL_MS) {
+            checkpointUserVocabulary();
+        }
+    }
+
+    /**
+     * Learn that the user chose to keep a word as typed after the previous word instead of
+     * taking its replacement, e.g. a name that is also a common misspelling. Unlike
+     * {@link #learnWord(CharSequence, int, int, String)} this also counts words with a
+     * replacement entry; see {@link #isKeptInContext}. Call on the IME thread.
+     * @param text text holding the previous word from previousStart to previousEnd, or null;
+     *        there is no previous word if the two are equal
+     */
+    public void keepWord(CharSequence text, int previousStart, int previousEnd, String word) {
+        if (text == null || previousStart >= previousEnd || word == null || word.isEmpty()) {
+            return;
+        }
+        mBigramModel.learn(text, previousStart, previousEnd, word);
+    }
+
+    /**
+     * Whether the user tends to keep a word as typed after the previous word: they kept it
+     * there at least {@link #CONTEXT_KEEP_COUNT} times, and more often than they wrote its
+     * replacement there. An always-on replacement is then only suggested in that context.
+     * @param text text holding the previous word from previousStart to previousEnd, or null;
+     *        there is no previous word if the two are equal
+     */
+    public boolean isKeptInContext(CharSequence text, int previousStart, int previousEnd,
+            String word, String replacement) {
+        if (text == null || previousStart >= previousEnd) {
+            return false;
+        }
+        int kept = mBigramModel.getCount(text, previousStart, previousEnd, word);
+        return kept >= CONTEXT_KEEP_COUNT
+                && kept > mBigramModel.getCount(text, previousStart, previousEnd, replacement);
+    }
+
+    /**
+     * Whether the user has typed a word without a replacement entry often and recently enough
+     * that it should get no spelling suggestions.
+     */
+    public boolean isKnownWord(String word) {
+        return mUserVocabulary.getScore(word, System.currentTimeMillis()) >= KNOWN_WORD_SCORE;
+    }
+
+    /**
+     * Write the learned words and word pairs to storage in the background if they changed,
+     * e.g. when input finishes. Call on the IME thread.
+     */
+    public void checkpointUserVocabulary() {
+        mLastVocabularyCheckpoint = System.currentTimeMillis();
+        mStorageThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mUserVocabulary.writeTo(mUserVocabularyFile);
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to checkpoint user vocabulary", e);
+                }
+                try {
+                    mBigramModel.writeTo(mBigramFile);
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to checkpoint bigram model", e);
+                }
+            }
+        });
     }
 
     /**
@@ -164,8 +1333,35 @@ public class TextReplacementManager {
         return prefs.getBoolean(PREFS_COUNTER_VISIBLE, true);
     }
 
+    /**
+     * Current usage counter for a word (same key logic as getReplacement), including increments
+     * still pending in the journal.
+     */
+    public int getCounter(String word) {
+        Snapshot snapshot = getSnapshot();
+        int index = resolveIndex(snapshot, word);
+        return index != ReplacementDictionary.NOT_FOUND ? snapshot.getCounter(index) : 0;
+    }
+
+    /**
+     * Map a typed word to its dictionary entry. ^ on misspell = exact case only: "^im" matches
+     * only "im", not "IM" or "Im"; exact-case entries win over case-insensitive ones.
+     */
+    private static int resolveIndex(Snapshot snapshot, String word) {
+        if (word == null || word.isEmpty()) {
+            return ReplacementDictionary.NOT_FOUND;
+        }
+        return resolveIndex(snapshot, word, 0, word.length());
+    }
+
+    private static int resolveIndex(Snapshot snapshot, CharSequence text, int start, int end) {
+        return snapshot.find(text, start, end);
+    }
+
     /**
      * Increment the counter for a word when it's corrected (no-op if counter is off).
+     * The in-memory counter is updated right away; the increment is appended to the counter
+     * journal in the background and folded into the CSV once enough records accumulate.
      * @param word The word that was corrected (case-insensitive)
      */
     public void incrementCounter(String word) {
@@ -175,35 +1371,70 @@ public class TextReplacementManager {
         if (!isCounterEnabled(mContext)) {
             return;
         }
-        try {
-            // Load current entries
-            List<TextReplacementEntry> entries = TextReplacementCsvManager.loadCsvFromStorage(mContext);
-            String wordLower = word.toLowerCase();
-            
-            // Find and increment the counter (match exact-case ^misspell or case-insensitive misspell)
-            boolean found = false;
-            for (TextReplacementEntry entry : entries) {
-                String misspell = entry.getMisspell();
-                if (misspell == null) continue;
-                boolean match = misspell.startsWith("^")
-                    ? misspell.equals("^" + word)
-                    : misspell.toLowerCase().equals(wordLower);
-                if (match) {
-                    entry.incrementCounter();
-                    found = true;
-                    break;
-                }
-            }
-            
-            // Save updated entries back to CSV
-            if (found) {
-                TextReplacementCsvManager.saveCsvToStorage(mContext, entries);
-                // Reload to update the manager's internal state
-                reload();
+        final ReplacementList list = mList;
+        if (list == null) {
+            return;
+        }
+        final Snapshot snapshot = list.mSnapshot.get();
+        final int index = resolveIndex(snapshot, word);
+        if (index == ReplacementDictionary.NOT_FOUND) {
+            return;
+        }
+        snapshot.addToCounter(index, 1);
+        final String key = snapshot.getKey(index);
+
+        mStorageThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                list.journalCounter(key);
             }
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to increment counter for word: " + word, e);
+        });
+    }
+
+    /**
+     * Add an entry to the current list, or replace the entry with the same misspell, e.g. from
+     * the suggestion bar. The edit is published in memory at once, without touching the
+     * compiled dictionary; it is then written to the entry journal in the background and
+     * folded into the CSV together with later edits.
+     */
+    public void upsert(final TextReplacementEntry entry) {
+        ReplacementList list = mList;
+        if (list != null) {
+            list.upsert(entry);
+            return;
         }
+        final String language = mCurrentLanguage;
+        mStorageThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                getList(language).upsert(entry);
+            }
+        });
+    }
+
+    /**
+     * @return the snapshot of the current list, or an empty one while there is none
+     */
+    private Snapshot getSnapshot() {
+        ReplacementList list = mList;
+        return list != null ? list.mSnapshot.get() : EMPTY_SNAPSHOT;
+    }
+
+    /**
+     * Fold all journaled entry edits and counter increments of the shared list into its CSV
+     * store and clear the journals. Runs on the calling thread; the settings screen calls it
+     * before reading the CSV.
+     */
+    public void compactJournals() {
+        mSharedList.compactJournals();
+    }
+
+    /**
+     * Like {@link #compactJournals()}, for the list that serves a language.
+     * @param language the language of the list, or null for the shared list
+     */
+    public void compactJournals(String language) {
+        getList(language).compactJournals();
     }
 
     /**
@@ -212,89 +1443,14 @@ public class TextReplacementManager {
      * @return The last word, or null if no word found
      */
     public static String extractLastWord(String textBeforeCursor) {
-        if (textBeforeCursor == null || textBeforeCursor.isEmpty()) {
-            return null;
-        }
-        
-        // Trim any trailing whitespace first
-        textBeforeCursor = textBeforeCursor.trim();
-        if (textBeforeCursor.isEmpty()) {
-            return null;
-        }
-        
-        // Find the start of the last word (skip whitespace and punctuation from the end)
-        int end = textBeforeCursor.length();
-        while (end > 0 && !Character.isLetterOrDigit(textBeforeCursor.charAt(end - 1))) {
-            end--;
-        }
-        
-        if (end == 0) {
-            return null;
-        }
-        
-        // Find the start of the word
-        int start = end - 1;
-        while (start > 0 && Character.isLetterOrDigit(textBeforeCursor.charAt(start - 1))) {
-            start--;
-        }
-        
-        return textBeforeCursor.substring(start, end);
+        return LastWordExtractor.extractLastWord(textBeforeCursor);
     }
-    
+
     /**
-     * Extract the last word with any trailing punctuation
-     * Supported punctuation: period, comma, exclamation, semicolon, colon, question mark,
-     * quotations, parentheses, slashes, brackets
-     * @param textBeforeCursor Text before the cursor
-     * @return Array with [0] = word, [1] = punctuation (or empty string), or null if no word found
+     * Extract the last word with any trailing punctuation, see
+     * {@link LastWordExtractor#extractLastWordWithPunctuation(String)}
      */
     public static String[] extractLastWordWithPunctuation(String textBeforeCursor) {
-        if (textBeforeCursor == null || textBeforeCursor.isEmpty()) {
-            return null;
-        }
-        
-        // Trim any trailing whitespace first
-        textBeforeCursor = textBeforeCursor.trim();
-        if (textBeforeCursor.isEmpty()) {
-            return null;
-        }
-        
-        int textEnd = textBeforeCursor.length();
-        
-        // Check for trailing punctuation
-        // Supported: . , ! ; : ? " ' ( ) / \ [ ]
-        String punctuation = "";
-        if (textEnd > 0) {
-            char lastChar = textBeforeCursor.charAt(textEnd - 1);
-            if (lastChar == '.' || lastChar == ',' || lastChar == '!' || 
-                lastChar == ';' || lastChar == ':' || lastChar == '?' ||
-                lastChar == '"' || lastChar == '\'' ||
-                lastChar == '(' || lastChar == ')' ||
-                lastChar == '/' || lastChar == '\\' ||
-                lastChar == '[' || lastChar == ']') {
-                punctuation = String.valueOf(lastChar);
-                textEnd--; // Exclude punctuation from word extraction
-            }
-        }
-        
-        // Find the start of the last word (skip whitespace from the end)
-        int end = textEnd;
-        while (end > 0 && !Character.isLetterOrDigit(textBeforeCursor.charAt(end - 1))) {
-            end--;
-        }
-        
-        if (end == 0) {
-            return null;
-        }
-        
-        // Find the start of the word
-        int start = end - 1;
-        while (start > 0 && Character.isLetterOrDigit(textBeforeCursor.charAt(start - 1))) {
-            start--;
-        }
-        
-        String word = textBeforeCursor.substring(start, end);
-        return new String[]{word, punctuation};
+        return LastWordExtractor.extractLastWordWithPunctuation(textBeforeCursor);
     }
 }
-
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2025 Raimondas Rimkus
+ *
+ * This file is part of Simple Spellcheck, a derivative work based on
+ * Simple Keyboard (Copyright (C) 2025 Raimondas Rimkus and contributors)
+ * which is based on AOSP LatinIME (Copyright (C) 2008 The Android Open Source Project).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gkohn11.spellcheckkeyboard.latin.utils;
+
+import android.util.Printer;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Latency of the stages of the key input pipeline, for the IME's dump output.
+ *
+ * Each stage keeps its most recent {@link #SAMPLES_PER_STAGE} durations in a preallocated ring,
+ * so recording costs two clock reads and an array store. Percentiles are only computed when the
+ * stats are dumped. Recording happens on the UI thread; a dump from another thread may see a
+ * sample being overwritten, which is fine for diagnostics.
+ */
+public final class InputLatencyStats {
+    /** LatinIME.onCodeInput: one key press, end to end. */
+    public static final int STAGE_KEY_INPUT = 0;
+    /** InputLogic.onCodeInput: applying the key event to the editor. */
+    public static final int STAGE_INPUT_LOGIC = 1;
+    /** LatinIME.checkTextReplacement: looking up and showing a replacement. */
+    public static final int STAGE_TEXT_REPLACEMENT = 2;
+    /** RichInputConnection.commitText: updating the text cache and calling the editor. */
+    public static final int STAGE_COMMIT_TEXT = 3;
+    private static final String[] STAGE_NAMES = {
+        "onCodeInput", "InputLogic", "checkTextReplacement", "commitText"
+    };
+    private static final int STAGE_COUNT = STAGE_NAMES.length;
+    private static final int SAMPLES_PER_STAGE = 512;
+
+    private final long[] mSamples = new long[STAGE_COUNT * SAMPLES_PER_STAGE];
+    // Total number of samples recorded per stage; the ring position is this modulo its size.
+    private final long[] mCounts = new long[STAGE_COUNT];
+
+    /**
+     * @return the start time to pass to {@link #record}
+     */
+    public static long now() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Record the time from startNanos until now for a stage.
+     */
+    public void record(final int stage, final long startNanos) {
+        final long duration = System.nanoTime() - startNanos;
+        final int slot = (int) (mCounts[stage] % SAMPLES_PER_STAGE);
+        mSamples[stage * SAMPLES_PER_STAGE + slot] = duration;
+        mCounts[stage]++;
+    }
+
+    public void dump(final Printer p) {
+        p.println("  Input latency (recent " + SAMPLES_PER_STAGE + " samples, microseconds):");
+        final long[] sorted = new long[SAMPLES_PER_STAGE];
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            final long count = mCounts[stage];
+            final int size = (int) Math.min(count, SAMPLES_PER_STAGE);
+            if (size == 0) {
+                p.println("    " + STAGE_NAMES[stage] + ": no samples");
+                continue;
+            }
+            System.arraycopy(mSamples, stage * SAMPLES_PER_STAGE, sorted, 0, size);
+            Arrays.sort(sorted, 0, size);
+            p.println(String.format(Locale.ROOT,
+                    "    %s: n=%d p50=%d p95=%d p99=%d max=%d", STAGE_NAMES[stage], count,
+                    toMicros(percentile(sorted, size, 50)), toMicros(percentile(sorted, size, 95)),
+                    toMicros(percentile(sorted, size, 99)), toMicros(sorted[size - 1])));
+        }
+    }
+
+    private static long percentile(final long[] sorted, final int size, final int percent) {
+        // Nearest-rank percentile.
+        final int rank = (size * percent + 99) / 100;
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+    private static long toMicros(final long nanos) {
+        return nanos / 1000;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2025 Raimondas Rimkus
+ *
+ * This file is part of Simple Spellcheck, a derivative work based on
+ * Simple Keyboard (Copyright (C) 2025 Raimondas Rimkus and contributors)
+ * which is based on AOSP LatinIME (Copyright (C) 2008 The Android Open Source Project).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gkohn11.spellcheckkeyboard.latin.replacement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class UserVocabularyTest {
+    private static final long HALF_LIFE_MS = 30L * 24 * 60 * 60 * 1000;
+
+    @Test
+    public void correctedSuggestionOnlyMisspellingIsStillFlagged() {
+        final ReplacementDictionary entries = new ReplacementDictionary.Builder()
+                .add("teh", "the", false, 0)
+                .build();
+        final UserVocabulary vocabulary = new UserVocabulary(100, HALF_LIFE_MS);
+        long now = 1000;
+        for (int i = 0; i < 3; i++) {
+            // The separator after the typed word, then the correction taken from the bar.
+            assertFalse(vocabulary.learnUnlessListed(entries, "teh", now++));
+            assertTrue(vocabulary.learnUnlessListed(entries, "the", now++));
+        }
+
+        assertEquals(0f, vocabulary.getScore("teh", now), 0f);
+        assertEquals(3f, vocabulary.getScore("the", now), 0.01f);
+        final String text = "I saw teh cat";
+        final List<String> flagged = new ArrayList<>();
+        new MisspellingScanner(entries, PhraseMatcher.build(entries), text).scan(0, text.length(),
+                new MisspellingScanner.Listener() {
+                    @Override
+                    public void onMisspelling(final int start, final int end, final int entry) {
+                        flagged.add(text.substring(start, end));
+                    }
+                });
+        assertEquals(1, flagged.size());
+        assertEquals("teh", flagged.get(0));
+    }
+
+    @Test
+    public void wordWithoutEntryIsLearned() {
+        final UserVocabulary vocabulary = new UserVocabulary(100, HALF_LIFE_MS);
+        assertTrue(vocabulary.learnUnlessListed(ReplacementDictionary.empty(), "Gradle", 0));
+        assertTrue(vocabulary.learnUnlessListed(ReplacementDictionary.empty(), "gradle", 0));
+        assertEquals(2f, vocabulary.getScore("GRADLE", 0), 0f);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2025 Raimondas Rimkus
+ *
+ * This file is part of Simple Spellcheck, a derivative work based on
+ * Simple Keyboard (Copyright (C) 2025 Raimondas Rimkus and contributors)
+ * which is based on AOSP LatinIME (Copyright (C) 2008 The Android Open Source Project).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gkohn11.spellcheckkeyboard.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.gkohn11.spellcheckkeyboard.latin.replacement.ReplacementDictionary;
+
+/**
+ * Lookups against the compiled dictionary (what TextReplacementManager.getReplacement does per
+ * word), and the time to compile and to open it.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class DictionaryBenchmark {
+    @Param({"1000", "10000", "100000", "500000"})
+    public int entryCount;
+
+    private String[] mMisspellings;
+    private File mFile;
+    private ReplacementDictionary mDictionary;
+    // Queries live in one buffer, like words in the editor text.
+    private StringBuilder mHitText;
+    private int[] mHitStarts;
+    private StringBuilder mMissText;
+    private int[] mMissStarts;
+    private int mNext;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mMisspellings = SyntheticData.misspellings(entryCount);
+        mFile = SyntheticData.tempFile();
+        mDictionary = SyntheticData.writeAndOpen(mMisspellings, mFile);
+        mHitText = new StringBuilder();
+        mHitStarts = new int[mMisspellings.length + 1];
+        mMissText = new StringBuilder();
+        mMissStarts = new int[mMisspellings.length + 1];
+        for (int i = 0; i < mMisspellings.length; i++) {
+            mHitStarts[i] = mHitText.length();
+            mHitText.append(mMisspellings[i]);
+            mMissStarts[i] = mMissText.length();
+            mMissText.append(mMisspellings[i]).append('q');
+        }
+        mHitStarts[mMisspellings.length] = mHitText.length();
+        mMissStarts[mMisspellings.length] = mMissText.length();
+    }
+
+    private int nextQuery() {
+        final int query = mNext;
+        mNext = query + 1 == mMisspellings.length ? 0 : query + 1;
+        return query;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public String lookupHit() {
+        final int query = nextQuery();
+        final int index = mDictionary.find(mHitText, mHitStarts[query], mHitStarts[query + 1]);
+        return index != ReplacementDictionary.NOT_FOUND ? mDictionary.getValue(index) : null;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int lookupMiss() {
+        final int query = nextQuery();
+        return mDictionary.find(mMissText, mMissStarts[query], mMissStarts[query + 1]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Measurement(iterations = 5)
+    public ReplacementDictionary compile() throws IOException {
+        SyntheticData.builder(mMisspellings).writeTo(mFile, 0, mFile.length());
+        return ReplacementDictionary.open(mFile);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Measurement(iterations = 5)
+    public ReplacementDictionary open() throws IOException {
+        return ReplacementDictionary.open(mFile);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2025 Raimondas Rimkus
+ *
+ * This file is part of Simple Spellcheck, a derivative work based on
+ * Simple Keyboard (Copyright (C) 2025 Raimondas Rimkus and contributors)
+ * which is based on AOSP LatinIME (Copyright (C) 2008 The Android Open Source Project).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gkohn11.spellcheckkeyboard.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.gkohn11.spellcheckkeyboard.latin.replacement.MisspellingScanner;
+import com.gkohn11.spellcheckkeyboard.latin.replacement.PhraseMatcher;
+import com.gkohn11.spellcheckkeyboard.latin.replacement.ReplacementDictionary;
+
+/**
+ * The document scan loop: all misspelled words and phrases of a 100k char text, page by page
+ * as in scan mode.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ScanBenchmark {
+    private static final int TEXT_LENGTH = 100000;
+    private static final int PAGE_SIZE = 1024;
+    private static final int HIT_RATE = 20;
+
+    @Param({"1000", "10000", "100000", "500000"})
+    public int entryCount;
+
+    private ReplacementDictionary mDictionary;
+    private PhraseMatcher mPhraseMatcher;
+    private String mText;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        final String[] misspellings = SyntheticData.misspellings(entryCount);
+        final File file = SyntheticData.tempFile();
+        mDictionary = SyntheticData.writeAndOpen(misspellings, file);
+        mPhraseMatcher = PhraseMatcher.build(mDictionary);
+        mText = SyntheticData.text(misspellings, TEXT_LENGTH, HIT_RATE);
+    }
+
+    @Benchmark
+    public void scan(final Blackhole blackhole) {
+        final MisspellingScanner scanner =
+                new MisspellingScanner(mDictionary, mPhraseMatcher, mText);
+        final MisspellingScanner.Listener listener = new MisspellingScanner.Listener() {
+            @Override
+            public void onMisspelling(final int start, final int end, final int entry) {
+                blackhole.consume(entry);
+            }
+        };
+        int pageStart = 0;
+        while (pageStart < mText.length()) {
+            final int pageEnd = MisspellingScanner.findPageEnd(mText, pageStart, PAGE_SIZE);
+            scanner.scan(pageStart, pageEnd, listener);
+            pageStart = pageEnd;
+        }
+    }
+
+    @Benchmark
+    public PhraseMatcher buildPhraseMatcher() {
+        return PhraseMatcher.build(mDictionary);
+    }
+}
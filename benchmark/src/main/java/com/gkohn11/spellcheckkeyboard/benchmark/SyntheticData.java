@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2025 Raimondas Rimkus
+ *
+ * This file is part of Simple Spellcheck, a derivative work based on
+ * Simple Keyboard (Copyright (C) 2025 Raimondas Rimkus and contributors)
+ * which is based on AOSP LatinIME (Copyright (C) 2008 The Android Open Source Project).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gkohn11.spellcheckkeyboard.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import com.gkohn11.spellcheckkeyboard.latin.replacement.ReplacementDictionary;
+
+/**
+ * Deterministic synthetic replacement lists and texts, so runs can be compared across engine
+ * changes.
+ */
+final class SyntheticData {
+    private static final long SEED = 20250101L;
+    private static final String LETTERS = "etaoinshrdlcumwfgypbvkjxqz";
+
+    private SyntheticData() {
+        // This utility class is not publicly instantiable.
+    }
+
+    /**
+     * @return count distinct lower-case misspellings of 3 to 10 letters
+     */
+    static String[] misspellings(final int count) {
+        final Random random = new Random(SEED);
+        final Set<String> seen = new HashSet<>(count * 2);
+        final String[] words = new String[count];
+        int size = 0;
+        final StringBuilder word = new StringBuilder();
+        while (size < count) {
+            word.setLength(0);
+            final int length = 3 + random.nextInt(8);
+            for (int i = 0; i < length; i++) {
+                // Skewed towards frequent letters, like real words.
+                final int index = (int) (LETTERS.length() * Math.pow(random.nextDouble(), 2));
+                word.append(LETTERS.charAt(index));
+            }
+            final String candidate = word.toString();
+            if (seen.add(candidate)) {
+                words[size++] = candidate;
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Build a dictionary from the misspellings: every tenth entry is exact-case, every fiftieth
+     * is a two-word phrase and every third is always on.
+     */
+    static ReplacementDictionary.Builder builder(final String[] misspellings) {
+        final ReplacementDictionary.Builder builder = new ReplacementDictionary.Builder();
+        for (int i = 0; i < misspellings.length; i++) {
+            String misspell = misspellings[i];
+            if (i % 50 == 0 && i + 1 < misspellings.length) {
+                misspell = misspell + " " + misspellings[i + 1];
+            } else if (i % 10 == 0) {
+                misspell = ReplacementDictionary.EXACT_CASE_PREFIX + misspell;
+            }
+            builder.add(misspell, misspellings[i] + "e", i % 3 == 0, i % 100);
+        }
+        return builder;
+    }
+
+    static ReplacementDictionary writeAndOpen(final String[] misspellings, final File file)
+            throws IOException {
+        builder(misspellings).writeTo(file, 0, file.length());
+        return ReplacementDictionary.open(file);
+    }
+
+    /**
+     * @return about length chars of text in which roughly one word in hitRate is a misspelling
+     */
+    static String text(final String[] misspellings, final int length, final int hitRate) {
+        final Random random = new Random(SEED + 1);
+        final StringBuilder text = new StringBuilder(length + 16);
+        while (text.length() < length) {
+            if (random.nextInt(hitRate) == 0) {
+                text.append(misspellings[random.nextInt(misspellings.length)]);
+            } else {
+                // Random other words; a few of them happen to be misspellings too.
+                final int wordLength = 2 + random.nextInt(7);
+                for (int i = 0; i < wordLength; i++) {
+                    text.append(LETTERS.charAt(random.nextInt(LETTERS.length())));
+                }
+            }
+            text.append(random.nextInt(12) == 0 ? ". " : " ");
+        }
+        return text.toString();
+    }
+
+    static File tempFile() throws IOException {
+        final File file = File.createTempFile("replacements", ".dict");
+        file.deleteOnExit();
+        return file;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2025 Raimondas Rimkus
+ *
+ * This file is part of Simple Spellcheck, a derivative work based on
+ * Simple Keyboard (Copyright (C) 2025 Raimondas Rimkus and contributors)
+ * which is based on AOSP LatinIME (Copyright (C) 2008 The Android Open Source Project).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gkohn11.spellcheckkeyboard.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.gkohn11.spellcheckkeyboard.latin.replacement.LastWordExtractor;
+import com.gkohn11.spellcheckkeyboard.latin.settings.TextReplacementEntry;
+
+/**
+ * Per-keystroke and per-line text handling that doesn't depend on the dictionary size.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TextBenchmark {
+    // About as much text as the editor cache holds before the cursor.
+    private final String mTextBeforeCursor =
+            "The quick brown fox jumps over the lazy dog while teh cat watches, ".repeat(15)
+                    + "and then it recieved ";
+    private final String mCsvLine = "\"teh, quoted\",\"the \"\"real\"\" word\",true,42";
+    private final TextReplacementEntry mEntry =
+            new TextReplacementEntry("teh, quoted", "the \"real\" word", true, 42);
+
+    @Benchmark
+    public String[] extractLastWordWithPunctuation() {
+        return LastWordExtractor.extractLastWordWithPunctuation(mTextBeforeCursor);
+    }
+
+    @Benchmark
+    public TextReplacementEntry fromCsv() {
+        return TextReplacementEntry.fromCsv(mCsvLine);
+    }
+
+    @Benchmark
+    public String toCsv() {
+        return mEntry.toCsv();
+    }
+}